@@ -0,0 +1,267 @@
+package app.gui;
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.media.opengl.GL;
+import javax.media.opengl.glu.GLU;
+
+import app.tools.FileUtils;
+import app.tools.StackCache;
+
+/** ImagePyramid.java
+ * <br>
+ * Provides full-resolution detail for the 2D view. Each slice is treated as a pyramid of power-of-two levels
+ * (level 0 is full resolution), and each level is cut into TILE_SIZE x TILE_SIZE tiles. The level is chosen from
+ * the viewer's zoom factor, and only the tiles covering the visible part of the viewport are decoded and uploaded.
+ * <br>
+ * Tiles are decoded (or read back from the stack's disk cache) on a background thread and uploaded on the GL thread.
+ * Uploaded tiles are kept in a fixed pool of textures managed as an LRU cache, so texture memory stays bounded however
+ * far the user zooms or scrolls, and no GL objects are created or deleted after the first tiles are shown.
+ */
+public class ImagePyramid {
+
+	/** Edge length of a tile, in pixels of its level */				public static final int TILE_SIZE = 256;
+	/** Number of tile textures kept resident */						private static final int MAX_TILES = 48;
+	/** Tiles uploaded per frame, to keep scrubbing smooth */		private static final int MAX_UPLOADS_PER_FRAME = 4;
+
+	private final String directory, base, ext;
+	private final int scale;
+	/** Resolution of the thumbnail drawn underneath the tiles */	private final int thumbnailSize;
+	/** Disk cache for reduced-resolution tiles; full-resolution tiles are cheap region reads */	private final StackCache cache;
+
+	private int sourceWidth = -1, sourceHeight = -1;
+	private int maxLevel = 0;
+	private volatile int currentSlice = -1;
+
+	/** Texture slots of the resident tiles, least recently drawn first */
+	private final LinkedHashMap<Long, Integer> tiles = new LinkedHashMap<Long, Integer>(MAX_TILES, 0.75f, true);
+	/** Tile textures, allocated once and refilled as tiles are evicted */	private final TexturePool pool = new TexturePool(TILE_SIZE, TILE_SIZE, MAX_TILES);
+	/** Tiles requested but not yet uploaded */							private final Set<Long> pending = Collections.synchronizedSet(new HashSet<Long>());
+	/** Tiles decoded and waiting for the GL thread */				private final ConcurrentLinkedQueue<DecodedTile> decoded = new ConcurrentLinkedQueue<DecodedTile>();
+	private final ExecutorService decoder = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "ImagePyramid decoder");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/** Constructor.
+	 * @param directory
+	 * @param base
+	 * @param ext
+	 * @param scale
+	 * @param thumbnailSize	resolution already covered by the low-res texture; coarser levels are never tiled
+	 * @param cache			disk cache for decoded tiles
+	 */
+	public ImagePyramid(String directory, String base, String ext, int scale, int thumbnailSize, StackCache cache) {
+		this.directory = directory;
+		this.base = base;
+		this.ext = ext;
+		this.scale = scale;
+		this.thumbnailSize = thumbnailSize;
+		this.cache = cache;
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			LEVEL SELECTION
+	//
+	//******************************************************************************************************************************
+
+	/** Reads the full-resolution size of the stack from the first slice requested. */
+	private boolean initSize(int slice) {
+		if (sourceWidth > 0) return true;
+		Dimension size = FileUtils.getImageSize(getPath(slice));
+		if (size == null) return false;
+		sourceWidth = size.width;
+		sourceHeight = size.height;
+		maxLevel = 0;
+		while ((Math.max(sourceWidth, sourceHeight) >> maxLevel) > TILE_SIZE) maxLevel++;
+		return true;
+	}
+
+	/** Returns the pyramid level to draw at the given zoom factor: the coarsest level that still has at least one
+	 * source pixel per screen pixel. At zoomFactor 1 the whole slice spans the viewport.
+	 *
+	 * @param zoomFactor
+	 * @param viewportWidth
+	 * @return level
+	 */
+	public int getLevel(float zoomFactor, int viewportWidth) {
+		float pixelsPerScreenPixel = sourceWidth * zoomFactor / Math.max(1, viewportWidth);
+		int level = 0;
+		while (level < maxLevel && pixelsPerScreenPixel >= 2f) {
+			pixelsPerScreenPixel /= 2f;
+			level++;
+		}
+		return level;
+	}
+
+	private String getPath(int slice) {
+		return FileUtils.getImagePath(slice, directory, base, ext, scale);
+	}
+
+	private static long getKey(int slice, int level, int tx, int ty) {
+		return ((long)slice << 37) | ((long)level << 32) | ((long)tx << 16) | ty;
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			RENDERING
+	//
+	//******************************************************************************************************************************
+
+	/** Draws the visible tiles of a slice over the quad spanned by the slice, at depth z. Must be called with the same
+	 * modelview that will be used to draw the quad, so the visible region can be recovered by unprojecting the viewport.
+	 * Tiles that are not yet available are requested, and the thumbnail underneath shows through until they arrive.
+	 *
+	 * @param gl
+	 * @param slice			file index of the slice
+	 * @param zoomFactor	Viewer2D zoom factor
+	 * @param left			x coordinate of the slice's left edge
+	 * @param right			x coordinate of the slice's right edge
+	 * @param top			y coordinate of the slice's top edge
+	 * @param bottom		y coordinate of the slice's bottom edge
+	 * @param z
+	 */
+	public void paint(GL gl, int slice, float zoomFactor, float left, float right, float top, float bottom, float z) {
+		if (slice != currentSlice) {
+			currentSlice = slice;
+			pending.clear();																		//Outstanding requests for other slices are dropped by the decoder.
+		}
+		uploadDecoded(gl);
+		if (!initSize(slice)) return;
+
+		int viewport[] = new int[4];				gl.glGetIntegerv(GL.GL_VIEWPORT, viewport, 0);
+		int level = getLevel(zoomFactor, viewport[2]);
+		int levelWidth = ceilShift(sourceWidth, level), levelHeight = ceilShift(sourceHeight, level);
+		if (Math.max(levelWidth, levelHeight) <= thumbnailSize) return;			//The thumbnail is already this sharp.
+
+		/* Visible region, in normalized slice coordinates */
+		double mvmatrix[] = new double[16];		gl.glGetDoublev(GL.GL_MODELVIEW_MATRIX, mvmatrix, 0);
+		double projmatrix[] = new double[16];	gl.glGetDoublev(GL.GL_PROJECTION_MATRIX, projmatrix, 0);
+		double a[] = new double[4], b[] = new double[4];
+		GLU glu = new GLU();
+		glu.gluUnProject(viewport[0], viewport[1], 0.0, mvmatrix, 0, projmatrix, 0, viewport, 0, a, 0);
+		glu.gluUnProject(viewport[0]+viewport[2], viewport[1]+viewport[3], 0.0, mvmatrix, 0, projmatrix, 0, viewport, 0, b, 0);
+		float u0 = (float) ((Math.min(a[0], b[0]) - left) / (right - left));
+		float u1 = (float) ((Math.max(a[0], b[0]) - left) / (right - left));
+		float v0 = (float) ((top - Math.max(a[1], b[1])) / (top - bottom));
+		float v1 = (float) ((top - Math.min(a[1], b[1])) / (top - bottom));
+		if (u1 < 0f || u0 > 1f || v1 < 0f || v0 > 1f) return;
+
+		int tilesX = (levelWidth + TILE_SIZE - 1) / TILE_SIZE, tilesY = (levelHeight + TILE_SIZE - 1) / TILE_SIZE;
+		int tx0 = clamp((int) (u0 * levelWidth) / TILE_SIZE, tilesX), tx1 = clamp((int) (u1 * levelWidth) / TILE_SIZE, tilesX);
+		int ty0 = clamp((int) (v0 * levelHeight) / TILE_SIZE, tilesY), ty1 = clamp((int) (v1 * levelHeight) / TILE_SIZE, tilesY);
+
+		gl.glEnable(GL.GL_TEXTURE_2D);
+		gl.glColor3f(1.0f, 1.0f, 1.0f);
+		int tileSpan = TILE_SIZE << level;														//Tile edge, in source pixels
+		for (int tx = tx0; tx <= tx1; ++tx) {
+			for (int ty = ty0; ty <= ty1; ++ty) {
+				long key = getKey(slice, level, tx, ty);
+				Integer tile = tiles.get(key);
+				if (tile == null) { request(key, slice, level, tx, ty); continue; }
+
+				float tu0 = tx * tileSpan / (float) sourceWidth, tu1 = Math.min(1f, (tx+1) * tileSpan / (float) sourceWidth);
+				float tv0 = ty * tileSpan / (float) sourceHeight, tv1 = Math.min(1f, (ty+1) * tileSpan / (float) sourceHeight);
+				float x0 = left + tu0 * (right - left), x1 = left + tu1 * (right - left);
+				float y0 = top - tv0 * (top - bottom), y1 = top - tv1 * (top - bottom);
+
+				float s1 = pool.getMaxS(tile), t1 = pool.getMaxT(tile);					//Edge tiles only fill part of their texture.
+				pool.bind(gl, tile);
+				gl.glBegin(GL.GL_QUADS);
+				gl.glTexCoord2d(s1, t1);		gl.glVertex3f(x1, y1, z);
+				gl.glTexCoord2d(0, t1);		gl.glVertex3f(x0, y1, z);
+				gl.glTexCoord2d(0, 0);			gl.glVertex3f(x0, y0, z);
+				gl.glTexCoord2d(s1, 0);		gl.glVertex3f(x1, y0, z);
+				gl.glEnd();
+			}
+		}
+		gl.glDisable(GL.GL_TEXTURE_2D);
+	}
+
+	/** Releases all tile textures. Requires an active GL context. */
+	public void dispose(GL gl) {
+		pool.dispose(gl);
+		tiles.clear();
+		pending.clear();
+		decoded.clear();
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			DECODING & UPLOADING
+	//
+	//******************************************************************************************************************************
+
+	/** Queues a tile for decoding, unless it is already on its way. */
+	private void request(final long key, final int slice, final int level, final int tx, final int ty) {
+		if (!pending.add(key)) return;
+		decoder.execute(new Runnable() {
+			public void run() {
+				if (slice != currentSlice) { pending.remove(key); return; }			//User has already moved on.
+				File source = new File(getPath(slice));
+				BufferedImage image = (level > 0) ? cache.getTile(source, level, tx, ty) : null;
+				if (image == null) {
+					int span = TILE_SIZE << level;
+					Rectangle region = new Rectangle(tx*span, ty*span, Math.min(span, sourceWidth - tx*span), Math.min(span, sourceHeight - ty*span));
+					image = FileUtils.getImageRegion(source.getPath(), region, 1 << level);
+					if (image == null) { pending.remove(key); return; }
+					if (level > 0) cache.putTile(source, level, tx, ty, image);
+				}
+				decoded.add(new DecodedTile(key, slice, image));
+			}
+		});
+	}
+
+	/** Copies a few decoded tiles into texture slots, evicting the least recently drawn tiles once all slots are in use.
+	 * Tiles for slices that are no longer shown are discarded. */
+	private void uploadDecoded(GL gl) {
+		int uploads = 0;
+		for (Iterator<DecodedTile> iter = decoded.iterator(); iter.hasNext() && uploads < MAX_UPLOADS_PER_FRAME; ) {
+			DecodedTile d = iter.next();
+			iter.remove();
+			pending.remove(d.key);
+			if (d.slice != currentSlice) continue;
+			int slot = tiles.size();
+			if (slot >= MAX_TILES) {
+				Iterator<Integer> eldest = tiles.values().iterator();
+				slot = eldest.next();
+				eldest.remove();
+			}
+			pool.upload(gl, slot, d.image);
+			tiles.put(d.key, slot);
+			uploads++;
+		}
+	}
+
+	private static int ceilShift(int size, int level) {
+		return (size + (1 << level) - 1) >> level;
+	}
+
+	private static int clamp(int tile, int count) {
+		return Math.max(0, Math.min(count - 1, tile));
+	}
+
+	/** A decoded tile, handed from the decoder thread to the GL thread. */
+	private static class DecodedTile {
+		final long key;
+		final int slice;
+		final BufferedImage image;
+		DecodedTile(long key, int slice, BufferedImage image) { this.key = key; this.slice = slice; this.image = image; }
+	}
+}
@@ -5,15 +5,18 @@ import java.awt.event.ActionListener;
 import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JFileChooser;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JSpinner;
 import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingWorker;
 
 import app.RegistrationTool;
 import app.tools.MeshLoader;
@@ -28,6 +31,7 @@ public class ImageStackLoadingPanel extends JPanel {
 	private JSpinner fitWeight;
 	private JSpinner deformWeight;
 	private JSpinner iters;
+	private JCheckBox volumetric;
 	
 	public ImageStackLoadingPanel(RegistrationTool app) {
 		super();
@@ -64,10 +68,12 @@ public class ImageStackLoadingPanel extends JPanel {
 					@Override
 					public void actionPerformed(ActionEvent e) {
 						extractLandmarksFromStack();
-						RegistrationUtils.startRegistrationSession(app.getMesh(), app.getSubLevel());
 					}
 				});
 		
+		volumetric = new JCheckBox("Volumetric");
+		volumetric.setToolTipText("Extract the boundary from the whole stack at once, with 3D normals");
+		
 		// fitting	
 		JPanel fitpanel = new JPanel();
 		fitpanel.setLayout(new BoxLayout(fitpanel, BoxLayout.Y_AXIS));
@@ -127,6 +133,7 @@ public class ImageStackLoadingPanel extends JPanel {
 		buttonpanel.add(Box.createVerticalStrut(13));
 		buttonpanel.add(new JLabel("(step 2)"));
 		buttonpanel.add(extractLandmarks);
+		buttonpanel.add(volumetric);
 		buttonpanel.add(Box.createVerticalStrut(13));
 		buttonpanel.add(new JLabel("(step 4)"));
 		buttonpanel.add(saveMeshBoundary);
@@ -148,10 +155,28 @@ public class ImageStackLoadingPanel extends JPanel {
 		app.getViewer2D().setStreamer(streamer);
 	}
 	
+	/** Extracts landmarks off the event thread, so the status bar can show progress, then starts a registration session. */
 	private void extractLandmarksFromStack() {
-		ImageStreamer streamer = app.getViewer2D().getStreamer();		
-		List<Landmark> landmarks = streamer.extractLandmarks(1.0,1);
-		app.setLandmarks(landmarks);
+		final ImageStreamer streamer = app.getViewer2D().getStreamer();
+		if (streamer == null) return;
+		final boolean wholeStack = volumetric.isSelected();
+		new SwingWorker<List<Landmark>, Void>() {
+			@Override
+			protected List<Landmark> doInBackground() {
+				return wholeStack ? streamer.extractSurfaceLandmarks(streamer.getThreshold(),1) : streamer.extractLandmarks(streamer.getThreshold(),1);
+			}
+			@Override
+			protected void done() {
+				try {
+					app.setLandmarks(get());
+					RegistrationUtils.startRegistrationSession(app.getMesh(), app.getSubLevel());
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				} catch (ExecutionException e) {
+					e.getCause().printStackTrace();
+				}
+			}
+		}.execute();
 	}
 
 }
@@ -4,19 +4,44 @@ import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.media.opengl.GL;
 
-import com.sun.opengl.util.texture.Texture;
-import com.sun.opengl.util.texture.TextureIO;
-
 import app.RegistrationTool;
 import app.tools.FileUtils;
+import app.tools.Log;
+import app.tools.StackCache;
+import app.tools.cross_sections.LabelSlicer;
+import app.tools.imaging.BitMask;
+import app.tools.imaging.ComponentLabeler;
+import app.tools.imaging.Contour;
+import app.tools.imaging.ContourExtractor;
+import app.tools.imaging.ImageFileSliceSource;
+import app.tools.imaging.Morphology;
+import app.tools.imaging.Morphology.StructuringElement;
+import app.tools.imaging.OverlapEvaluator;
+import app.tools.imaging.OverlapEvaluator.LabelSlices;
+import app.tools.imaging.Slice;
+import app.tools.imaging.SliceSource;
+import app.tools.imaging.SurfaceExtractor;
+import app.tools.imaging.SurfaceSamples;
+import app.tools.imaging.ThresholdEngine;
+import app.tools.imaging.Windowing;
 import app.tools.math.Vector;
 import app.tools.math.Vertex;
+import app.tools.structure.Mesh;
+import app.tools.structure.MeshVoxelizer;
 import app.tools.topology.Landmark;
 
 public class ImageStreamer {
@@ -25,13 +50,33 @@ public class ImageStreamer {
 	private float maxX,maxY,maxZ;
 	private Vertex origin;
 	
-	protected Texture curTexture;
+	/** Thumbnail textures, refilled as the slider moves */
+	protected TexturePool thumbnails = new TexturePool(LOW_TEX, LOW_TEX, 2);
+	/** Pool slot holding the thumbnail of curIndex */
+	protected int curSlot = -1;
 	protected int curIndex;
 	protected String id;
 	protected Vector axis;
 
 	protected BufferedImage[] imageCache;
-	protected BufferedImage waitingImage;
+	/** Intensities of the slices, resampled to LOW_TEX x LOW_TEX; what landmark extraction thresholds */
+	protected Slice[] intensityCache;
+	/** Where slice intensities come from: the stack's image files unless a raw volume has been set */
+	protected SliceSource sliceSource;
+	/** Display window/level; null to show 8-bit image files as they are */
+	protected Windowing windowing;
+	/** Foreground threshold in intensity units; NaN to choose one per slice from its histogram */
+	protected double threshold = Double.NaN;
+	/** Automatic per-z-slice thresholds, smoothed through the stack; null until first needed */
+	private volatile double[] autoThresholds;
+	/** True if the foreground is darker than the threshold */
+	protected boolean darkForeground = true;
+	/** Full-resolution tiles, drawn over the thumbnail when zoomed in */
+	protected ImagePyramid pyramid;
+	/** Resamples the z-stack for cutting planes that are not aligned with it */
+	protected ObliqueReslicer reslicer;
+	/** Thumbnails and tiles kept on disk between sessions */
+	protected StackCache cache;
 
 	protected int imageWidth;
 	protected int imageHeight;
@@ -51,6 +96,12 @@ public class ImageStreamer {
 
 	public static final String X_AXIS = "x", Y_AXIS = "y", Z_AXIS = "z";
 	private static final int LOW_TEX = 128;
+	/** Largest angle between the cutting plane and the stack, in degrees, that still shows the stack's own slices */
+	private static final float OBLIQUE_TOLERANCE = 1f;
+	/** Threads used for landmark extraction */	private static final int EXTRACTION_THREADS = Runtime.getRuntime().availableProcessors();
+	/** Arc length between boundary landmarks, in thumbnail pixels */	private static final float LANDMARK_SPACING = 10f;
+	/** Slices of cells per surface extraction task */	private static final int SURFACE_SLAB = 8;
+	/** Slices either side in the running median of automatic thresholds */	private static final int THRESHOLD_RADIUS = 2;
 
 	public ImageStreamer(int sizestart, int sizex, int sizey, int sizez, String base,
 			String ext, int scale, String directory) {
@@ -81,6 +132,11 @@ public class ImageStreamer {
 		spacingz = (java.lang.Math.abs(maxZ-minZ)/2.0f)/midz;
 		
 		this.imageCache = new BufferedImage[sizex+sizey+sizez];
+		this.intensityCache = new Slice[sizex+sizey+sizez];
+		this.sliceSource = new ImageFileSliceSource(directory, base, ext, scale, sizestart, sizex+sizey+sizez);
+		this.cache = new StackCache(directory, base + "|" + ext + "|" + scale + "|" + sizestart, sizex+sizey+sizez, LOW_TEX);
+		this.pyramid = new ImagePyramid(directory, base, ext, scale, LOW_TEX, cache);
+		this.reslicer = new ObliqueReslicer(this, LOW_TEX, LOW_TEX, sizez, minX, maxX, minY, maxY, minZ, maxZ);
 	}
 	
 	public String getId() { return id; }
@@ -102,13 +158,78 @@ public class ImageStreamer {
 
 	public void setAxis(Vector axis) { this.axis = axis; }
 
-	/** Loads thumbnail images from GeneServer.
+	public SliceSource getSliceSource() { return sliceSource; }
+
+	/** Edge length of the thumbnails that landmarks are extracted from */
+	public int getThumbnailSize() { return LOW_TEX; }
+
+	/** Replaces the source of slice intensities, e.g. with a raw volume. Its slices must be in stack order. */
+	public void setSliceSource(SliceSource sliceSource) {
+		this.sliceSource = sliceSource;
+		this.intensityCache = new Slice[intensityCache.length];
+		this.autoThresholds = null;
+		clearThumbnails();
+	}
+
+	/** Returns the display window/level, which is the source's full range unless one has been set. */
+	public Windowing getWindowing() {
+		return windowing != null ? windowing : Windowing.fullRange(sliceSource.getMaxValue());
+	}
+
+	public void setWindowing(Windowing windowing) {
+		this.windowing = windowing;
+		clearThumbnails();
+	}
+
+	/** Returns the foreground threshold, in intensity units, or NaN if each slice gets its own from its histogram
+	 * (the default). */
+	public double getThreshold() {
+		return threshold;
+	}
+
+	/** Sets the foreground threshold.
+	 * @param threshold			in intensity units, or NaN for automatic per-slice thresholds
+	 * @param darkForeground	true if the foreground is darker than the threshold, false if brighter
+	 */
+	public void setThreshold(double threshold, boolean darkForeground) {
+		this.threshold = threshold;
+		this.darkForeground = darkForeground;
+		this.autoThresholds = null;
+	}
+
+	/** True if thumbnails are rendered from slice intensities through the windowing, rather than decoded from image
+	 * files: for raw volumes, high-bit-depth images, or whenever a window/level has been set. */
+	private boolean isWindowed() {
+		return windowing != null || !(sliceSource instanceof ImageFileSliceSource) || sliceSource.getMaxValue() > 255;
+	}
+
+	/** Drops the display thumbnails so they are rendered again. */
+	private void clearThumbnails() {
+		this.imageCache = new BufferedImage[imageCache.length];
+		curSlot = -1;
+		reslicer.invalidate();
+	}
+
+	/** Loads thumbnail images from GeneServer, or from the stack's disk cache if the source is unchanged. Only every n-th pixel of the source is decoded, and the result is
+	 * scaled the rest of the way to LOW_TEX x LOW_TEX.
 	 * Full-resolution images are streamed in another thread by FTPTask objects.
 	 * @param index
 	 * @return image
 	 */
 	private BufferedImage getImage(int index) {		
-		BufferedImage image = FileUtils.getImage(index, directory, base, ext, scale);
+		if (isWindowed()) {
+			try {
+				return getWindowing().toImage(getIntensityThumbnail(index));
+			} catch (IOException e) {
+				Log.p("Could not load slice " + index + ": " + e.getMessage());
+				return null;
+			}
+		}
+		File source = getImageFile(index);
+		BufferedImage cached = cache.getThumbnail(index - sizestart, source);
+		if (cached != null) return cached;
+
+		BufferedImage image = FileUtils.getThumbnail(source.getPath(), LOW_TEX);
 		BufferedImage scaledImage = new BufferedImage(LOW_TEX, LOW_TEX, BufferedImage.TYPE_INT_ARGB);
 
 		// Paint scaled version of image to new image
@@ -117,67 +238,41 @@ public class ImageStreamer {
 		graphics2D.drawImage(image, 0, 0, LOW_TEX, LOW_TEX, null);
 		graphics2D.dispose();
 
+		cache.putThumbnail(index - sizestart, source, scaledImage);
 		return scaledImage;
 	}
 
-	/** Given a BufferedImage, generates a new Texture object ready for binding.
-	 * Requires that there be an active GL context on the current thread.
-	 * 
-	 * @param image
-	 * @return texture
-	 */
-	private Texture getTexture(BufferedImage image) {
-		Texture texture =  TextureIO.newTexture(image, false);
-		texture.setTexParameteri(GL.GL_TEXTURE_WRAP_S, GL.GL_REPEAT);
-		texture.setTexParameteri(GL.GL_TEXTURE_WRAP_T, GL.GL_REPEAT);
-		texture.setTexParameteri(GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
-		texture.setTexParameteri(GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
-		texture.bind();
-		return texture;
+	private File getImageFile(int index) {
+		return new File(FileUtils.getImagePath(index, directory, base, ext, scale));
 	}
 
-	/** Returns a texture ready for binding to a GL context, as follows:
-	 * 		1) Checks to see if the viewing plane has moved. If so, depending on whether a high-res image is waiting:
-	 * 				a) Return the last texture used.
-	 * 				b) Use waiting high-res image to make a new texture, and return it.
-	 * 		2) If viewing plane HAS moved, create a new FTP task in another thread to start downloading a high-res image.
-	 * 		3) Other thread will automatically queue the high-res image once it's downloaded. In the meantime, we need a preview thumbnail.
-	 * 		4) In the mean-time, check to see if a thumbnail has been cached. 
-	 * 				a) If so, make it into a texture and return it.
-	 * 				b) If not, download the low-res thumbnail, cache it, create a texture, and return.
+	/** Binds the thumbnail texture of an image, as follows:
+	 * 		1) If the viewing plane hasn't moved, rebind the texture already holding it.
+	 * 		2) Otherwise check to see if a thumbnail has been cached. If not, load it and cache it.
+	 * 		3) Upload the thumbnail into the next texture of the pool, so the one on screen is never overwritten.
+	 * High-res detail is drawn on top by the ImagePyramid. No GL objects are created here after the first upload.
+	 * @param gl
 	 * @param i
-	 * @return
+	 * @return true if a texture was bound, false if there is no image at i
 	 */
-	private Texture getTexture(int i) {
-		if (i < 0 || i > currentsize) return null;
+	private boolean bindTexture(GL gl, int i) {
+		if (i < 0 || i > currentsize) return false;
 
-		if (i == curIndex && imageCache[i] != null) 	{					//If slider hasn't moved, don't download anything.
-			if (waitingImage != null) 												//High-res image may be waiting to be rendered.
-				setTexture(getTexture(waitingImage));					
-			return curTexture;																//Return [pre]loaded texture.
+		if (i == curIndex && curSlot >= 0) {												//If slider hasn't moved, don't upload anything.
+			thumbnails.bind(gl, curSlot);
+			return true;
 		}
 
-//		if (task != null && !task.isDone()) 										//Start loading high-res image in a new thread.
-//			task.cancel(true);															//When starting a new thread, cancel the old one.
-//		task = new FTPTask(i, directory);
-//		task.execute();
-
-
-
 		if (imageCache[i] == null){													//If low-res image isn't cached, download.
 			try {
 				imageCache[i] = getImage(i+sizestart);	
 			} catch (NullPointerException e) { e.printStackTrace(); }
 		}
+		if (imageCache[i] == null) { curSlot = -1; return false; }
 
-		setTexture(getTexture(imageCache[i]));								//Generate low-res texture and return.
-		return curTexture;
-	}
-
-	/** Sets the current texture to the one provided, clearing out old resources first. */
-	private void setTexture(Texture t) {
-		if (curTexture != null) curTexture.dispose();
-		curTexture = t;
+		curSlot = thumbnails.upload(gl, imageCache[i]);							//Reuse a pooled texture and bind it.
+		thumbnails.bind(gl, curSlot);
+		return true;
 	}
 
 	public int getIndex(Vertex p) {
@@ -197,9 +292,29 @@ public class ImageStreamer {
 		}
 	}
 
-	public void paintImage(GL gl, Vertex center) {
+	/** Returns true if a cutting plane with the given normal is tilted away from this stack's slices, so that they
+	 * cannot be used as its background and the volume has to be resliced instead. */
+	public boolean isOblique(Vector normal) {
+		if (axis == null) return false;
+		float cos = Math.abs(normal.getNormalized().dotProduct(axis));
+		return cos < Math.cos(Math.toRadians(OBLIQUE_TOLERANCE));
+	}
+
+	/** Paints the slice nearest the given center as the background of the 2D view. The low-res thumbnail is drawn first;
+	 * when the view is zoomed in far enough, full-resolution tiles of the visible region are drawn over it.
+	 * 
+	 * @param gl
+	 * @param center
+	 * @param zoomFactor	Viewer2D zoom factor, used to choose the pyramid level
+	 */
+	public void paintImage(GL gl, Vertex center, float zoomFactor) {
 //		if (getId() == "z") 
 //			center = center.plus(setData.getOrigin());
+		Vector normal = RegistrationTool.instance.getCutter().getN();
+		if (isOblique(normal)) {
+			reslicer.paint(gl, center, normal, -2f*RegistrationTool.instance.getCutter().getRadius());
+			return;
+		}
 		gl.glPushMatrix();
 
 		gl.glEnable(GL.GL_TEXTURE_2D);
@@ -213,8 +328,7 @@ public class ImageStreamer {
 		gl.glColor3f(1.0f, 1.0f,1.0f);
 
 		int index = getIndex(center);
-		try { getTexture(index).bind(); } 	//Images aren't available for all cutting-plane locations.
-		catch (NullPointerException e ) { gl.glDisable(GL.GL_TEXTURE_2D); } 
+		if (!bindTexture(gl, index)) gl.glDisable(GL.GL_TEXTURE_2D);	//Images aren't available for all cutting-plane locations.
 		curIndex = index;	
 
 		RegistrationTool.instance.getCutter().rotateView(gl);
@@ -255,357 +369,367 @@ public class ImageStreamer {
 		gl.glVertex3f(	maxXcoord, 		maxYcoord, 		safeDistance);
 		gl.glEnd();
 
+		if (index >= 0 && index <= currentsize && !isWindowed())					//Tiles are decoded from the files as they are.
+			pyramid.paint(gl, index+sizestart, zoomFactor, minXcoord, maxXcoord, maxYcoord, minYcoord, safeDistance);
+
 		gl.glDisable(GL.GL_TEXTURE_2D);
 		gl.glPopMatrix();
 	}
 
-	public List<Landmark> extractLandmarks(double threshold, int smoothIters) {
+	/** Extracts boundary landmarks from every z-slice. Slices are independent, so they are decoded and segmented on a 
+	 * pool of worker threads; the per-slice results are merged in slice order, so the output does not depend on
+	 * scheduling. Progress is reported through the status bar.
+	 * 
+	 * @param threshold	in intensity units, or NaN for automatic per-slice thresholds; see getThreshold()
+	 * @param smoothIters
+	 * @return landmarks
+	 */
+	public List<Landmark> extractLandmarks(final double threshold, final int smoothIters) {
 		List<Landmark> landmarks = new ArrayList<Landmark>();
 		
 		// For now just use the z-aligned images for aligning the boundary
-		for (int i=sizestart + sizex + sizey; i<sizex+sizey+sizez+sizestart; i++) {
+		final int first = sizestart + sizex + sizey;
+		ExecutorService pool = Executors.newFixedThreadPool(EXTRACTION_THREADS);
+		try {
+			final double[] thresholds = getSliceThresholds(threshold, pool);
+			List<Future<List<Landmark>>> slices = new ArrayList<Future<List<Landmark>>>(sizez);
+			for (int i = first; i < first + sizez; i++) {
+				final int slice = i;
+				slices.add(pool.submit(new Callable<List<Landmark>>() {
+					public List<Landmark> call() {
+						return extractSliceLandmarks(slice, thresholds[slice - first], smoothIters);
+					}
+				}));
+			}
 			
-			if (imageCache[i-sizestart] == null){													//If low-res image isn't cached, download.
+			Log.setStatusLoading(0f);
+			for (int i = 0; i < sizez; i++) {
 				try {
-					imageCache[i-sizestart] = getImage(i);	
-				} catch (NullPointerException e) { e.printStackTrace(); }
+					landmarks.addAll(slices.get(i).get());
+				} catch (ExecutionException e) { 
+					Log.p("Could not extract landmarks from slice " + (first + i) + ": " + e.getCause()); 
+				}
+				Log.setStatusLoading((i+1f)/sizez);
 			}
-			
-			landmarks.addAll(getBoundaryPoints(imageCache[i-sizestart],i-sizestart-sizey-sizex,threshold,smoothIters)); 
-			
+		} catch (InterruptedException e) {
+			Log.p("Landmark extraction interrupted.");
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
 		}
+		Log.p("Extracted " + landmarks.size() + " landmarks from " + sizez + " slices.");
 		return landmarks;
 	}
-
-	private List<Landmark> getBoundaryPoints(BufferedImage bufferedImage, int index, double threshold, int smoothIters) {
-		// Get all the pixels
-		int w = bufferedImage.getWidth(null);
-		int h = bufferedImage.getHeight(null);
-		int[] matrix = new int[w*h];
-		
-	    for(int i=0; i < w; i ++){
-	        for(int j=0; j < h; j++)
-	        {
-	            //Grab and set the colors one-by-one
-	            int temp = bufferedImage.getRGB(i, j);
-	            if (temp <= -50000) {
-	            	matrix[h*i+j] = 1;
-	            }
-	            else {
-	            	matrix[h*i+j] = 0;
-	            }
-	        }
-	    }
-	    for (int i = 0; i < smoothIters; i++) {
-	    	openSmooth(matrix,w,h);
-	    }
-	    largestConnectForeground(matrix,w,h);
-	    largestConnectBackground(matrix,w,h);
-	    openSmooth(matrix,w,h);
-	    List<Integer> boundary = getBoundaryPixels(matrix,w,h);
-	    
-	    List<Landmark> result = new ArrayList<Landmark>();
-	    for (Integer i : boundary){
-	    	int xint = i/h;
-			int yint = h-i%h;
-			float xcoord = (xint/(float)w) * (maxX-minX) + minX;
-			float ycoord = (yint/(float)h) * (maxY-minY) + minY;
-			float zcoord = (index/(float)sizez) * (maxZ-minZ) + minZ;
-						
-			Landmark lm = new Landmark(new Vertex(xcoord,ycoord,zcoord));
-			lm.addMaterial(-1);
-			lm.addMaterial(-2);
-			lm.setDisplayColor(new Color(1.0f, 1.0f, 0.0f));
-			
-			if (java.lang.Math.random() > 0.9) {
-				result.add(lm);
-			}
-	    }
-	    
-	    return result;
-	}
-
-	private void largestConnectForeground(int[] matrix, int width, int height) {
-		List<Integer> currentLargest = new ArrayList<Integer>();
-		for (int i = 0; i < width; i++){
-			for (int j = 0; j < height; j++){
-				if (matrix[height*i+j] == 1) {
-					List<Integer> temp = flood8Connect(matrix, i*height+j, width, height);
-					if (temp.size() > currentLargest.size()) {
-						currentLargest = temp;
-					}
-					if (currentLargest.size() > (width*height/2)){
-						break;
+	
+	/** Extracts boundary landmarks from the z-stack as a volume rather than slice by slice. The thresholded slices
+	 * are stacked into one binary volume, so connected components and smoothing see the through-plane shape, and
+	 * landmarks are spread evenly over the marching-cubes surface with 3D normals. Slices are thresholded, and the
+	 * surface marched, in parallel; the surface is processed in slabs of slices so the triangles are never held all
+	 * at once.
+	 * 
+	 * @param threshold	in intensity units, or NaN for automatic per-slice thresholds; see getThreshold()
+	 * @param smoothIters
+	 * @return landmarks
+	 */
+	public List<Landmark> extractSurfaceLandmarks(final double threshold, int smoothIters) {
+		List<Landmark> landmarks = new ArrayList<Landmark>();
+		final int first = sizestart + sizex + sizey;
+		int w = LOW_TEX, h = LOW_TEX, slice = w*h;
+		ExecutorService pool = Executors.newFixedThreadPool(EXTRACTION_THREADS);
+		try {
+			final double[] thresholds = getSliceThresholds(threshold, pool);
+			List<Future<int[]>> slices = new ArrayList<Future<int[]>>(sizez);
+			for (int i = first; i < first + sizez; i++) {
+				final int index = i;
+				slices.add(pool.submit(new Callable<int[]>() {
+					public int[] call() throws IOException {
+						return getIntensityThumbnail(index).threshold(thresholds[index - first], darkForeground);
 					}
-				}
+				}));
 			}
-		}
-		for (int i = 0; i < width; i++){
-			for (int j = 0; j < height; j++){
-				matrix[height*i+j] = 0;
+			
+			Log.setStatusLoading(0f);
+			int[] volume = new int[slice*sizez];
+			for (int i = 0; i < sizez; i++) {
+				try {
+					System.arraycopy(slices.get(i).get(), 0, volume, i*slice, slice);
+				} catch (ExecutionException e) { 
+					Log.p("Could not threshold slice " + (first + i) + ": " + e.getCause()); 
+				}
+				Log.setStatusLoading(0.5f*(i+1f)/sizez);
 			}
-		}
-		for(Integer i : currentLargest){
-			matrix[i] = 1;
-		}
-	}
-	private void largestConnectBackground(int[] matrix, int width, int height) {
-		List<Integer> currentLargest = new ArrayList<Integer>();
-		for (int i = 0; i < width; i++){
-			for (int j = 0; j < height; j++){
-				if (matrix[height*i+j] == 0) {
-					List<Integer> temp = flood8Connect(matrix, i*height+j, width, height);
-					if (temp.size() > currentLargest.size()) {
-						currentLargest = temp;
+			
+			// Same clean-up as for single slices, but in 3D
+			BitMask[] stack = BitMask.packStack(volume, w, h, sizez);
+			if (smoothIters > 0) BitMask.unpackStack(Morphology.open(stack, StructuringElement.SQUARE, 1, smoothIters), volume);
+			ComponentLabeler.retainLargest(volume, 1, 0, w, h, sizez);
+			ComponentLabeler.retainLargest(volume, 0, 1, w, h, sizez);
+			stack = Morphology.open(BitMask.packStack(volume, w, h, sizez), StructuringElement.SQUARE, 1, 1);
+			
+			// Slices are in raster order, so scaled x runs across the columns and scaled y down the rows.
+			float sx = (maxX-minX)/w, sy = (maxY-minY)/h, sz = (maxZ-minZ)/sizez;
+			final BitMask[] surface = stack;
+			final float s0 = sx, s1 = sy, s2 = sz, area = LANDMARK_SPACING*LANDMARK_SPACING*sx*sy;
+			List<Future<SurfaceSamples>> slabs = new ArrayList<Future<SurfaceSamples>>();
+			for (int z = 0; z < sizez - 1; z += SURFACE_SLAB) {
+				final int from = z, to = Math.min(sizez - 1, z + SURFACE_SLAB);
+				slabs.add(pool.submit(new Callable<SurfaceSamples>() {
+					public SurfaceSamples call() {
+						return SurfaceExtractor.sample(surface, from, to, s0, s1, s2, area);
 					}
-					if (currentLargest.size() > (width*height/2)){
-						break;
+				}));
+			}
+			for (int i = 0; i < slabs.size(); i++) {
+				try {
+					SurfaceSamples samples = slabs.get(i).get();
+					for (int k = 0; k < samples.size(); ++k) {
+						Landmark lm = new Landmark(new Vertex(samples.getX(k) + minX, h*sy - samples.getY(k) + minY, samples.getZ(k) + minZ));
+						lm.addMaterial(-1);
+						lm.addMaterial(-2);
+						lm.setDisplayColor(new Color(1.0f, 1.0f, 0.0f));
+						lm.setNormal(new Vector(samples.getNormalX(k), -samples.getNormalY(k), samples.getNormalZ(k)));
+						landmarks.add(lm);
 					}
+				} catch (ExecutionException e) {
+					Log.p("Could not extract the surface in slab " + i + ": " + e.getCause());
 				}
+				Log.setStatusLoading(0.5f + 0.5f*(i+1f)/slabs.size());
 			}
+		} catch (InterruptedException e) {
+			Log.p("Landmark extraction interrupted.");
+			Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
 		}
-		for (int i = 0; i < width; i++){
-			for (int j = 0; j < height; j++){
-				matrix[height*i+j] = 0;
-			}
-		}
-		for(Integer i : currentLargest){
-			matrix[i] = 1;
-		}
+		Log.p("Extracted " + landmarks.size() + " surface landmarks from " + sizez + " slices.");
+		return landmarks;
+	}
+	
+	/** Returns a slicer that rasterizes the mesh's materials on the z-slices of this stack. Use the size of the
+	 * thumbnails (getThumbnailSize()) to compare with extracted foreground, or of the slice source for full resolution.
+	 * @param mesh
+	 * @param width		label image width
+	 * @param height		label image height
+	 * @return slicer
+	 */
+	public LabelSlicer getLabelSlicer(Mesh mesh, int width, int height) {
+		return new LabelSlicer(mesh, width, height, sizez, minX, maxX, minY, maxY, minZ, maxZ);
 	}
 
-	private List<Integer> flood8Connect(int[] matrix, int index, int width, int height) {
-		List<Integer> result = new ArrayList<Integer>();
-		Stack<Integer> stack = new Stack<Integer>();
-		stack.push(index);
-		result.add(index);
-		matrix[index] = -1;
-		while (!stack.isEmpty()) {
-			int i = stack.pop();
-			int w = i/height;
-			int h = i%height;
-			if (w != 0) {
-				if (matrix[i-height] == 0) {
-					result.add(i-height);
-					stack.push(i-height);
-					matrix[i-height] = -1;
-				}
-				if (h != 0) {
-					if (matrix[i-height-1] == 0) {
-						result.add(i-height-1);
-						stack.push(i-height-1);
-						matrix[i-height-1] = -1;
-					}
-				}
-				if (h != height-1){
-					if (matrix[i-height+1] == 0) {
-						result.add(i-height+1);
-						stack.push(i-height+1);
-						matrix[i-height+1] = -1;
-					}
-				}
-			}
-			if (w != width-1) {
-				if (matrix[i+height] == 0) {
-					result.add(i+height);
-					stack.push(i+height);
-					matrix[i+height] = -1;
-				}
-				if (h != 0) {
-					if (matrix[i+height-1] == 0) {
-						result.add(i+height-1);
-						stack.push(i+height-1);
-						matrix[i+height-1] = -1;
-					}
-				}
-				if (h != height-1){
-					if (matrix[i+height+1] == 0) {
-						result.add(i+height+1);
-						stack.push(i+height+1);
-						matrix[i+height+1] = -1;
-					}
-				}
-			}
-			if (h != 0) {
-				if (matrix[i-1] == 0) {
-					result.add(i-1);
-					stack.push(i-1);
-					matrix[i-1] = -1;
-				}
+	/** Returns a voxelizer of the mesh's materials over this stack's extent, one voxel slice per z-slice, lined up
+	 * with getLabelSlicer() at the same size.
+	 * @param mesh
+	 * @param width		voxels along x
+	 * @param height		voxels along y
+	 * @return voxelizer
+	 */
+	public MeshVoxelizer getVoxelizer(Mesh mesh, int width, int height) {
+		return new MeshVoxelizer(mesh, width, height, sizez, minX, maxX, minY, maxY, minZ, maxZ);
+	}
+	
+	/** Measures how well a mesh fits the foreground of the z-stack, e.g. on the mesh returned by
+	 * RegistrationUtils.addLandmarksToFit(). The foreground is found as for landmark extraction, and all the mesh's
+	 * materials together are compared with it as region 1, on the thumbnail grid. Slices of both are streamed, so
+	 * neither volume is held whole, and nothing here needs the viewers.
+	 * 
+	 * @param mesh
+	 * @param threshold	in intensity units, or NaN for automatic per-slice thresholds; see getThreshold()
+	 * @param smoothIters
+	 * @return overlap of the foreground, or null if there is none in either volume
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public OverlapEvaluator.Overlap evaluateFit(Mesh mesh, double threshold, final int smoothIters) throws IOException, InterruptedException {
+		final int first = sizestart + sizex + sizey;
+		final double[] thresholds;
+		ExecutorService pool = Executors.newFixedThreadPool(EXTRACTION_THREADS);
+		try {
+			thresholds = getSliceThresholds(threshold, pool);
+		} finally {
+			pool.shutdownNow();
+		}
+		
+		final LabelSlicer slicer = getLabelSlicer(mesh, LOW_TEX, LOW_TEX);
+		LabelSlices foreground = new LabelSlices() {
+			public int getWidth() { return LOW_TEX; }
+			public int getHeight() { return LOW_TEX; }
+			public int getSliceCount() { return sizez; }
+			public short[] getSlice(int k) throws IOException {
+				int[] matrix = getForeground(first + k, thresholds[k], smoothIters);
+				short[] labels = new short[matrix.length];
+				for (int i = 0; i < matrix.length; ++i) labels[i] = (matrix[i] != 0) ? 1 : LabelSlicer.BACKGROUND;
+				return labels;
 			}
-			if (h != height-1){
-				if (matrix[i+1] == 0) {
-					result.add(i+1);
-					stack.push(i+1);
-					matrix[i+1] = -1;
+		};
+		LabelSlices materials = new LabelSlices() {
+			public int getWidth() { return LOW_TEX; }
+			public int getHeight() { return LOW_TEX; }
+			public int getSliceCount() { return sizez; }
+			public short[] getSlice(int k) throws IOException {
+				try {
+					return slicer.slice(k);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while slicing the mesh.");
+				} catch (ExecutionException e) {
+					throw new IOException("Could not slice the mesh: " + e.getCause());
 				}
 			}
+		};
+		
+		try {
+			float sx = (maxX-minX)/LOW_TEX, sy = (maxY-minY)/LOW_TEX, sz = (maxZ-minZ)/sizez;
+			List<OverlapEvaluator.Overlap> overlaps = new OverlapEvaluator(foreground,
+					OverlapEvaluator.merge(materials, LabelSlicer.BACKGROUND, (short) 1), LabelSlicer.BACKGROUND, sx, sy, sz).evaluate();
+			if (overlaps.isEmpty()) return null;
+			Log.p(overlaps.get(0).toString());
+			return overlaps.get(0);
+		} finally {
+			slicer.dispose();
 		}
-		return result;
 	}
 	
-	private void openSmooth(int[] matrix, int width, int height) {
-		int[] newmatrix2 = (int[])matrix.clone();
-		for (int i = 0; i < width; i++){
-			for (int j = 0; j < height; j++){
-				newmatrix2[i*height+j] = 0;
+	/** Returns the threshold of every z-slice: the given one, or if it is NaN, the automatic ones. */
+	private double[] getSliceThresholds(double threshold, ExecutorService pool) throws InterruptedException {
+		if (Double.isNaN(threshold)) return getAutoThresholds(pool);
+		double[] thresholds = new double[sizez];
+		Arrays.fill(thresholds, threshold);
+		return thresholds;
+	}
+
+	/** Returns Otsu's threshold for every z-slice, smoothed through the stack by a running median. The histograms come
+	 * with the slice intensities, which are read on the pool and stay cached for the extraction that follows; the
+	 * thresholds are kept until the slice source changes, so trying different settings does not read the stack again.
+	 * For image files, each slice's histogram and threshold are also kept in the StackCache, so reopening the stack
+	 * only reads the slices that changed.
+	 * Slices with no threshold of their own or from their neighbours fall back to treating any non-blank pixel as
+	 * foreground.
+	 */
+	private double[] getAutoThresholds(ExecutorService pool) throws InterruptedException {
+		double[] thresholds = autoThresholds;
+		if (thresholds != null) return thresholds;
+		
+		final int first = sizestart + sizex + sizey;
+		int max = sliceSource.getMaxValue();
+		boolean files = sliceSource instanceof ImageFileSliceSource;						//Only image files can be checked for changes
+		thresholds = new double[sizez];
+		List<Future<Slice>> slices = new ArrayList<Future<Slice>>(sizez);
+		for (int k = 0; k < sizez; k++) {
+			final int index = first + k;
+			File source = getImageFile(index);
+			if (files && cache.getHistogram(index - sizestart, source, max) != null) {
+				thresholds[k] = cache.getThreshold(index - sizestart, source, max);
+				slices.add(null);
+				continue;
 			}
-		}
-		for (int i = 0; i < width; i++){
-			for (int j = 0; j < height; j++){
-				if (matrix[i*height+j] == 1) {
-					if (i != 0) {
-						newmatrix2[(i-1)*height+j] = 1;
-						if (j != 0) {
-							newmatrix2[(i-1)*height+(j-1)] = 1;
-						}
-						if (j != height-1){
-							newmatrix2[(i-1)*height+(j+1)] = 1;
-						}
-					}
-					if (i != width-1) {
-						newmatrix2[(i+1)*height+(j)] = 1;
-						if (j != 0) {
-							newmatrix2[(i+1)*height+(j-1)] = 1;
-						}
-						if (j != height-1){
-							newmatrix2[(i+1)*height+(j+1)] = 1;
-						}
-					}
-					if (j != 0) {
-						newmatrix2[(i)*height+(j-1)] = 1;
-					}
-					if (j != height-1){
-						newmatrix2[(i)*height+(j+1)] = 1;
-					}
+			slices.add(pool.submit(new Callable<Slice>() {
+				public Slice call() throws IOException {
+					return getIntensityThumbnail(index);
 				}
-			}
-		}
-		int[] newmatrix = (int[])newmatrix2.clone();
-		for (int i = 0; i < width; i++){
-			for (int j = 0; j < height; j++){
-				newmatrix[i*height+j] = 0;
-			}
+			}));
 		}
-		for (int i = 0; i < width; i++){
-			for (int j = 0; j < height; j++){
-				if (newmatrix2[i*height+j] == 1) {
-					if (i != 0) {
-						newmatrix[(i-1)*height+j] = 1;
-						if (j != 0) {
-							newmatrix[(i-1)*height+(j-1)] = 1;
-						}
-						if (j != height-1){
-							newmatrix[(i-1)*height+(j+1)] = 1;
-						}
-					}
-					if (i != width-1) {
-						newmatrix[(i+1)*height+(j)] = 1;
-						if (j != 0) {
-							newmatrix[(i+1)*height+(j-1)] = 1;
-						}
-						if (j != height-1){
-							newmatrix[(i+1)*height+(j+1)] = 1;
-						}
-					}
-					if (j != 0) {
-						newmatrix[(i)*height+(j-1)] = 1;
-					}
-					if (j != height-1){
-						newmatrix[(i)*height+(j+1)] = 1;
-					}
-				}
+		for (int k = 0; k < sizez; k++) {
+			if (slices.get(k) == null) continue;
+			try {
+				int[] histogram = slices.get(k).get().getHistogram();
+				thresholds[k] = ThresholdEngine.otsu(histogram, max);
+				if (files) cache.putHistogram(first + k - sizestart, getImageFile(first + k), max, histogram, thresholds[k]);
+			} catch (ExecutionException e) {
+				thresholds[k] = Double.NaN;
 			}
 		}
-		matrix = (int[])newmatrix.clone();
-		for (int i = 0; i < width; i++){
-			for (int j = 0; j < height; j++){
-				if (newmatrix[i*height+j] == 0) {
-					if (i != 0) {
-						matrix[(i-1)*height+j] = 0;
-						if (j != 0) {
-							matrix[(i-1)*height+(j-1)] = 0;
-						}
-						if (j != height-1){
-							matrix[(i-1)*height+(j+1)] = 0;
-						}
-					}
-					if (i != width-1) {
-						matrix[(i+1)*height+(j)] = 0;
-						if (j != 0) {
-							matrix[(i+1)*height+(j-1)] = 0;
-						}
-						if (j != height-1){
-							matrix[(i+1)*height+(j+1)] = 0;
-						}
-					}
-					if (j != 0) {
-						matrix[(i)*height+(j-1)] = 0;
-					}
-					if (j != height-1){
-						matrix[(i)*height+(j+1)] = 0;
-					}
-				}
-			}
+		thresholds = ThresholdEngine.smooth(thresholds, THRESHOLD_RADIUS);
+		for (int k = 0; k < sizez; k++)
+			if (Double.isNaN(thresholds[k])) thresholds[k] = darkForeground ? max - 0.5 : 0.5;
+		autoThresholds = thresholds;
+		return thresholds;
+	}
+	
+	/** Loads (or reuses) the intensities of one slice and traces its boundary. Safe to call from worker threads. */
+	private List<Landmark> extractSliceLandmarks(int i, double threshold, int smoothIters) {
+		try {
+			return getBoundaryPoints(getForeground(i, threshold, smoothIters), LOW_TEX, LOW_TEX, i-sizestart-sizey-sizex);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
 	}
+
+	/** Thresholds the thumbnail of one slice and cleans it up: the foreground mask that landmarks are traced from, in
+	 * raster order. Safe to call from worker threads. */
+	private int[] getForeground(int i, double threshold, int smoothIters) throws IOException {
+		int[] matrix = getIntensityThumbnail(i).threshold(threshold, darkForeground);
+		openSmooth(matrix,LOW_TEX,LOW_TEX,smoothIters);
+		largestConnectForeground(matrix,LOW_TEX,LOW_TEX);
+		largestConnectBackground(matrix,LOW_TEX,LOW_TEX);
+		openSmooth(matrix,LOW_TEX,LOW_TEX,1);
+		return matrix;
+	}
 	
-	private List<Integer> getBoundaryPixels(int[] matrix, int width, int height) {
-		List<Integer> result = new ArrayList<Integer>();
-		for (int i = 0; i < width; i++){
-			for (int j = 0; j < height; j++){
-				if (matrix[i*height+j] == 1) {
-					if (i != 0) {
-						if (matrix[(i-1)*height+j] == 0) {
-							result.add(i*height+j);
-							continue;
-						}
-						if (j != 0) {
-							if (matrix[(i-1)*height+(j-1)] == 0){
-								result.add(i*height+j);
-								continue;
-							}
-						}
-						if (j != height-1){
-							if (matrix[(i-1)*height+(j+1)] == 0){
-								result.add(i*height+j);
-								continue;
-							}
-						}
-					}
-					if (i != width-1) {
-						if (matrix[(i+1)*height+(j)] == 0){
-							result.add(i*height+j);
-							continue;
-						}
-						if (j != 0) {
-							if (matrix[(i+1)*height+(j-1)] == 0){
-								result.add(i*height+j);
-								continue;
-							}
-						}
-						if (j != height-1){
-							if (matrix[(i+1)*height+(j+1)] == 0){
-								result.add(i*height+j);
-								continue;
-							}
-						}
-					}
-					if (j != 0) {
-						if (matrix[(i)*height+(j-1)] == 0){
-							result.add(i*height+j);
-							continue;
-						}
-					}
-					if (j != height-1){
-						if (matrix[(i)*height+(j+1)] == 0){
-							result.add(i*height+j);
-							continue;
-						}
-					}
-				}
-			}
+	/** Returns the thumbnail of the k-th z-slice. Safe to call from worker threads. */
+	BufferedImage getSliceThumbnail(int k) {
+		return getThumbnail(sizestart + sizex + sizey + k);
+	}
+
+	/** Returns the thumbnail of an image, loading it into the cache first if needed. */
+	private BufferedImage getThumbnail(int i) {
+		if (imageCache[i-sizestart] == null){													//If low-res image isn't cached, download.
+			try {
+				imageCache[i-sizestart] = getImage(i);	
+			} catch (NullPointerException e) { e.printStackTrace(); }
+		}
+		return imageCache[i-sizestart];
+	}
+
+	/** Returns the intensities of an image at thumbnail size, reading them into the cache first if needed. Only every
+	 * n-th pixel of the source is read. Safe to call from worker threads. */
+	private Slice getIntensityThumbnail(int i) throws IOException {
+		int k = i - sizestart;
+		Slice slice = intensityCache[k];
+		if (slice == null) {
+			int subsampling = Math.max(1, Math.min(sliceSource.getWidth(), sliceSource.getHeight()) / LOW_TEX);
+			slice = sliceSource.readSlice(k, subsampling).resample(LOW_TEX, LOW_TEX);
+			intensityCache[k] = slice;
 		}
-		return result;
+		return slice;
+	}
+
+	/** Samples landmarks along the boundary of a cleaned-up foreground mask, in raster order. */
+	private List<Landmark> getBoundaryPoints(int[] matrix, int w, int h, int index) {
+	    float sx = (maxX-minX)/w, sy = (maxY-minY)/h;
+	    float zcoord = (index/(float)sizez) * (maxZ-minZ) + minZ;
+	    List<Landmark> result = new ArrayList<Landmark>();
+	    for (Contour contour : ContourExtractor.extract(matrix, w, h)) {
+	    	Contour samples = contour.resample(LANDMARK_SPACING);
+	    	for (int k = 0; k < samples.size(); ++k) {
+				float xcoord = samples.getX(k) * sx + minX;
+				float ycoord = (h - samples.getY(k)) * sy + minY;
+				
+				Landmark lm = new Landmark(new Vertex(xcoord,ycoord,zcoord));
+				lm.addMaterial(-1);
+				lm.addMaterial(-2);
+				lm.setDisplayColor(new Color(1.0f, 1.0f, 0.0f));
+				lm.setNormal(new Vector(samples.getNormalX(k) / sx, -samples.getNormalY(k) / sy, 0f).getNormalized());
+				result.add(lm);
+	    	}
+	    }
+	    
+	    return result;
+	}
+
+	/** Keeps only the largest 8-connected foreground component, clearing smaller islands. */
+	private void largestConnectForeground(int[] matrix, int width, int height) {
+		ComponentLabeler.retainLargest(matrix, 1, 0, width, height);
+	}
+
+	/** Keeps only the largest 8-connected background component, filling holes inside the foreground. */
+	private void largestConnectBackground(int[] matrix, int width, int height) {
+		ComponentLabeler.retainLargest(matrix, 0, 1, width, height);
+	}
+	
+	/** Smooths the mask in place with a morphological opening by the 3x3 square (8-neighbour erosion, then dilation). */
+	private void openSmooth(int[] matrix, int width, int height, int iterations) {
+		if (iterations <= 0) return;
+		BitMask smoothed = Morphology.open(BitMask.pack(matrix, width, height), StructuringElement.SQUARE, iterations);
+		smoothed.unpack(matrix);
 	}
 }
\ No newline at end of file
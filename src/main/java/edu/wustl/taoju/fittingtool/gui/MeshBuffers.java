@@ -0,0 +1,401 @@
+package app.gui;
+
+import java.awt.Color;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.media.opengl.GL;
+
+import app.tools.math.Vertex;
+import app.tools.structure.Geometry;
+import app.tools.structure.Mesh;
+import app.tools.structure.Selection;
+import app.tools.topology.FaceAdjacency;
+import app.tools.topology.Polyhedron;
+
+import com.sun.opengl.util.BufferUtil;
+
+/** MeshBuffers.java
+ * <br>
+ * The polyhedra of a mesh as vertex arrays, for Viewer3D. Every face gets three vertices of its own, since faces are
+ * flat-shaded and each polyhedron may be pushed out by the explode offset. Positions, normals and colours are packed
+ * into direct FloatBuffers, and each material has an index buffer, so regions can be shown or hidden without touching
+ * the arrays.
+ * <br>
+ * Only faces that can be seen are drawn. The index buffer of a region holds just its surface faces, those on the mesh
+ * boundary or against another material (see FaceAdjacency), which on a solid mesh is a small fraction of all element
+ * faces. The selection draws the faces of selected polyhedra that are not shared with another drawn polyhedron. All
+ * faces are kept in the arrays, and regions draw all of them while the mesh is exploded, since the gaps expose them.
+ * <br>
+ * The selection's indices are split into chunks of CHUNK consecutive polyhedra, each with its own element buffer.
+ * When the selection changes, only the chunks holding the changed polyhedra, or their neighbours across a face, are
+ * refilled and re-uploaded, so even a large lasso selection costs little more than the faces it touches.
+ * <br>
+ * The arrays are rebuilt only when the topology changes. When only vertices have moved, update() rewrites the
+ * positions in place, along with the face normals that follow from them, and re-uploads just those two buffers;
+ * colours and indices stay as they are. The buffers live in VBOs when the driver has them, and are drawn from client
+ * memory otherwise.
+ * <br>
+ * All methods that take a GL must be called with the context current.
+ */
+public class MeshBuffers {
+
+	private static final int POSITIONS = 0, NORMALS = 1, COLORS = 2;
+	/** Polyhedra per selection chunk */	private static final int CHUNK = 4096;
+
+	/** Decides which materials are drawn; Viewer3D. */
+	public interface Regions {
+		public boolean isShown(int material);
+	}
+
+	/** Topology the arrays were built from */						private Object topology;
+	/** Number of polyhedra the arrays were built from */			private int polyCount = -1;
+	/** True if the region indices hold every face, for an exploded mesh */	private boolean allFaces;
+	/** Neighbours across each face; face t is buffer vertices 3t to 3t+2 */	private FaceAdjacency adjacency;
+	/** Mesh vertex behind each buffer vertex */						private int[] corners = new int[0];
+	/** First buffer vertex of each polyhedron, plus the end */	private int[] polyStart = new int[1];
+	private FloatBuffer positions, normals, colors;
+	/** Buffer vertices of each material's faces */					private final Map<Integer, IntBuffer> regions = new LinkedHashMap<Integer, IntBuffer>();
+	/** Buffer vertices of the selected faces drawn, per chunk */	private IntBuffer[] chunks = new IntBuffer[0];
+	/** Chunks to refill before the selection is drawn again */	private final BitSet staleChunks = new BitSet();
+	/** Visibility of each material when the chunks were filled */	private final Map<Integer, Boolean> chunkVisibility = new LinkedHashMap<Integer, Boolean>();
+
+	private boolean useVbo;
+	/** Array buffers: positions, normals, colours; 0 if not created */		private final int[] arrays = new int[3];
+	/** Element buffer of each material */										private final Map<Integer, Integer> elements = new LinkedHashMap<Integer, Integer>();
+	/** Element buffer of each selection chunk */								private int[] chunkIds = new int[0];
+
+	/** Brings the buffers up to date with the mesh: rebuilt if its topology has changed, otherwise only positions
+	 * and normals are rewritten.
+	 *
+	 * @param gl
+	 * @param mesh				may be null, for an empty scene
+	 * @param scale				factor applied to every vertex
+	 * @param explodeFactor		how far each polyhedron is pushed away from the mesh centroid
+	 */
+	public void update(GL gl, Mesh mesh, float scale, float explodeFactor) {
+		if (mesh == null) dispose(gl);
+		boolean rebuilt = prepare(mesh, scale, explodeFactor);
+		if (mesh == null) return;
+		if (rebuilt) upload(gl);
+		else updateArrays(gl);
+	}
+
+	/** The CPU side of update(): brings the arrays up to date without touching GL.
+	 * @return true if the arrays were rebuilt, so every buffer must be uploaded again
+	 */
+	public boolean prepare(Mesh mesh, float scale, float explodeFactor) {
+		if (mesh == null) {
+			topology = null;
+			polyCount = -1;
+			corners = new int[0];
+			regions.clear();
+			chunks = new IntBuffer[0];
+			return true;
+		}
+		ArrayList<Polyhedron> polys = mesh.getTopology().getPolyhedra();
+		boolean rebuild = mesh.getTopology() != topology || polys.size() != polyCount || (explodeFactor != 0) != allFaces;
+		if (rebuild) build(polys, explodeFactor != 0);
+		writeGeometry(mesh, polys, scale, explodeFactor);
+		return rebuild;
+	}
+
+	/** Brings the selection's indices up to date with the changes a view has not yet drawn. Only the chunks holding
+	 * changed polyhedra, or their neighbours across a face, are refilled; all of them are if the view must redraw
+	 * everything, the topology was rebuilt, or a region was shown or hidden. The view's changes are taken even if
+	 * the arrays are not yet built for the mesh, since the build refills every chunk anyway.
+	 *
+	 * @param gl
+	 * @param mesh
+	 * @param viewer	decides which regions are shown
+	 * @param view		view whose changes to take, e.g. Mesh.VIEW_ID_1
+	 */
+	public void updateSelection(GL gl, Mesh mesh, Regions viewer, int view) {
+		BitSet refilled = prepareSelection(mesh, viewer, view);
+		if (!useVbo) return;
+		for (int c = refilled.nextSetBit(0); c >= 0; c = refilled.nextSetBit(c + 1)) {
+			gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, chunkIds[c]);
+			gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, 4*chunks[c].limit(), chunks[c], GL.GL_DYNAMIC_DRAW);
+		}
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+	}
+
+	/** The CPU side of updateSelection(): takes the view's changes and refills the stale chunks without touching GL.
+	 * @return the chunks refilled, which must be uploaded again
+	 */
+	public BitSet prepareSelection(Mesh mesh, Regions viewer, int view) {
+		BitSet refilled = new BitSet();
+		if (mesh == null) return refilled;
+		Selection selection = mesh.getSelection();
+		BitSet changes = selection.takeChanges(view);
+		if (mesh.getTopology() != topology) return refilled;
+
+		boolean visibilityChanged = false;
+		for (int material : regions.keySet()) {
+			Boolean shown = viewer.isShown(material);
+			if (!shown.equals(chunkVisibility.put(material, shown))) visibilityChanged = true;
+		}
+		if (changes == null || visibilityChanged) staleChunks.set(0, chunks.length);
+		else markChunks(changes);
+
+		ArrayList<Polyhedron> polys = mesh.getTopology().getPolyhedra();
+		for (int c = staleChunks.nextSetBit(0); c >= 0; c = staleChunks.nextSetBit(c + 1)) fillChunk(c, polys, selection);
+		refilled.or(staleChunks);
+		staleChunks.clear();
+		return refilled;
+	}
+
+	/** Marks the chunks of the changed polyhedra and of their neighbours, whose shared faces may appear or vanish. */
+	private void markChunks(BitSet changes) {
+		for (int j = changes.nextSetBit(0); j >= 0 && j < polyCount; j = changes.nextSetBit(j + 1)) {
+			staleChunks.set(j / CHUNK);
+			for (int t = adjacency.getFirstFace(j); t < adjacency.getFirstFace(j + 1); ++t) {
+				int other = adjacency.getPartner(t);
+				if (other >= 0) staleChunks.set(adjacency.getOwner(other) / CHUNK);
+			}
+		}
+	}
+
+	/** Refills one chunk with the faces of its selected, visible polyhedra that are not shared with another such
+	 * polyhedron. */
+	private void fillChunk(int c, ArrayList<Polyhedron> polys, Selection selection) {
+		int first = c*CHUNK, last = Math.min(polyCount, first + CHUNK);
+		IntBuffer indices = chunks[c];
+		indices.clear();
+		for (int t = adjacency.getFirstFace(first); t < adjacency.getFirstFace(last); ++t) {
+			if (!isDrawn(adjacency.getOwner(t), polys, selection)) continue;
+			int other = adjacency.getPartner(t);
+			if (allFaces || other < 0 || !isDrawn(adjacency.getOwner(other), polys, selection))
+				indices.put(3*t).put(3*t+1).put(3*t+2);
+		}
+		indices.flip();
+	}
+
+	private boolean isDrawn(int poly, ArrayList<Polyhedron> polys, Selection selection) {
+		return selection.get(poly) && chunkVisibility.get(polys.get(poly).getMaterial());
+	}
+
+	/** Returns the number of selection indices to draw, three per face. */
+	public int getSelectionSize() {
+		int size = 0;
+		for (IntBuffer indices : chunks) size += indices.limit();
+		return size;
+	}
+
+	/** Returns the materials that have faces. */
+	public Set<Integer> getMaterials() {
+		return regions.keySet();
+	}
+
+	/** Draws the faces of one material. */
+	public void drawRegion(GL gl, int material) {
+		IntBuffer indices = regions.get(material);
+		if (indices == null || indices.limit() == 0) return;
+		begin(gl);
+		if (useVbo) {
+			gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, elements.get(material));
+			gl.glDrawElements(GL.GL_TRIANGLES, indices.limit(), GL.GL_UNSIGNED_INT, 0L);
+			gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+		} else {
+			gl.glDrawElements(GL.GL_TRIANGLES, indices.limit(), GL.GL_UNSIGNED_INT, indices);
+		}
+		end(gl);
+	}
+
+	/** Draws the faces of the selected polyhedra, as gathered by the last updateSelection(). */
+	public void drawSelection(GL gl) {
+		begin(gl);
+		for (int c = 0; c < chunks.length; ++c) {
+			IntBuffer indices = chunks[c];
+			if (indices.limit() == 0) continue;
+			if (useVbo) {
+				gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, chunkIds[c]);
+				gl.glDrawElements(GL.GL_TRIANGLES, indices.limit(), GL.GL_UNSIGNED_INT, 0L);
+			} else {
+				gl.glDrawElements(GL.GL_TRIANGLES, indices.limit(), GL.GL_UNSIGNED_INT, indices);
+			}
+		}
+		if (useVbo) gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+		end(gl);
+	}
+
+	/** Deletes the VBOs. The CPU-side arrays are kept, and are uploaded again by the next rebuild. */
+	public void dispose(GL gl) {
+		if (arrays[0] != 0) {
+			gl.glDeleteBuffers(arrays.length, arrays, 0);
+			for (int i = 0; i < arrays.length; ++i) arrays[i] = 0;
+		}
+		for (int id : elements.values()) gl.glDeleteBuffers(1, new int[] {id}, 0);
+		elements.clear();
+		if (chunkIds.length > 0) gl.glDeleteBuffers(chunkIds.length, chunkIds, 0);
+		chunkIds = new int[0];
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			CPU-SIDE ARRAYS
+	//
+	//******************************************************************************************************************************
+
+	/** Pairs up the faces, lays out the buffer vertices of every face, and fills the colours and per-material indices,
+	 * which only change with the topology.
+	 * @param polys
+	 * @param allFaces	true to index every face of each region, not just its surface
+	 */
+	private void build(ArrayList<Polyhedron> polys, boolean allFaces) {
+		adjacency = new FaceAdjacency(polys);
+		polyStart = new int[polys.size() + 1];
+		for (int j = 0; j <= polys.size(); ++j) polyStart[j] = 3*adjacency.getFirstFace(j);
+		int total = polyStart[polys.size()];
+
+		corners = new int[total];
+		positions = BufferUtil.newFloatBuffer(3*total);
+		normals = BufferUtil.newFloatBuffer(3*total);
+		colors = BufferUtil.newFloatBuffer(3*total);
+		Map<Integer, Integer> counts = new LinkedHashMap<Integer, Integer>();
+		for (int j = 0; j < polys.size(); ++j) {
+			Polyhedron p = polys.get(j);
+			Color c = Mesh.getColor(p.getMaterial());
+			int shown = 0;
+			for (int v = polyStart[j]; v < polyStart[j+1]; ++v) {
+				corners[v] = adjacency.getVertex(v/3, v%3);
+				colors.put(c.getRed()/256.0f).put(c.getGreen()/256.0f).put(c.getBlue()/256.0f);
+				if (v%3 == 0 && (allFaces || adjacency.isSurface(v/3))) shown += 3;
+			}
+			Integer n = counts.get(p.getMaterial());
+			counts.put(p.getMaterial(), (n == null ? 0 : n) + shown);
+		}
+		colors.flip();
+
+		regions.clear();
+		for (Map.Entry<Integer, Integer> e : counts.entrySet()) regions.put(e.getKey(), BufferUtil.newIntBuffer(e.getValue()));
+		for (int t = 0; t < adjacency.getFaceCount(); ++t) {
+			if (!allFaces && !adjacency.isSurface(t)) continue;
+			regions.get(polys.get(adjacency.getOwner(t)).getMaterial()).put(3*t).put(3*t+1).put(3*t+2);
+		}
+		for (IntBuffer indices : regions.values()) indices.flip();
+
+		chunks = new IntBuffer[(polys.size() + CHUNK - 1) / CHUNK];
+		for (int c = 0; c < chunks.length; ++c) {
+			int faces = adjacency.getFirstFace(Math.min(polys.size(), (c+1)*CHUNK)) - adjacency.getFirstFace(c*CHUNK);
+			chunks[c] = BufferUtil.newIntBuffer(3*faces);
+			chunks[c].limit(0);
+		}
+		staleChunks.set(0, chunks.length);
+		chunkVisibility.clear();
+		this.allFaces = allFaces;
+		topology = null;
+		polyCount = polys.size();
+	}
+
+	/** Rewrites positions and face normals from the current vertices. Nothing is allocated unless the mesh is exploded. */
+	private void writeGeometry(Mesh mesh, ArrayList<Polyhedron> polys, float scale, float explodeFactor) {
+		Geometry g = mesh.getGeometry();
+		Vertex center = mesh.getCentroid();
+		positions.clear();
+		normals.clear();
+		for (int j = 0; j < polys.size(); ++j) {
+			float ox = 0, oy = 0, oz = 0;
+			if (explodeFactor != 0) {
+				Vertex c = polys.get(j).getCentroid(g);
+				ox = (c.getX() - center.getX())*explodeFactor;
+				oy = (c.getY() - center.getY())*explodeFactor;
+				oz = (c.getZ() - center.getZ())*explodeFactor;
+			}
+			for (int v = polyStart[j]; v < polyStart[j+1]; v += 3) {
+				Vertex a = g.get(corners[v]), b = g.get(corners[v+1]), c = g.get(corners[v+2]);
+				positions.put(a.getX()*scale + ox).put(a.getY()*scale + oy).put(a.getZ()*scale + oz);
+				positions.put(b.getX()*scale + ox).put(b.getY()*scale + oy).put(b.getZ()*scale + oz);
+				positions.put(c.getX()*scale + ox).put(c.getY()*scale + oy).put(c.getZ()*scale + oz);
+
+				// Same as Vertex.normal(a, b, c).getInverse(): -(b-a) x (c-b), normalized
+				float ux = b.getX()-a.getX(), uy = b.getY()-a.getY(), uz = b.getZ()-a.getZ();
+				float wx = c.getX()-b.getX(), wy = c.getY()-b.getY(), wz = c.getZ()-b.getZ();
+				float nx = wy*uz - wz*uy, ny = wz*ux - wx*uz, nz = wx*uy - wy*ux;
+				float len = (float) Math.sqrt(nx*nx + ny*ny + nz*nz);
+				if (len > 0) { nx /= len; ny /= len; nz /= len; }
+				for (int i = 0; i < 3; ++i) normals.put(nx).put(ny).put(nz);
+			}
+		}
+		positions.flip();
+		normals.flip();
+		topology = mesh.getTopology();
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			GL SIDE
+	//
+	//******************************************************************************************************************************
+
+	/** Creates (or recreates) the VBOs and fills every one of them. */
+	private void upload(GL gl) {
+		dispose(gl);
+		useVbo = gl.isFunctionAvailable("glGenBuffers") && gl.isFunctionAvailable("glBufferSubData");
+		if (!useVbo) return;
+		gl.glGenBuffers(arrays.length, arrays, 0);
+		upload(gl, arrays[POSITIONS], positions, GL.GL_DYNAMIC_DRAW);
+		upload(gl, arrays[NORMALS], normals, GL.GL_DYNAMIC_DRAW);
+		upload(gl, arrays[COLORS], colors, GL.GL_STATIC_DRAW);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+
+		int[] ids = new int[regions.size()];
+		gl.glGenBuffers(ids.length, ids, 0);
+		int i = 0;
+		for (Map.Entry<Integer, IntBuffer> e : regions.entrySet()) {
+			gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, ids[i]);
+			gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, 4*e.getValue().limit(), e.getValue(), GL.GL_STATIC_DRAW);
+			elements.put(e.getKey(), ids[i++]);
+		}
+		gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+		chunkIds = new int[chunks.length];
+		if (chunkIds.length > 0) gl.glGenBuffers(chunkIds.length, chunkIds, 0);
+		staleChunks.set(0, chunks.length);													//Filled by the next updateSelection()
+	}
+
+	private static void upload(GL gl, int id, FloatBuffer data, int usage) {
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, id);
+		gl.glBufferData(GL.GL_ARRAY_BUFFER, 4*data.limit(), data, usage);
+	}
+
+	/** Replaces the contents of the position and normal VBOs; sizes are unchanged, so nothing is reallocated. */
+	private void updateArrays(GL gl) {
+		if (!useVbo) return;
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, arrays[POSITIONS]);
+		gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, 4*positions.limit(), positions);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, arrays[NORMALS]);
+		gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, 4*normals.limit(), normals);
+		gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+	}
+
+	private void begin(GL gl) {
+		gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+		gl.glEnableClientState(GL.GL_NORMAL_ARRAY);
+		gl.glEnableClientState(GL.GL_COLOR_ARRAY);
+		if (useVbo) {
+			gl.glBindBuffer(GL.GL_ARRAY_BUFFER, arrays[POSITIONS]);
+			gl.glVertexPointer(3, GL.GL_FLOAT, 0, 0L);
+			gl.glBindBuffer(GL.GL_ARRAY_BUFFER, arrays[NORMALS]);
+			gl.glNormalPointer(GL.GL_FLOAT, 0, 0L);
+			gl.glBindBuffer(GL.GL_ARRAY_BUFFER, arrays[COLORS]);
+			gl.glColorPointer(3, GL.GL_FLOAT, 0, 0L);
+			gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+		} else {
+			gl.glVertexPointer(3, GL.GL_FLOAT, 0, positions);
+			gl.glNormalPointer(GL.GL_FLOAT, 0, normals);
+			gl.glColorPointer(3, GL.GL_FLOAT, 0, colors);
+		}
+	}
+
+	private void end(GL gl) {
+		gl.glDisableClientState(GL.GL_VERTEX_ARRAY);
+		gl.glDisableClientState(GL.GL_NORMAL_ARRAY);
+		gl.glDisableClientState(GL.GL_COLOR_ARRAY);
+	}
+}
@@ -0,0 +1,259 @@
+package app.gui;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.media.opengl.GL;
+
+import app.tools.Log;
+import app.tools.imaging.GrayVolume;
+import app.tools.math.Vector;
+import app.tools.math.Vertex;
+
+/** ObliqueReslicer.java
+ * <br>
+ * Provides a background image for cutting planes that are not aligned with the image stack. The z-stack thumbnails
+ * are gathered into a GrayVolume, which is sampled on the cutting plane with trilinear interpolation.
+ * <br>
+ * Reslicing runs off the GL thread, with the output image split into bands of rows that are sampled on a pool of
+ * worker threads. A plane is only resliced once it has stayed put for SETTLE_MILLIS, so dragging the slider or the
+ * rotation controls does not queue up work for planes that are already gone; nothing is drawn until the image for the
+ * current plane is ready.
+ */
+public class ObliqueReslicer {
+
+	/** Edge length of the resliced image, in pixels */					public static final int RESLICE_SIZE = 256;
+	/** Rows of the resliced image per task */								private static final int BAND_ROWS = 16;
+	/** Time the plane has to stay still before it is resliced */		private static final long SETTLE_MILLIS = 150;
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	private final ImageStreamer streamer;
+	/** Thumbnail size and number of slices */							private final int width, height, depth;
+	private final float minX, maxX, minY, maxY, minZ, maxZ;
+
+	/** Gathered thumbnails; null until first needed */							private volatile GrayVolume volume;
+
+	/** Plane shown by the viewer, as centre, right and up vectors */	private float[] requested;
+	/** When the requested plane last changed */								private long requestedAt;
+	/** Plane handed to the worker */												private volatile float[] submitted;
+	/** Latest finished image, handed from the worker to the GL thread */	private volatile Reslice finished;
+	/** Plane of the current texture */												private float[] shown;
+	/** Ping-pong pair of textures for the resliced image */					private final TexturePool textures = new TexturePool(RESLICE_SIZE, RESLICE_SIZE, 2);
+	/** Slot holding the plane shown, or -1 */										private int slot = -1;
+
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "ObliqueReslicer");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private final ExecutorService bands = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "ObliqueReslicer band");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/** Constructor.
+	 * @param streamer	source of the z-stack thumbnails
+	 * @param width		thumbnail width
+	 * @param height		thumbnail height
+	 * @param depth		number of z-slices
+	 * @param minX
+	 * @param maxX
+	 * @param minY
+	 * @param maxY
+	 * @param minZ
+	 * @param maxZ
+	 */
+	public ObliqueReslicer(ImageStreamer streamer, int width, int height, int depth,
+			float minX, float maxX, float minY, float maxY, float minZ, float maxZ) {
+		this.streamer = streamer;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.minX = minX;	this.maxX = maxX;
+		this.minY = minY;	this.maxY = maxY;
+		this.minZ = minZ;	this.maxZ = maxZ;
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			RENDERING
+	//
+	//******************************************************************************************************************************
+
+	/** Draws the volume resliced along the plane through p with normal n, at depth z behind the plane. Must be called
+	 * with the viewer's modelview (before any rotation of its own), since the image is oriented to the screen axes.
+	 *
+	 * @param gl
+	 * @param p		point on the cutting plane
+	 * @param n		normal of the cutting plane
+	 * @param z		offset along the viewing direction, as in the axis-aligned case
+	 */
+	public void paint(GL gl, Vertex p, Vector n, float z) {
+		float[] plane = getPlane(gl, p, n.getNormalized());
+		long now = System.currentTimeMillis();
+		if (!Arrays.equals(plane, requested)) {
+			requested = plane;
+			requestedAt = now;
+		} else if (now - requestedAt >= SETTLE_MILLIS && !Arrays.equals(plane, submitted)) {
+			submitted = plane;
+			submit(plane);
+		}
+
+		Reslice ready = finished;
+		if (ready != null && Arrays.equals(ready.plane, requested) && !Arrays.equals(ready.plane, shown)) {
+			slot = textures.upload(gl, ready.image);
+			shown = ready.plane;
+		}
+		if (slot < 0 || !Arrays.equals(shown, requested)) return;				//Still moving, or not ready yet.
+
+		float[] mv = new float[16];		gl.glGetFloatv(GL.GL_MODELVIEW_MATRIX, mv, 0);
+		float bx = z*mv[2], by = z*mv[6], bz = z*mv[10];										//Pushed back along the view direction
+		float h = getHalfSize();
+		float[] c = {plane[0]+bx, plane[1]+by, plane[2]+bz};
+
+		gl.glEnable(GL.GL_TEXTURE_2D);
+		gl.glEnable(GL.GL_ALPHA_TEST);
+		gl.glAlphaFunc(GL.GL_GREATER, 0f);															//Outside the volume is transparent.
+		gl.glPolygonMode(GL.GL_FRONT_AND_BACK, GL.GL_FILL);
+		gl.glColor3f(1.0f, 1.0f, 1.0f);
+		textures.bind(gl, slot);
+		gl.glBegin(GL.GL_QUADS);
+		gl.glTexCoord2d(1.0, 1.0);		vertex(gl, c, plane, h, -h);							//Row 0 of the image is the top of the plane.
+		gl.glTexCoord2d(0.0, 1.0);		vertex(gl, c, plane, -h, -h);
+		gl.glTexCoord2d(0.0, 0.0);		vertex(gl, c, plane, -h, h);
+		gl.glTexCoord2d(1.0, 0.0);		vertex(gl, c, plane, h, h);
+		gl.glEnd();
+		gl.glDisable(GL.GL_ALPHA_TEST);
+		gl.glDisable(GL.GL_TEXTURE_2D);
+	}
+
+	private static void vertex(GL gl, float[] c, float[] plane, float u, float v) {
+		gl.glVertex3f(c[0] + u*plane[3] + v*plane[6], c[1] + u*plane[4] + v*plane[7], c[2] + u*plane[5] + v*plane[8]);
+	}
+
+	/** Returns the plane as {centre, right, up}: the centre is the middle of the volume projected onto the plane, and
+	 * right and up are the screen axes projected onto the plane, so the image is drawn square to the viewport. */
+	private float[] getPlane(GL gl, Vertex p, Vector n) {
+		float[] mv = new float[16];		gl.glGetFloatv(GL.GL_MODELVIEW_MATRIX, mv, 0);
+		Vector screenX = new Vector(mv[0], mv[4], mv[8]), screenY = new Vector(mv[1], mv[5], mv[9]);
+		Vector right = screenX.minus(n.getScaled(screenX.dotProduct(n))).getNormalized();
+		Vector up = screenY.minus(n.getScaled(screenY.dotProduct(n))).minus(right.getScaled(screenY.dotProduct(right))).getNormalized();
+
+		Vertex middle = new Vertex((minX+maxX)/2f, (minY+maxY)/2f, (minZ+maxZ)/2f);
+		Vertex centre = middle.plus(n.getScaled(-middle.minus(p).dotProduct(n)));
+		return new float[] {
+				centre.getX(), centre.getY(), centre.getZ(),
+				right.getX(), right.getY(), right.getZ(),
+				up.getX(), up.getY(), up.getZ() };
+	}
+
+	/** Half the diagonal of the volume, so the resliced square covers it at any orientation. */
+	private float getHalfSize() {
+		float dx = maxX - minX, dy = maxY - minY, dz = maxZ - minZ;
+		return (float) Math.sqrt(dx*dx + dy*dy + dz*dz) / 2f;
+	}
+
+	/** Forgets the gathered volume, so it is rebuilt from the streamer's thumbnails, e.g. after the windowing changed. */
+	public void invalidate() {
+		volume = null;
+		submitted = null;
+		requested = null;
+		shown = null;
+	}
+
+	/** Releases the textures. Requires an active GL context. */
+	public void dispose(GL gl) {
+		textures.dispose(gl);
+		slot = -1;
+		shown = null;
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			RESLICING
+	//
+	//******************************************************************************************************************************
+
+	private void submit(final float[] plane) {
+		worker.execute(new Runnable() {
+			public void run() {
+				if (plane != submitted) return;													//Superseded while queued.
+				try {
+					ensureVolume();
+					finished = new Reslice(plane, reslice(plane));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					Log.p("Could not reslice the image volume: " + e.getCause());
+				}
+			}
+		});
+	}
+
+	/** Gathers the z-stack thumbnails into the gray-level volume, one slice per task. */
+	private void ensureVolume() throws InterruptedException, ExecutionException {
+		if (volume != null) return;
+		final byte[] gray = new byte[width*height*depth];
+		List<Future<Void>> slices = new ArrayList<Future<Void>>(depth);
+		for (int k = 0; k < depth; ++k) {
+			final int slice = k;
+			slices.add(bands.submit(new Callable<Void>() {
+				public Void call() {
+					BufferedImage image = streamer.getSliceThumbnail(slice);
+					if (image == null) return null;
+					int offset = slice*width*height;
+					for (int y = 0; y < height; ++y) {
+						for (int x = 0; x < width; ++x) {
+							int rgb = image.getRGB(x, y);
+							gray[offset + x + width*y] = (byte) ((((rgb >> 16) & 0xff) + ((rgb >> 8) & 0xff) + (rgb & 0xff)) / 3);
+						}
+					}
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> f : slices) f.get();
+		volume = new GrayVolume(gray, width, height, depth, minX, maxX, minY, maxY, minZ, maxZ);
+	}
+
+	/** Samples the volume over the plane, one band of rows per task. */
+	private BufferedImage reslice(final float[] plane) throws InterruptedException, ExecutionException {
+		BufferedImage image = new BufferedImage(RESLICE_SIZE, RESLICE_SIZE, BufferedImage.TYPE_INT_ARGB);
+		final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		final GrayVolume v = volume;
+		final float h = getHalfSize();
+		List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+		for (int row = 0; row < RESLICE_SIZE; row += BAND_ROWS) {
+			final int first = row, last = Math.min(RESLICE_SIZE, row + BAND_ROWS);
+			tasks.add(bands.submit(new Callable<Void>() {
+				public Void call() {
+					v.sampleRows(plane, h, RESLICE_SIZE, first, last, pixels);
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> f : tasks) f.get();
+		return image;
+	}
+
+	/** A resliced image and the plane it was sampled on. */
+	private static class Reslice {
+		final float[] plane;
+		final BufferedImage image;
+		Reslice(float[] plane, BufferedImage image) { this.plane = plane; this.image = image; }
+	}
+}
@@ -0,0 +1,117 @@
+package app.gui;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.IntBuffer;
+
+import javax.media.opengl.GL;
+
+import com.sun.opengl.util.BufferUtil;
+
+/** TexturePool.java
+ * <br>
+ * A fixed set of equally sized textures that are allocated once and then refilled with glTexSubImage2D, so changing
+ * the image shown never creates or deletes GL objects. Images may be smaller than the textures; they are placed in the
+ * top-left corner, and getMaxS/getMaxT give the texture coordinates of their far edge.
+ * <br>
+ * Images are copied into a direct staging buffer as packed ARGB ints and uploaded as BGRA with the 8_8_8_8_REV type,
+ * which matches the int layout on any byte order. Callers that show one image at a time cycle through the slots with
+ * next(), so each upload goes into a texture that is not the one on screen (with two slots, a ping-pong pair).
+ * <br>
+ * All methods except the constructor must be called with the GL context current.
+ */
+public class TexturePool {
+
+	private final int width, height;
+	private final int[] ids;
+	/** Packed ARGB staging area, one texture's worth */		private final IntBuffer staging;
+	/** Size of the image last uploaded to each slot */		private final int[] widths, heights;
+	private int next = 0;
+	private boolean allocated = false;
+
+	/** Constructor. No GL work is done until the first upload.
+	 * @param width		texture width
+	 * @param height		texture height
+	 * @param count		number of textures
+	 */
+	public TexturePool(int width, int height, int count) {
+		this.width = width;
+		this.height = height;
+		this.ids = new int[count];
+		this.widths = new int[count];
+		this.heights = new int[count];
+		this.staging = BufferUtil.newIntBuffer(width*height);
+	}
+
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	public int getCount() { return ids.length; }
+
+	/** Returns the slot after the one last returned, wrapping around. */
+	public int next() {
+		int slot = next;
+		next = (next + 1) % ids.length;
+		return slot;
+	}
+
+	/** Uploads an image into the next slot and returns that slot. */
+	public int upload(GL gl, BufferedImage image) {
+		int slot = next();
+		upload(gl, slot, image);
+		return slot;
+	}
+
+	/** Replaces the contents of a slot with an image no larger than the textures.
+	 *
+	 * @param gl
+	 * @param slot
+	 * @param image
+	 */
+	public void upload(GL gl, int slot, BufferedImage image) {
+		allocate(gl);
+		int w = Math.min(width, image.getWidth()), h = Math.min(height, image.getHeight());
+		staging.clear();
+		if (image.getType() == BufferedImage.TYPE_INT_ARGB && w == image.getWidth() && h == image.getHeight())
+			staging.put(((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0, w*h);
+		else
+			staging.put(image.getRGB(0, 0, w, h, null, 0, w));
+		staging.flip();
+
+		gl.glBindTexture(GL.GL_TEXTURE_2D, ids[slot]);
+		gl.glPixelStorei(GL.GL_UNPACK_ALIGNMENT, 4);
+		gl.glTexSubImage2D(GL.GL_TEXTURE_2D, 0, 0, 0, w, h, GL.GL_BGRA, GL.GL_UNSIGNED_INT_8_8_8_8_REV, staging);
+		widths[slot] = w;
+		heights[slot] = h;
+	}
+
+	public void bind(GL gl, int slot) {
+		gl.glBindTexture(GL.GL_TEXTURE_2D, ids[slot]);
+	}
+
+	/** Texture coordinate of the right edge of the image in a slot. */
+	public float getMaxS(int slot) { return widths[slot] / (float) width; }
+	/** Texture coordinate of the bottom edge of the image in a slot; t = 0 is its top row. */
+	public float getMaxT(int slot) { return heights[slot] / (float) height; }
+
+	/** Deletes the textures. The pool can be used again afterwards, and will reallocate. */
+	public void dispose(GL gl) {
+		if (!allocated) return;
+		gl.glDeleteTextures(ids.length, ids, 0);
+		allocated = false;
+	}
+
+	/** Creates the textures and their storage, once. */
+	private void allocate(GL gl) {
+		if (allocated) return;
+		gl.glGenTextures(ids.length, ids, 0);
+		for (int id : ids) {
+			gl.glBindTexture(GL.GL_TEXTURE_2D, id);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_S, GL.GL_CLAMP_TO_EDGE);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_WRAP_T, GL.GL_CLAMP_TO_EDGE);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER, GL.GL_LINEAR);
+			gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER, GL.GL_LINEAR);
+			gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA8, width, height, 0, GL.GL_BGRA, GL.GL_UNSIGNED_INT_8_8_8_8_REV, null);
+		}
+		allocated = true;
+	}
+}
@@ -7,7 +7,6 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
-import java.nio.IntBuffer;
 
 import javax.media.opengl.DebugGL;
 import javax.media.opengl.GL;
@@ -15,8 +14,6 @@ import javax.media.opengl.GLAutoDrawable;
 import javax.media.opengl.GLCapabilities;
 import javax.media.opengl.glu.GLU;
 
-import com.sun.opengl.util.BufferUtil;
-
 import app.RegistrationTool;
 import app.tools.Log;
 import app.tools.math.Vector;
@@ -223,7 +220,7 @@ public class Viewer2D extends GLPanel implements MouseListener, MouseMotionListe
 
 		// Update Background Image
 		if (streamImages && streamer != null) {
-			streamer.paintImage(gl, app.getCutter().getP());
+			streamer.paintImage(gl, app.getCutter().getP(), zoomFactor);
 		}
 
 		// Draw Outlines
@@ -356,65 +353,50 @@ public class Viewer2D extends GLPanel implements MouseListener, MouseMotionListe
 	}
 
 	private void mouseOver(GL gl, int x, int y) {
-		if (x == lastMouseOverX && y == lastMouseOverY) return; 		//If mouse hasn't moved, no point in bothering GPU...
+		if (x == lastMouseOverX && y == lastMouseOverY) return; 		//If mouse hasn't moved, nothing has changed under it.
 
 		lastMouseOverX = x;
 		lastMouseOverY = y;
 
-		GLU glu = new GLU();
-		int bufferSize = 4*app.getMesh().getTopology().getPolyhedra().size();
-		IntBuffer buffer = BufferUtil.newIntBuffer(bufferSize);
-		gl.glSelectBuffer(bufferSize, buffer);
-		gl.glRenderMode(GL.GL_SELECT);
-		gl.glInitNames();
-		gl.glPushName(-1);
-
-		gl.glMatrixMode(GL.GL_PROJECTION);
-		gl.glLoadIdentity();
-		int viewport[] = new int[4];
-		gl.glGetIntegerv(GL.GL_VIEWPORT, viewport, 0);
-
-		glu.gluPickMatrix((double) x, (double) (viewport[3] - y), 1.0, 1.0, viewport, 0);
-		gl.glOrtho(
-				app.getCutter().getXMin()*zoomFactor*aspectRatio, 
-				app.getCutter().getXMax()*zoomFactor*aspectRatio, 
-				app.getCutter().getYMin()*zoomFactor, 
-				app.getCutter().getYMax()*zoomFactor, -250.0f, 250.0f
-		);
-		gl.glMatrixMode(GL.GL_MODELVIEW);
-		gl.glLoadIdentity();
-		pan(gl);
-
-		app.getCutter().rotateView(gl);
-		app.getCutter().paintCrossSection(gl, FILL, colorCallList);
-
-		int hits = gl.glRenderMode(GL.GL_RENDER);
-		reshape(gl, (int)(viewport[2]), (int)( viewport[3]));
-		int [] selected = new int[hits*4];
-		buffer.get(selected);
-
-		int target = -2; int index = 0, depth = 0;
-		for(int i = 0; i < hits; i++) {
-			if(index == 0 || selected[index+2] < depth) {
-				//Update: Current record is closer
-				index++;									//Skip depth of the name stack (always 1, here...)
-				depth = selected[index++];    	//Min depth
-				index++;                               		//Skip max depth
-				target = selected[index++];
-			} else {
-				//Skip: Record is farther away
-				int names = selected[index++];
-				index += 2 + names;
-			}
-		}
-
-		if (target != -2) {
+		int target = pick(gl, x, y);
+		if (target >= 0) {
 			Polyhedron p = app.getMesh().getTopology().getPolyhedra().get(target);
 			Log.setStatus(Mesh.getName(p.getMaterial()));
 		} else {
 			Log.setStatus(" ");
 		}
+	}
 
+	/** Unprojects the cursor into a ray along the view direction, and returns the polyhedron whose painted
+	 * cross-section is where the ray meets the cutting plane. Nothing is drawn, so picking no longer needs a selection
+	 * pass over the cross-sections.
+	 * @param gl
+	 * @param x
+	 * @param y
+	 * @return global polyhedron index, or -1 if none is under the cursor
+	 */
+	private int pick(GL gl, int x, int y) {
+		int viewport[] = new int[4];
+		double mvmatrix[] = new double[16], projmatrix[] = new double[16];
+		gl.glPushMatrix();
+		app.getCutter().rotateView(gl);
+		gl.glGetIntegerv(GL.GL_VIEWPORT, viewport, 0);
+		gl.glGetDoublev(GL.GL_MODELVIEW_MATRIX, mvmatrix, 0);
+		gl.glGetDoublev(GL.GL_PROJECTION_MATRIX, projmatrix, 0);
+		gl.glPopMatrix();
+
+		GLU glu = new GLU();
+		double near[] = new double[3], far[] = new double[3];
+		glu.gluUnProject((double) x, (double) (viewport[3] - y), 0.0, mvmatrix, 0, projmatrix, 0, viewport, 0, near, 0);
+		glu.gluUnProject((double) x, (double) (viewport[3] - y), 1.0, mvmatrix, 0, projmatrix, 0, viewport, 0, far, 0);
+
+		Vertex p = app.getCutter().getP();
+		Vector n = app.getCutter().getN();
+		double dx = far[0] - near[0], dy = far[1] - near[1], dz = far[2] - near[2];
+		double along = n.getX()*dx + n.getY()*dy + n.getZ()*dz;
+		if (along == 0) return -1;														//Viewed edge-on
+		double t = (n.getX()*(p.getX() - near[0]) + n.getY()*(p.getY() - near[1]) + n.getZ()*(p.getZ() - near[2])) / along;
+		return app.getCutter().pick((float) (near[0] + t*dx), (float) (near[1] + t*dy), (float) (near[2] + t*dz));
 	}
 
 	//******************************************************************************************************************************
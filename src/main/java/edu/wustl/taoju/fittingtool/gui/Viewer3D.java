@@ -19,7 +19,7 @@ import app.tools.math.Vertex;
 import app.tools.structure.Mesh;
 import app.tools.topology.*;
 
-public class Viewer3D extends GLPanel implements MouseListener, MouseMotionListener, MouseWheelListener {
+public class Viewer3D extends GLPanel implements MouseListener, MouseMotionListener, MouseWheelListener, MeshBuffers.Regions {
 
 	//******************************************************************************************************************************
 	//
@@ -286,11 +286,10 @@ public class Viewer3D extends GLPanel implements MouseListener, MouseMotionListe
 	//			RUNTIME OPERATION
 	//
 	//******************************************************************************************************************************
-	/** Offset for polyhedral call-list 		*/ 	private int offsetPolyhedra;
+	/** Vertex arrays of the polyhedra			*/ private final MeshBuffers meshBuffers = new MeshBuffers();
 	/** Offset for crease points				*/ private int offsetCreasePoints;
 	/** Offset for crease edges					*/	private int offsetCreaseEdges;
 	/** Offset for crease faces					*/ private int offsetCreaseFaces;
-	/** Offset for selected polyhedra 		*/ 	private int offsetSelected;
 	/** Offset for expression point cloud	*/ private int offsetCloud;
 
 	private boolean doRefresh = true; 
@@ -298,34 +297,27 @@ public class Viewer3D extends GLPanel implements MouseListener, MouseMotionListe
 	public  void refresh() { refresh(true); }
 	public  void refresh(boolean doUpdates) { doRefresh = doUpdates; /* onlyRefreshSelection = false; */ }
 	private void refreshCallLists(GL gl) {
-		if (! app.getMesh().hasNewSelections(Mesh.VIEW_ID_1)) { 
-			gl.glNewList(offsetPolyhedra, GL.GL_COMPILE);
-			displayPolyhedra(gl);
-			gl.glEndList();
-
-			gl.glNewList(offsetCreasePoints, GL.GL_COMPILE);
-			displayCreasePoints(gl);
-			gl.glEndList();
-
-			gl.glNewList(offsetCreaseEdges, GL.GL_COMPILE);
-			displayCreaseEdges(gl);
-			gl.glEndList();
-
-			gl.glNewList(offsetCreaseFaces, GL.GL_COMPILE);
-			displayCreaseFaces(gl);
-			gl.glEndList();
-		} 		
-		gl.glNewList(offsetSelected, GL.GL_COMPILE);
-		displayPolyhedra(gl,true);
+		meshBuffers.update(gl, app.getMesh(), scale, explodeFactor);		//Only positions change unless the topology did.
+
+		gl.glNewList(offsetCreasePoints, GL.GL_COMPILE);
+		displayCreasePoints(gl);
+		gl.glEndList();
+
+		gl.glNewList(offsetCreaseEdges, GL.GL_COMPILE);
+		displayCreaseEdges(gl);
 		gl.glEndList();
+
+		gl.glNewList(offsetCreaseFaces, GL.GL_COMPILE);
+		displayCreaseFaces(gl);
+		gl.glEndList();
+
+		meshBuffers.updateSelection(gl, app.getMesh(), this, Mesh.VIEW_ID_1);		//Takes the pending selection changes.
 	}
 
 	private void initCallLists(GL gl) {
-		offsetPolyhedra = gl.glGenLists(1);
 		offsetCreasePoints = gl.glGenLists(1);
 		offsetCreaseEdges = gl.glGenLists(1);
 		offsetCreaseFaces = gl.glGenLists(1);
-		offsetSelected = gl.glGenLists(1);
 		offsetCloud = gl.glGenLists(1);
 	}
 
@@ -342,6 +334,8 @@ public class Viewer3D extends GLPanel implements MouseListener, MouseMotionListe
 		if (doRefresh) {
 			refreshCallLists(gl);
 			doRefresh = false;
+		} else if (app.getMesh() != null && app.getMesh().hasNewSelections(Mesh.VIEW_ID_1)) {
+			meshBuffers.updateSelection(gl, app.getMesh(), this, Mesh.VIEW_ID_1);		//Selection edits show up in the next frame.
 		}
 
 		displayCallLists(gl);
@@ -393,11 +387,11 @@ public class Viewer3D extends GLPanel implements MouseListener, MouseMotionListe
 
 		if (showPoints) {																				////////////Paint points
 			gl.glPolygonMode(GL.GL_FRONT_AND_BACK, GL.GL_POINT);
-			gl.glCallList(offsetPolyhedra);
+			displayPolyhedra(gl);
 		}
 		if (showEdges && false /* TODO */ ) {												////////////Paint edges
 			gl.glPolygonMode(GL.GL_FRONT_AND_BACK, GL.GL_LINE);
-			gl.glCallList(offsetPolyhedra);
+			displayPolyhedra(gl);
 		}
 
 		gl.glPopMatrix();	
@@ -409,7 +403,7 @@ public class Viewer3D extends GLPanel implements MouseListener, MouseMotionListe
 				gl.glPolygonOffset(1.0f, 1.0f);
 			}
 			gl.glPolygonMode(GL.GL_FRONT_AND_BACK, GL.GL_FILL);
-			gl.glCallList(offsetPolyhedra);
+			displayPolyhedra(gl);
 			if (showEdges || showPoints) 
 				gl.glDisable(GL.GL_POLYGON_OFFSET_FILL);
 		}
@@ -422,7 +416,7 @@ public class Viewer3D extends GLPanel implements MouseListener, MouseMotionListe
 				gl.glDisable(GL.GL_CLIP_PLANE0);
 
 			gl.glPolygonMode(GL.GL_FRONT_AND_BACK, GL.GL_FILL);
-			gl.glCallList(offsetSelected);
+			meshBuffers.drawSelection(gl);
 
 			if (clipping == 1)
 				gl.glEnable(GL.GL_CLIP_PLANE0);
@@ -439,58 +433,10 @@ public class Viewer3D extends GLPanel implements MouseListener, MouseMotionListe
 
 
 	/*****************Main painting routine********************/
-	private void displayPolyhedra(GL gl, boolean selectionMode) {
-		if (app.getMesh() != null) {
-			Vertex meshCenter = app.getMesh().getCentroid();
-
-			ArrayList<Polyhedron> polys = app.getMesh().getTopology().getPolyhedra();
-			for (int j = 0; j < polys.size(); ++j) {									//...and for each polygon in that region...
-				if (!isShown(polys.get(j).getMaterial())) 
-					continue;
-
-				int[][] faces = new int[polys.get(j).getNumFaces()][3];
-				Vector[] normals = new Vector[polys.get(j).getNumFaces()];
-
-				polys.get(j).getFaceData(app.getMesh().getGeometry(), faces, normals);
-
-				Vertex polyCenter = polys.get(j).getCentroid(app.getMesh().getGeometry()); 
-				Vector explodeOffset = new Vector (meshCenter, polyCenter).getScaled(explodeFactor);
-
-				if (selectionMode) 
-					if (polys.get(j).isSelected()) {
-						gl.glPolygonMode(GL.GL_FRONT_AND_BACK, GL.GL_FILL);
-					}
-					else
-						continue;
-
-				for (int k = 0; k < faces.length; ++k) {						//...draw all faces.
-
-					Vertex [] v = new Vertex[3];
-					for (int i = 0; i < 3; ++i)
-						v[i] = app.getMesh().getGeometry().get(faces[k][i]);
-
-					gl.glBegin(GL.GL_TRIANGLES);
-
-					Color c = Mesh.getColor(polys.get(j).getMaterial());
-					gl.glColor3f(c.getRed()/256.0f, c.getGreen()/256.0f, c.getBlue()/256.0f);
-
-					Vector n = normals[k];					//normal vector
-					gl.glNormal3f(n.getX(), n.getY(), n.getZ());				//Colors can also store alphas?			
-
-					gl.glVertex3f(v[0].getX()*scale+explodeOffset.getX(), v[0].getY()*scale+explodeOffset.getY(), v[0].getZ()*scale+explodeOffset.getZ());
-					gl.glVertex3f(v[1].getX()*scale+explodeOffset.getX(), v[1].getY()*scale+explodeOffset.getY(), v[1].getZ()*scale+explodeOffset.getZ());
-					gl.glVertex3f(v[2].getX()*scale+explodeOffset.getX(), v[2].getY()*scale+explodeOffset.getY(), v[2].getZ()*scale+explodeOffset.getZ());
-
-
-					gl.glEnd();
-
-				}
-
-			}
-		}
-	}
+	/** Draws the faces of every visible region from the vertex arrays. */
 	private void displayPolyhedra(GL gl) {
-		displayPolyhedra(gl, false); 
+		for (int material : meshBuffers.getMaterials())
+			if (isShown(material)) meshBuffers.drawRegion(gl, material);
 	}
 	/*_****************Crease feature painting*****************_*/
 	private void displayCreaseTopology(GL gl, short colorModel) {
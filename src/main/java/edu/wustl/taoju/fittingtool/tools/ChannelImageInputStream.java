@@ -0,0 +1,80 @@
+package edu.wustl.taoju.fittingtool.tools;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/** ChannelImageInputStream.java
+ * <br>
+ * An ImageInputStream that reads a file through a FileChannel with positional reads. Unlike ImageIO's default file
+ * streams it keeps no cache of what has been read, and unlike reading the file into a byte[] first it only touches the
+ * parts of the file the decoder asks for, so header probes and region reads stay cheap on large images.
+ */
+public class ChannelImageInputStream extends ImageInputStreamImpl {
+
+	/** Size of the read-ahead window */	private static final int BUFFER_SIZE = 64*1024;
+
+	private final FileChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	/** File position of buffer[0] */			private long bufferStart = 0;
+	/** Valid bytes in the buffer */				private int bufferLength = 0;
+
+	public ChannelImageInputStream(FileChannel channel) {
+		this.channel = channel;
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkClosed();
+		bitOffset = 0;
+		if (!fill()) return -1;
+		return buffer.get((int) (streamPos++ - bufferStart)) & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		checkClosed();
+		bitOffset = 0;
+		if (len == 0) return 0;
+		if (len >= BUFFER_SIZE) {																//Large reads go straight to the caller's array.
+			int n = channel.read(ByteBuffer.wrap(b, off, len), streamPos);
+			if (n > 0) streamPos += n;
+			return n;
+		}
+		if (!fill()) return -1;
+		int n = Math.min(len, (int) (bufferStart + bufferLength - streamPos));
+		int from = (int) (streamPos - bufferStart);
+		for (int i = 0; i < n; ++i) b[off + i] = buffer.get(from + i);
+		streamPos += n;
+		return n;
+	}
+
+	@Override
+	public long length() {
+		try {
+			return channel.size();
+		} catch (IOException e) {
+			return -1L;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		super.close();
+		channel.close();
+	}
+
+	/** Makes sure the buffer holds the byte at streamPos, reading the window that starts there if not. Returns false at
+	 * the end of the file. */
+	private boolean fill() throws IOException {
+		if (streamPos >= bufferStart && streamPos < bufferStart + bufferLength) return true;
+		buffer.clear();
+		int n = 0;
+		while (n == 0) n = channel.read(buffer, streamPos);
+		bufferStart = streamPos;
+		bufferLength = Math.max(0, n);
+		return n > 0;
+	}
+}
@@ -1,16 +1,145 @@
 package edu.wustl.taoju.fittingtool.tools;
 
+import java.awt.Dimension;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.util.Iterator;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
 
 public class FileUtils 
 {
 	
 	public static BufferedImage getImage(int index, String directory, String basename, String ext, int scale) {
-		String path = directory + "/" + basename + (scale+index)+"."+ext;
-		return getImage(path);
+		return getImage(getImagePath(index, directory, basename, ext, scale));
+	}
+
+	/** Returns the path of the index-th image of a stack. */
+	public static String getImagePath(int index, String directory, String basename, String ext, int scale) {
+		return directory + "/" + basename + (scale+index)+"."+ext;
+	}
+
+	/** Reads only the header of the given image, returning its full-resolution size (or null if unreadable).
+	 * 
+	 * @param imagePath
+	 * @return size
+	 */
+	public static Dimension getImageSize(String imagePath) {
+		ImageReader reader = null;
+		try {
+			reader = getReader(openImageStream(imagePath));
+			if (reader == null) return null;
+			return new Dimension(reader.getWidth(0), reader.getHeight(0));
+		} catch (IOException e) { 
+			Log.p("Could not read image header: " + e); 
+			return null;
+		} finally {
+			dispose(reader);
+		}
+	}
+
+	/** Reads only the header of the given image, returning the bits per sample of its first band (8 for ordinary
+	 * images, 16 for high-bit-depth TIFF and PNG), or 8 if the header does not say.
+	 *
+	 * @param imagePath
+	 * @return bits per sample
+	 */
+	public static int getSampleBits(String imagePath) {
+		ImageReader reader = null;
+		try {
+			reader = getReader(openImageStream(imagePath));
+			if (reader == null) return 8;
+			ImageTypeSpecifier type = reader.getRawImageType(0);
+			if (type == null) type = reader.getImageTypes(0).next();
+			return type.getSampleModel().getSampleSize(0);
+		} catch (IOException e) {
+			Log.p("Could not read image header: " + e);
+			return 8;
+		} finally {
+			dispose(reader);
+		}
+	}
+
+	/** Decodes a rectangular region of the given image, keeping every subsampling-th pixel in each direction.
+	 * Pixels outside the region are never converted, so this is much cheaper than decoding the full image.
+	 *
+	 * @param imagePath
+	 * @param region		in full-resolution pixels, or null for the whole image
+	 * @param subsampling	1 for full resolution, 2 for half, etc.
+	 * @return image, or null if unreadable
+	 */
+	public static BufferedImage getImageRegion(String imagePath, Rectangle region, int subsampling) {
+		ImageReader reader = null;
+		try {
+			reader = getReader(openImageStream(imagePath));
+			if (reader == null) return null;
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceRegion(region);
+			param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+			return reader.read(0, param);
+		} catch (IOException e) { 
+			Log.p("Could not load image region: " + e); 
+			return null;
+		} finally {
+			dispose(reader);
+		}
+	}
+
+	/** Decodes an image at reduced resolution for use as a thumbnail. The reader is asked to keep only every n-th
+	 * pixel, with n chosen so the result is still at least size pixels on its shorter side, so the full-resolution
+	 * image is never converted or held in memory.
+	 * 
+	 * @param imagePath
+	 * @param size		smallest acceptable width and height
+	 * @return subsampled image, or null if unreadable
+	 */
+	public static BufferedImage getThumbnail(String imagePath, int size) {
+		ImageReader reader = null;
+		try {
+			reader = getReader(openImageStream(imagePath));
+			if (reader == null) return null;
+			int subsampling = Math.max(1, Math.min(reader.getWidth(0), reader.getHeight(0)) / size);
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+			return reader.read(0, param);
+		} catch (IOException e) { 
+			Log.p("Could not load thumbnail: " + e); 
+			return null;
+		} finally {
+			dispose(reader);
+		}
+	}
+
+	/** Opens an image file for ImageIO through its FileChannel. */
+	private static ImageInputStream openImageStream(String imagePath) throws IOException {
+		return new ChannelImageInputStream(new FileInputStream(imagePath).getChannel());
+	}
+
+	/** Returns a reader attached to the given stream, or null if no reader understands the format. */
+	private static ImageReader getReader(ImageInputStream in) {
+		Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+		if (!readers.hasNext()) {
+			try { in.close(); } catch (IOException e) { }
+			return null;
+		}
+		ImageReader reader = readers.next();
+		reader.setInput(in, true, true);
+		return reader;
+	}
+
+	/** Releases a reader and closes its input stream. */
+	private static void dispose(ImageReader reader) {
+		if (reader == null) return;
+		try {
+			Object in = reader.getInput();
+			if (in instanceof ImageInputStream) ((ImageInputStream)in).close();
+		} catch (IOException e) { }
+		reader.dispose();
 	}
 
 	/** Given the name/path of an image, returns image from server. 
@@ -20,10 +149,14 @@ public class FileUtils
 	 */
 	public static BufferedImage getImage(String imagePath) {		
 		BufferedImage image = new BufferedImage(4, 4, BufferedImage.TYPE_INT_ARGB);
-		byte[] bytes = FileUtils.getFile(imagePath);
+		ImageReader reader = null;
 
-		try { image = ImageIO.read(new ByteArrayInputStream(bytes)); } 
+		try { 
+			reader = getReader(openImageStream(imagePath));
+			if (reader != null) image = reader.read(0);
+		} 
 		catch (IOException e) { Log.p("Could not load image: " + e); }
+		finally { dispose(reader); }
 
 		return image;
 	}
@@ -10,6 +10,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteOrder;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -18,7 +19,8 @@ import java.util.List;
 import java.util.StringTokenizer;
 
 import app.gui.ImageStreamer;
-import app.tools.math.Vector;
+import app.tools.imaging.RawSliceSource;
+import app.tools.imaging.Windowing;
 import app.tools.math.Vertex;
 import app.tools.structure.*;
 import app.tools.topology.*;
@@ -162,6 +164,19 @@ public abstract class MeshLoader {
 		bw.close();
 	}
 	
+	/** Reads an image stack descriptor: an "imagestack" line followed by "#key = value" lines. Besides the image file
+	 * naming (start, sizex, sizey, sizez, base, scale, ext), the optional keys are
+	 * 		raw, rawwidth, rawheight, rawbits (8 or 16), rawbyteorder (little or big), rawoffset: read the slices from one
+	 * 			headerless volume file instead of the image files;
+	 * 		level, window: display window/level, in intensity units;
+	 * 		threshold, foreground (dark or bright): landmark extraction threshold, in intensity units, or "auto" (the
+	 * 			default) to choose one per slice from its histogram.
+	 *
+	 * @param directory
+	 * @param filename
+	 * @return streamer
+	 * @throws IOException
+	 */
 	public static ImageStreamer loadImageStreamer(String directory, String filename) throws IOException {
 		InputStream istream = new FileInputStream(directory + "/" + filename);
 		BufferedReader bR = new BufferedReader(new InputStreamReader(istream));
@@ -178,37 +193,49 @@ public abstract class MeshLoader {
 		String ext = "png";
 		String base = "default";
 		int scale = 100;
+		String raw = null;
+		int rawWidth = 0, rawHeight = 0, rawBits = 16;
+		long rawOffset = 0;
+		ByteOrder rawOrder = ByteOrder.LITTLE_ENDIAN;
+		float level = Float.NaN, window = Float.NaN;
+		double threshold = Double.NaN;
+		boolean darkForeground = true;
 		
 		for (String line = bR.readLine(); line != null; line = bR.readLine()) {
-			if (line.startsWith("#")) {
-				if (line.contains("start")){
-					sizestart = Integer.parseInt(line.split("=")[1].trim());
-				}
-				else if (line.contains("sizex")){
-					sizex = Integer.parseInt(line.split("=")[1].trim());
-				}
-				else if (line.contains("sizey")){
-					sizey = Integer.parseInt(line.split("=")[1].trim());
-				}
-				else if (line.contains("sizez")){
-					sizez = Integer.parseInt(line.split("=")[1].trim());
-				}
-				else if (line.contains("base")){
-					base = line.split("=")[1].trim();
-				}
-				else if (line.contains("scale")){
-					scale = Integer.parseInt(line.split("=")[1].trim());
-				}
-				else if (line.contains("ext")){
-					ext = line.split("=")[1].trim();
-				}
-			}
-			else {
-				return new ImageStreamer(sizestart,sizex,sizey,sizez,base,ext,scale,directory);
-			}
+			if (!line.startsWith("#")) break;
+			int equals = line.indexOf('=');
+			if (equals < 0) continue;
+			String key = line.substring(1, equals).trim().toLowerCase();							//Keys must match whole, since paths may contain them
+			String value = line.substring(equals + 1).trim();
+			if (key.equals("start") || key.equals("sizestart")) sizestart = Integer.parseInt(value);
+			else if (key.equals("sizex")) sizex = Integer.parseInt(value);
+			else if (key.equals("sizey")) sizey = Integer.parseInt(value);
+			else if (key.equals("sizez")) sizez = Integer.parseInt(value);
+			else if (key.equals("base")) base = value;
+			else if (key.equals("scale")) scale = Integer.parseInt(value);
+			else if (key.equals("ext")) ext = value;
+			else if (key.equals("raw")) raw = value;
+			else if (key.equals("rawwidth")) rawWidth = Integer.parseInt(value);
+			else if (key.equals("rawheight")) rawHeight = Integer.parseInt(value);
+			else if (key.equals("rawbits")) rawBits = Integer.parseInt(value);
+			else if (key.equals("rawbyteorder")) rawOrder = value.equalsIgnoreCase("big") ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+			else if (key.equals("rawoffset")) rawOffset = Long.parseLong(value);
+			else if (key.equals("level")) level = Float.parseFloat(value);
+			else if (key.equals("window")) window = Float.parseFloat(value);
+			else if (key.equals("threshold")) threshold = value.equalsIgnoreCase("auto") ? Double.NaN : Double.parseDouble(value);
+			else if (key.equals("foreground")) darkForeground = !value.equalsIgnoreCase("bright");
 		}
+		bR.close();
 		
-		return new ImageStreamer(sizestart,sizex,sizey,sizez,base,ext,scale,directory);
+		ImageStreamer streamer = new ImageStreamer(sizestart,sizex,sizey,sizez,base,ext,scale,directory);
+		if (raw != null) {
+			if (rawBits != 8 && rawBits != 16) throw new IOException("rawbits must be 8 or 16, not " + rawBits);
+			streamer.setSliceSource(new RawSliceSource(new File(directory, raw), rawWidth, rawHeight, sizex+sizey+sizez,
+					rawBits/8, rawOrder, rawOffset));
+		}
+		if (!Float.isNaN(level) && !Float.isNaN(window)) streamer.setWindowing(new Windowing(level, window));
+		streamer.setThreshold(threshold, darkForeground);
+		return streamer;
 	}
 	
 	/** Parses a .POL file for vertices and polyhedra, feeding the results into the provided ArrayLists.
@@ -291,28 +318,19 @@ public abstract class MeshLoader {
 	 */
 	private static ArrayList<Face> loadCreaseFaces(Geometry g, ArrayList<Polyhedron> polys) {
 		ArrayList<Face> creaseFaces = new ArrayList<Face>();
-		HashMap<Long, CreaseFaceStruct> hash = new HashMap<Long, CreaseFaceStruct>();
-
-		for (Polyhedron p : polys) {
-			int[][] rawFaces = new int[p.getNumFaces()][3];
-			p.getFaceData(g, rawFaces, new Vector[p.getNumFaces()]);
-
-			for (int i = 0; i < rawFaces.length; ++i) {
-				Face f = new Face (rawFaces[i], p.getMaterial());
-				if (hash.containsKey(f.longHashCode())) {
-					hash.get(f.longHashCode()).put(p,i).f.setMaterial(p.getMaterial(), false);
-				} else {
-					hash.put(f.longHashCode(), new CreaseFaceStruct().put(f).put(p,i));
-				}
-			}	
-		}
-
-		for (Long l : hash.keySet()) {
-			CreaseFaceStruct s = hash.get(l);
-			if (s.f.getMaterial(true) != s.f.getMaterial(false)) {
-				creaseFaces.add(s.f);
-				s.p1.addCreaseFace(s.i1);
-				if (s.p2 != null) s.p2.addCreaseFace(s.i2);
+		FaceAdjacency adjacency = new FaceAdjacency(polys);
+
+		for (int face = 0; face < adjacency.getFaceCount(); ++face) {
+			int other = adjacency.getPartner(face);
+			if (other >= 0 && other < face) continue;									//Each shared face once, from its first side
+			Polyhedron p1 = polys.get(adjacency.getOwner(face));
+			Face f = new Face(adjacency.getVertices(face), p1.getMaterial());
+			if (other >= 0) f.setMaterial(polys.get(adjacency.getOwner(other)).getMaterial(), false);
+
+			if (f.getMaterial(true) != f.getMaterial(false)) {
+				creaseFaces.add(f);
+				p1.addCreaseFace(face - adjacency.getFirstFace(adjacency.getOwner(face)));
+				if (other >= 0) polys.get(adjacency.getOwner(other)).addCreaseFace(other - adjacency.getFirstFace(adjacency.getOwner(other)));
 			}
 		}
 
@@ -378,31 +396,3 @@ public abstract class MeshLoader {
 	}
 
 }
-
-class CreaseFaceStruct {
-	protected Polyhedron p1, p2;
-	protected int i1, i2;
-	protected Face f;
-	
-	public CreaseFaceStruct put(Polyhedron p, int i) {
-		if (p1 == null) {
-			p1 = p;
-			i1 = i;
-		}
-		else if (p2 == null) {
-			p2 = p;
-			i2 = i;
-		}
-		else
-			throw new ArrayIndexOutOfBoundsException ("No room for polyhedron in this struct.");
-		return this;
-	}
-	
-	public CreaseFaceStruct put(Face f) {
-		if (this.f == null)
-			this.f = f;
-		else
-			throw new ArrayIndexOutOfBoundsException("No room for face in this struct.");
-		return this;
-	}
-}
\ No newline at end of file
@@ -0,0 +1,385 @@
+package edu.wustl.taoju.fittingtool.tools;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Set;
+
+import app.tools.imaging.Slice;
+
+/** StackCache.java
+ * <br>
+ * Keeps decoded thumbnails and pyramid tiles of an image stack on disk, in a cache directory next to the stack, so
+ * reopening a stack does not decode every slice again.
+ * <br>
+ * Thumbnails live in one fixed-layout file per stack, named by a hash of the stack parameters (base name, extension,
+ * scale, thumbnail size). The file is memory-mapped once; each slot records the size and modification time of the
+ * source image it was made from, and is ignored if the source has changed since. Each slot also records the format
+ * of its pixels: one byte per pixel for grey thumbnails, or three for colour ones. They are expanded back to ARGB
+ * when read; thumbnails that are not opaque are not kept. The same file holds the intensity histogram and automatic
+ * threshold of every slice, checked against the source the same way and against the maximum intensity they were
+ * binned for, so choosing thresholds on reopening does not read the slices again.
+ * <br>
+ * Tiles are stored one per file, named by a hash of the source image's path, a hash of its size and modification
+ * time, and the tile's level and position. Grey tiles keep their 8- or 16-bit samples; other opaque tiles take one
+ * byte per pixel if they are grey or three if not, and the rest ARGB ints. The first tile written for a version of a source deletes
+ * the tiles of its other versions, so editing a slice does not leave its old pyramid behind.
+ * <br>
+ * If the cache directory cannot be written, the cache turns itself off and every lookup misses.
+ */
+public class StackCache {
+
+	/** Name of the cache directory, inside the stack's directory */	public static final String CACHE_DIR = ".meshfit-cache";
+	private static final int MAGIC = 0x4d465443, VERSION = 4;
+	/** Bytes before the slot table */											private static final int HEADER = 16;
+	/** Bytes per slot in the table: source length, mtime and format */	private static final int ENTRY = 24;
+	/** Sample formats: ARGB ints, opaque grey ARGB as one byte, TYPE_BYTE_GRAY and TYPE_USHORT_GRAY samples, and
+	 * opaque ARGB as three bytes. Thumbnails are GREY_ARGB or RGB. */
+	private static final int ARGB = 0, GREY_ARGB = 1, BYTE_GREY = 2, USHORT_GREY = 3, RGB = 4;
+	/** Bytes before a tile's samples: width, height and format */		private static final int TILE_HEADER = 12;
+	/** Bytes per slot of the histogram table: source length, mtime, maximum intensity, threshold and the counts */
+	private static final int HISTOGRAM_ENTRY = 28 + 4*Slice.HISTOGRAM_BINS;
+
+	private final File directory;
+	private final int count, size;
+	private MappedByteBuffer thumbnails;
+	private boolean enabled = true;
+	/** Sources whose other tile versions have been deleted, by path and version hash */	private final Set<String> pruned = new HashSet<String>();
+
+	/** Opens (or creates) the thumbnail cache of a stack.
+	 * @param stackDirectory	directory holding the images
+	 * @param key					parameters that determine the thumbnails, e.g. base name, extension and scale
+	 * @param count				number of images in the stack
+	 * @param size					thumbnail edge length, in pixels
+	 */
+	public StackCache(String stackDirectory, String key, int count, int size) {
+		this.directory = new File(stackDirectory, CACHE_DIR);
+		this.count = count;
+		this.size = size;
+		try {
+			openThumbnails(new File(directory, "thumbs-" + hash(key + "|" + count + "|" + size) + ".bin"));
+		} catch (IOException e) {
+			Log.p("Thumbnail cache disabled: " + e);
+			enabled = false;
+		}
+	}
+
+	private void openThumbnails(File file) throws IOException {
+		long length = HEADER + (long) count*ENTRY + (long) count*size*size*3 + (long) count*HISTOGRAM_ENTRY;
+		if (length > Integer.MAX_VALUE) throw new IOException("stack too large to map");
+		if (!directory.isDirectory() && !directory.mkdirs()) throw new IOException("cannot create " + directory);
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			boolean fresh = raf.length() != length;
+			if (fresh) raf.setLength(0);
+			thumbnails = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+			if (fresh || thumbnails.getInt(0) != MAGIC || thumbnails.getInt(4) != VERSION) {
+				for (int i = 0; i < count; ++i) {															//Every slot empty
+					thumbnails.putLong(HEADER + i*ENTRY, -1L);
+					thumbnails.putLong(getHistogramEntry(i), -1L);
+				}
+				thumbnails.putInt(0, MAGIC);
+				thumbnails.putInt(4, VERSION);
+				thumbnails.putInt(8, size);
+				thumbnails.putInt(12, count);
+			}
+		} finally {
+			raf.close();																				//The mapping stays valid.
+		}
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			THUMBNAILS
+	//
+	//******************************************************************************************************************************
+
+	/** Returns the cached thumbnail of the i-th image, or null if there is none or the source has changed.
+	 *
+	 * @param i			position of the image in the stack
+	 * @param source	the image file the thumbnail was made from
+	 * @return thumbnail, as TYPE_INT_ARGB
+	 */
+	public synchronized BufferedImage getThumbnail(int i, File source) {
+		if (!enabled || i < 0 || i >= count || !source.isFile()) return null;
+		int entry = HEADER + i*ENTRY;
+		if (thumbnails.getLong(entry) != source.length() || thumbnails.getLong(entry + 8) != source.lastModified()) return null;
+
+		int format = thumbnails.getInt(entry + 16);
+		if (format != GREY_ARGB && format != RGB) return null;
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+		ByteBuffer view = thumbnails.duplicate();
+		view.position(getSlot(i));
+		unpack(view, ((DataBufferInt) image.getRaster().getDataBuffer()).getData(), format);
+		return image;
+	}
+
+	/** Stores the thumbnail of the i-th image. Images of the wrong size, or that are not opaque, are ignored.
+	 *
+	 * @param i
+	 * @param source
+	 * @param image
+	 */
+	public synchronized void putThumbnail(int i, File source, BufferedImage image) {
+		if (!enabled || i < 0 || i >= count || !source.isFile() || image.getWidth() != size || image.getHeight() != size) return;
+		int[] pixels = image.getRGB(0, 0, size, size, null, 0, size);
+		int format = getFormat(pixels);
+		if (format == ARGB) return;
+		int entry = HEADER + i*ENTRY;
+		thumbnails.putLong(entry, -1L);																//Invalid while the pixels are written
+		ByteBuffer view = thumbnails.duplicate();
+		view.position(getSlot(i));
+		pack(pixels, view, format);
+		thumbnails.putInt(entry + 16, format);
+		thumbnails.putLong(entry + 8, source.lastModified());
+		thumbnails.putLong(entry, source.length());
+	}
+
+	private int getSlot(int i) {
+		return HEADER + count*ENTRY + i*size*size*3;
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			HISTOGRAMS
+	//
+	//******************************************************************************************************************************
+
+	/** Returns the cached intensity histogram of the i-th image, or null if there is none, the source has changed, or
+	 * it was binned for another maximum intensity.
+	 *
+	 * @param i			position of the image in the stack
+	 * @param source	the image file the intensities were read from
+	 * @param maxValue	maximum intensity of the slice source
+	 * @return Slice.HISTOGRAM_BINS counts
+	 */
+	public synchronized int[] getHistogram(int i, File source, int maxValue) {
+		if (!hasHistogram(i, source, maxValue)) return null;
+		int[] counts = new int[Slice.HISTOGRAM_BINS];
+		ByteBuffer view = thumbnails.duplicate();
+		view.position(getHistogramEntry(i) + 28);
+		view.asIntBuffer().get(counts);
+		return counts;
+	}
+
+	/** Returns the cached automatic threshold of the i-th image, which is NaN if the slice had none of its own; only
+	 * meaningful if getHistogram() returns the histogram for the same arguments. */
+	public synchronized double getThreshold(int i, File source, int maxValue) {
+		if (!hasHistogram(i, source, maxValue)) return Double.NaN;
+		return thumbnails.getDouble(getHistogramEntry(i) + 20);
+	}
+
+	/** Stores the intensity histogram of the i-th image and the threshold chosen from it.
+	 *
+	 * @param i
+	 * @param source
+	 * @param maxValue
+	 * @param counts		Slice.HISTOGRAM_BINS counts
+	 * @param threshold	in intensity units, or NaN
+	 */
+	public synchronized void putHistogram(int i, File source, int maxValue, int[] counts, double threshold) {
+		if (!enabled || i < 0 || i >= count || !source.isFile() || counts.length != Slice.HISTOGRAM_BINS) return;
+		int entry = getHistogramEntry(i);
+		thumbnails.putLong(entry, -1L);																//Invalid while the counts are written
+		ByteBuffer view = thumbnails.duplicate();
+		view.position(entry + 28);
+		view.asIntBuffer().put(counts);
+		thumbnails.putInt(entry + 16, maxValue);
+		thumbnails.putDouble(entry + 20, threshold);
+		thumbnails.putLong(entry + 8, source.lastModified());
+		thumbnails.putLong(entry, source.length());
+	}
+
+	private boolean hasHistogram(int i, File source, int maxValue) {
+		if (!enabled || i < 0 || i >= count || !source.isFile()) return false;
+		int entry = getHistogramEntry(i);
+		return thumbnails.getLong(entry) == source.length() && thumbnails.getLong(entry + 8) == source.lastModified()
+				&& thumbnails.getInt(entry + 16) == maxValue;
+	}
+
+	private int getHistogramEntry(int i) {
+		return HEADER + count*ENTRY + count*size*size*3 + i*HISTOGRAM_ENTRY;
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			TILES
+	//
+	//******************************************************************************************************************************
+
+	/** Returns a cached pyramid tile, or null if there is none for the current version of the source. Grey tiles come
+	 * back as the type they were stored from, and the rest as TYPE_INT_ARGB. */
+	public BufferedImage getTile(File source, int level, int tx, int ty) {
+		if (!enabled || !source.isFile()) return null;
+		File file = getTileFile(source, level, tx, ty);
+		if (!file.isFile()) return null;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				int width = buffer.getInt(), height = buffer.getInt(), format = buffer.getInt();
+				if (width <= 0 || height <= 0) return null;
+				int n = width*height;
+				switch (format) {
+				case BYTE_GREY : {
+					if (buffer.remaining() != n) return null;
+					BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+					byte[] samples = new byte[n];
+					buffer.get(samples);
+					image.getRaster().setDataElements(0, 0, width, height, samples);
+					return image;
+				}
+				case USHORT_GREY : {
+					if (buffer.remaining() != 2*n) return null;
+					BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_USHORT_GRAY);
+					short[] samples = new short[n];
+					buffer.asShortBuffer().get(samples);
+					image.getRaster().setDataElements(0, 0, width, height, samples);
+					return image;
+				}
+				case GREY_ARGB :
+				case RGB :
+				case ARGB : {
+					if (buffer.remaining() != getBytes(format)*n) return null;
+					BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+					unpack(buffer, ((DataBufferInt) image.getRaster().getDataBuffer()).getData(), format);
+					return image;
+				}
+				default :
+					return null;
+				}
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/** Stores a pyramid tile, deleting the tiles of other versions of its source first if this is the first tile of
+	 * this version. The file is written under a temporary name first, so readers never see half a tile. */
+	public void putTile(File source, int level, int tx, int ty, BufferedImage image) {
+		if (!enabled) return;
+		prune(source);
+		File file = getTileFile(source, level, tx, ty);
+		File temp = new File(file.getPath() + ".tmp" + Thread.currentThread().getId());
+		ByteBuffer buffer = encode(image);
+		try {
+			RandomAccessFile raf = new RandomAccessFile(temp, "rw");
+			try {
+				raf.getChannel().write(buffer);
+			} finally {
+				raf.close();
+			}
+			if (!temp.renameTo(file)) temp.delete();
+		} catch (IOException e) {
+			temp.delete();
+		}
+	}
+
+	/** Packs a tile as its header and samples, in the smallest format that holds it exactly. */
+	private static ByteBuffer encode(BufferedImage image) {
+		int width = image.getWidth(), height = image.getHeight(), n = width*height;
+		ByteBuffer buffer;
+		switch (image.getType()) {
+		case BufferedImage.TYPE_BYTE_GRAY :
+			buffer = ByteBuffer.allocate(TILE_HEADER + n);
+			buffer.putInt(width).putInt(height).putInt(BYTE_GREY);
+			buffer.put((byte[]) image.getRaster().getDataElements(0, 0, width, height, null));
+			break;
+		case BufferedImage.TYPE_USHORT_GRAY :
+			buffer = ByteBuffer.allocate(TILE_HEADER + 2*n);
+			buffer.putInt(width).putInt(height).putInt(USHORT_GREY);
+			buffer.asShortBuffer().put((short[]) image.getRaster().getDataElements(0, 0, width, height, null));
+			break;
+		default :
+			int[] pixels = image.getRGB(0, 0, width, height, null, 0, width);
+			int format = getFormat(pixels);
+			buffer = ByteBuffer.allocate(TILE_HEADER + getBytes(format)*n);
+			buffer.putInt(width).putInt(height).putInt(format);
+			pack(pixels, buffer, format);
+		}
+		buffer.rewind();
+		return buffer;
+	}
+
+	/** Returns the smallest format that holds ARGB pixels exactly: GREY_ARGB, RGB or ARGB. */
+	private static int getFormat(int[] pixels) {
+		int format = GREY_ARGB;
+		for (int p : pixels) {
+			if ((p >>> 24) != 0xff) return ARGB;
+			if (((p >> 16) & 0xff) != (p & 0xff) || ((p >> 8) & 0xff) != (p & 0xff)) format = RGB;
+		}
+		return format;
+	}
+
+	/** Bytes per pixel of a format of ARGB pixels */
+	private static int getBytes(int format) {
+		return (format == ARGB) ? 4 : (format == RGB) ? 3 : 1;
+	}
+
+	/** Writes ARGB pixels in a format from getFormat(). */
+	private static void pack(int[] pixels, ByteBuffer out, int format) {
+		if (format == ARGB) {
+			out.asIntBuffer().put(pixels);
+			out.position(out.position() + 4*pixels.length);
+		} else if (format == RGB) {
+			for (int p : pixels) out.put((byte) (p >> 16)).put((byte) (p >> 8)).put((byte) p);
+		} else {
+			for (int p : pixels) out.put((byte) p);
+		}
+	}
+
+	/** Reads ARGB pixels written by pack(). */
+	private static void unpack(ByteBuffer in, int[] pixels, int format) {
+		if (format == ARGB) {
+			in.asIntBuffer().get(pixels);
+		} else if (format == RGB) {
+			for (int i = 0; i < pixels.length; ++i)
+				pixels[i] = 0xff000000 | (in.get() & 0xff) << 16 | (in.get() & 0xff) << 8 | (in.get() & 0xff);
+		} else {
+			for (int i = 0; i < pixels.length; ++i) pixels[i] = 0xff000000 | (in.get() & 0xff)*0x010101;
+		}
+	}
+
+	/** Deletes the tiles of every version of a source but the current one, once per version. */
+	private void prune(File source) {
+		String prefix = "tile-" + hash(source.getAbsolutePath()) + "-", current = prefix + getVersion(source) + "-";
+		synchronized (pruned) {
+			if (!pruned.add(current)) return;
+		}
+		File[] files = directory.listFiles();
+		if (files == null) return;
+		for (File f : files) {
+			String name = f.getName();
+			if (name.startsWith(prefix) && !name.startsWith(current)) f.delete();
+		}
+	}
+
+	private File getTileFile(File source, int level, int tx, int ty) {
+		return new File(directory, "tile-" + hash(source.getAbsolutePath()) + "-" + getVersion(source) + "-" + level + "-" + tx + "-" + ty + ".bin");
+	}
+
+	/** Hash of the size and modification time of a source, which change when it is edited. */
+	private static String getVersion(File source) {
+		return hash(source.length() + "|" + source.lastModified());
+	}
+
+	/** 64-bit FNV-1a hash of a string, in hex. */
+	private static String hash(String key) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < key.length(); ++i) {
+			h ^= key.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		return Long.toHexString(h);
+	}
+}
@@ -0,0 +1,93 @@
+package app.tools.cross_sections;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import app.tools.math.Vector;
+import app.tools.math.Vertex;
+import app.tools.structure.Mesh;
+
+/** CrossSectionCache.java
+ * <br>
+ * Keeps the cross-sections computed for the last few positions of the cutting plane, so the fill pass, the outline
+ * pass and picking all share one computation, and sliding back to a recent position costs nothing. Positions are
+ * keyed by the plane's point and normal, the mesh and its geometry version, so moving vertices or loading another
+ * mesh never returns stale polygons; old positions are dropped least recently used first.
+ */
+public class CrossSectionCache {
+
+	/** Plane positions kept */		private final int capacity;
+	private final LinkedHashMap<Object, CrossSectionSet> planes;
+
+	/** Constructor.
+	 * @param capacity	number of plane positions to keep
+	 */
+	public CrossSectionCache(int capacity) {
+		this.capacity = capacity;
+		planes = new LinkedHashMap<Object, CrossSectionSet>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, CrossSectionSet> eldest) {
+				return size() > CrossSectionCache.this.capacity;
+			}
+		};
+	}
+
+	/** Returns the key of a plane position on the current geometry of a mesh.
+	 * @param mesh
+	 * @param p		a point on the plane
+	 * @param n		plane normal
+	 * @return key
+	 */
+	public static Object getKey(Mesh mesh, Vertex p, Vector n) {
+		return new PlaneKey(mesh, p, n);
+	}
+
+	/** Returns the cross-sections cached for a plane position, or null. */
+	public CrossSectionSet get(Object key) {
+		return planes.get(key);
+	}
+
+	public void put(Object key, CrossSectionSet sections) {
+		planes.put(key, sections);
+	}
+
+	/** Forgets every plane position. */
+	public void clear() {
+		planes.clear();
+	}
+
+	/** A plane position on a given version of a mesh. */
+	private static class PlaneKey {
+		private final Mesh mesh;
+		private final int version;
+		private final float px, py, pz, nx, ny, nz;
+
+		PlaneKey(Mesh mesh, Vertex p, Vector n) {
+			this.mesh = mesh;
+			this.version = mesh.getGeometryVersion();
+			px = p.getX(); py = p.getY(); pz = p.getZ();
+			nx = n.getX(); ny = n.getY(); nz = n.getZ();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof PlaneKey)) return false;
+			PlaneKey k = (PlaneKey) o;
+			return mesh == k.mesh && version == k.version
+				&& px == k.px && py == k.py && pz == k.pz
+				&& nx == k.nx && ny == k.ny && nz == k.nz;
+		}
+
+		@Override
+		public int hashCode() {
+			int h = System.identityHashCode(mesh)*31 + version;
+			h = h*31 + Float.floatToIntBits(px);
+			h = h*31 + Float.floatToIntBits(py);
+			h = h*31 + Float.floatToIntBits(pz);
+			h = h*31 + Float.floatToIntBits(nx);
+			h = h*31 + Float.floatToIntBits(ny);
+			return h*31 + Float.floatToIntBits(nz);
+		}
+	}
+}
@@ -0,0 +1,234 @@
+package app.tools.cross_sections;
+
+import java.util.Arrays;
+
+import app.tools.math.Vector;
+import app.tools.math.Vertex;
+import app.tools.structure.Geometry;
+import app.tools.topology.Polyhedron;
+
+/** CrossSectionCutter.java
+ * <br>
+ * Table-driven version of CrossSectionMaker. The face-edge adjacency of the tetrahedron and the octahedron is worked
+ * out once, so a polyhedron is cut from the signs of its four or six vertex distances alone: no SimpleGeometry, no
+ * hash sets and no Vertex objects per polyhedron. Contours and crease tags are appended to growable arrays that are
+ * kept between polyhedra, so cutting a batch allocates nothing once the arrays are big enough.
+ * <br>
+ * The contours are the same as CrossSectionMaker's: the plane is nudged off any vertex the same way, each contour starts
+ * on the first face that crosses the plane and follows the same edges, and a second contour starts on the first face
+ * left over.
+ */
+public class CrossSectionCutter {
+
+	/** Faces of the reference tetrahedron, in the order of crease face indexes */
+	private static final Element TETRAHEDRON = new Element(new int[][] {
+			{0,1,2}, {0,2,3}, {0,3,1}, {1,3,2} });
+	/** Faces of the reference octahedron, in the order of crease face indexes */
+	private static final Element OCTAHEDRON = new Element(new int[][] {
+			{0,1,2}, {0,3,1}, {1,5,2}, {2,4,0}, {3,4,5}, {3,0,4}, {4,2,5}, {5,1,3} });
+
+	/** Stores mesh's vertex information */ 		private final Geometry g;
+	/** Plane point and normal */						private final float px, py, pz, nx, ny, nz;
+
+	//Scratch space for one polyhedron.
+	/** Vertex coordinates */							private final float[] x = new float[6], y = new float[6], z = new float[6];
+	/** Signed distances from the (nudged) plane */	private final float[] d = new float[6];
+	/** Which edges cross the plane */					private final boolean[] crossing = new boolean[12];
+	/** Which faces a contour has passed through */	private final boolean[] traversed = new boolean[8];
+	/** Which faces are crease faces */				private final boolean[] crease = new boolean[8];
+
+	//Output, for every polyhedron cut since the last reset().
+	/** First vertex of each contour, two per section, plus the total */	private int[] starts = new int[33];
+	/** x, y, z of every contour vertex */									private float[] coords = new float[48];
+	/** Crease tag of every contour vertex */								private boolean[] creases = new boolean[16];
+	/** Vertices written */													private int count = 0;
+	/** Sections written */													private int sections = 0;
+
+	/** Instantiates a cutter for a fixed plane.
+	 * @param g		vertices of the mesh
+	 * @param p		a point on the cutting plane
+	 * @param n		normal of the cutting plane
+	 */
+	public CrossSectionCutter(Geometry g, Vertex p, Vector n) {
+		this.g = g;
+		px = p.getX(); py = p.getY(); pz = p.getZ();
+		nx = n.getX(); ny = n.getY(); nz = n.getZ();
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			CROSS-SECTIONING ROUTINE
+	//
+	//******************************************************************************************************************************
+
+	/** Cuts a polyhedron and appends its section: two contours, either or both of which may be empty. If the polyhedron
+	 * cannot be cut, its section is left with two empty contours and the exception is rethrown.
+	 * @param polyhedron	a tetrahedron or an octahedron
+	 */
+	public void cut(Polyhedron polyhedron) {
+		if (2*sections + 3 > starts.length) starts = Arrays.copyOf(starts, 2*starts.length + 1);
+		int mark = count;
+		try {
+			int[] verts = polyhedron.getVertices();
+			Element e = getElement(verts.length);
+			load(verts, polyhedron.getCreaseFaces(), e);
+
+			starts[2*sections] = count;
+			int start = findFace(e);
+			if (start >= 0) traverse(e, start);
+			starts[2*sections + 1] = count;
+			start = findFace(e);
+			if (start >= 0) traverse(e, start);
+		} catch (RuntimeException ex) {
+			count = mark;
+			starts[2*sections] = starts[2*sections + 1] = count;
+			throw ex;
+		} finally {
+			starts[2*(++sections)] = count;
+		}
+	}
+
+	/** Forgets every section, keeping the arrays for reuse. */
+	public void reset() {
+		count = sections = 0;
+		starts[0] = 0;
+	}
+
+	/** Number of sections written */
+	public int getSectionCount() { return sections; }
+
+	/** Number of vertices written */
+	public int getVertexCount() { return count; }
+
+	/** First vertex of each contour, two per section, plus the total at 2*getSectionCount(). Not a copy. */
+	public int[] getStarts() { return starts; }
+
+	/** x, y, z of each vertex written. Not a copy; may be longer than needed. */
+	public float[] getCoordinates() { return coords; }
+
+	/** Crease tag of each vertex written. Not a copy; may be longer than needed. */
+	public boolean[] getCreaseTags() { return creases; }
+
+	//******************************************************************************************************************************
+	//
+	//			HELPER METHODS
+	//
+	//******************************************************************************************************************************
+
+	private static Element getElement(int vertices) {
+		switch (vertices) {
+		case 4: return TETRAHEDRON;
+		case 6: return OCTAHEDRON;
+		default: throw new IllegalArgumentException("Only tetrahedra and octahedra can be cut, not " + vertices + " vertices.");
+		}
+	}
+
+	/** Reads the vertices and crease faces, nudges the plane off the vertices, and marks the crossing edges. */
+	private void load(int[] verts, short[] creaseFaces, Element e) {
+		float cx = 0, cy = 0, cz = 0;
+		for (int i = 0; i < verts.length; ++i) {
+			Vertex v = g.get(verts[i]);
+			x[i] = v.getX(); y[i] = v.getY(); z[i] = v.getZ();
+			cx += x[i]; cy += y[i]; cz += z[i];
+		}
+		Arrays.fill(crease, false);
+		for (short f : creaseFaces) crease[f] = true;
+		Arrays.fill(traversed, false);
+
+		//Nudge the plane into the polyhedron until no vertex lies on it, exactly as CrossSectionMaker does.
+		float qx = px, qy = py, qz = pz;
+		float sx = nx*(1/10000.0f), sy = ny*(1/10000.0f), sz = nz*(1/10000.0f);
+		int m = verts.length;
+		if ((cx/m - qx)*nx + (cy/m - qy)*ny + (cz/m - qz)*nz < 0) {
+			sx = -1*sx; sy = -1*sy; sz = -1*sz;
+		}
+		boolean clear;
+		do {
+			clear = true;
+			for (int i = 0; i < m; ++i) {
+				d[i] = (x[i] - qx)*nx + (y[i] - qy)*ny + (z[i] - qz)*nz;
+				if (d[i] == 0) clear = false;
+			}
+			if (!clear) { qx = qx + sx; qy = qy + sy; qz = qz + sz; }
+		} while (!clear);
+
+		for (int k = 0; k < e.edgeCount; ++k)
+			crossing[k] = (d[e.edgeVertices[k][0]] > 0) != (d[e.edgeVertices[k][1]] > 0);
+	}
+
+	/** Returns the first face with a crossing edge that no contour has passed through, or -1. */
+	private int findFace(Element e) {
+		for (int f = 0; f < e.faces.length; ++f) {
+			if (traversed[f]) continue;
+			for (int k : e.faceEdges[f])
+				if (crossing[k]) return f;
+		}
+		return -1;
+	}
+
+	/** Walks from face to face across the crossing edges until it is back at the start, appending one corner per edge. */
+	private void traverse(Element e, int start) {
+		int face = start, last = -1;
+		do {
+			if (traversed[face]) throw new IllegalStateException("Contour does not close; the polyhedron is not a closed surface.");
+			traversed[face] = true;
+
+			int slot = 0;
+			while (slot < 3 && (e.faceEdges[face][slot] == last || !crossing[e.faceEdges[face][slot]])) ++slot;
+			if (slot == 3) throw new ArrayIndexOutOfBoundsException("Can't find an intersecting edge. :( ");
+			add(e.faces[face][slot], e.faces[face][(slot + 1) % 3], crease[face]);
+
+			last = e.faceEdges[face][slot];
+			face = (e.edgeFaces[last][0] == face) ? e.edgeFaces[last][1] : e.edgeFaces[last][0];
+		} while (face != start);
+	}
+
+	/** Appends the point where the edge from local vertex a to b crosses the plane. */
+	private void add(int a, int b, boolean isCrease) {
+		if (count == creases.length) {
+			creases = Arrays.copyOf(creases, 2*count);
+			coords = Arrays.copyOf(coords, 6*count);
+		}
+		float factor = d[a]/(d[a] - d[b]);
+		coords[3*count]   = x[a] + factor*(x[b] - x[a]);
+		coords[3*count+1] = y[a] + factor*(y[b] - y[a]);
+		coords[3*count+2] = z[a] + factor*(z[b] - z[a]);
+		creases[count++] = isCrease;
+	}
+
+	/** Face-edge adjacency of a reference element, worked out from its faces. Edge slot i of a face runs from its
+	 * vertex i to vertex i+1, as in SimpleFace. */
+	private static class Element {
+		/** Local vertices of each face */				final int[][] faces;
+		/** Edge in each slot of each face */				final int[][] faceEdges;
+		/** The two faces sharing each edge */				final int[][] edgeFaces;
+		/** The two local vertices of each edge */			final int[][] edgeVertices;
+		final int edgeCount;
+
+		Element(int[][] faces) {
+			this.faces = faces;
+			int edges = faces.length*3/2;
+			faceEdges = new int[faces.length][3];
+			edgeFaces = new int[edges][2];
+			edgeVertices = new int[edges][2];
+			int found = 0;
+			for (int f = 0; f < faces.length; ++f) {
+				for (int slot = 0; slot < 3; ++slot) {
+					int a = faces[f][slot], b = faces[f][(slot + 1) % 3];
+					int k = 0;
+					while (k < found && !(edgeVertices[k][0] == b && edgeVertices[k][1] == a)) ++k;
+					if (k == found) {
+						edgeVertices[k][0] = a;
+						edgeVertices[k][1] = b;
+						edgeFaces[k][0] = f;
+						++found;
+					} else {
+						edgeFaces[k][1] = f;
+					}
+					faceEdges[f][slot] = k;
+				}
+			}
+			edgeCount = found;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package app.tools.cross_sections;
+
+import java.nio.FloatBuffer;
+
+import javax.media.opengl.GL;
+
+import com.sun.opengl.util.BufferUtil;
+
+/** CrossSectionFans.java
+ * <br>
+ * Triangles for the filled cross-sections of a CrossSectionSet, written straight into one vertex buffer. A plane cuts
+ * a tetrahedron or an octahedron in a convex polygon of at most six corners, so a single-contour section is filled
+ * as a fan from its first corner, with no tessellator callbacks and no per-vertex arrays. Sections with a second
+ * contour (only possible for a concave polyhedron) get no triangles here and are left to the GLU tessellator.
+ */
+public class CrossSectionFans {
+
+	/** x, y, z of every triangle corner */					private final FloatBuffer vertices;
+	/** First corner of each section's triangles */			private final int[] first;
+	/** Corners of each section's triangles; 0 if none */	private final int[] count;
+
+	/** Triangulates every single-contour section of a set.
+	 * @param sections
+	 */
+	public CrossSectionFans(CrossSectionSet sections) {
+		int n = sections.size();
+		first = new int[n];
+		count = new int[n];
+		int total = 0;
+		for (int i = 0; i < n; ++i) {
+			first[i] = total;
+			if (isFan(sections, i)) count[i] = 3*(sections.getLength(i, 0) - 2);
+			total += count[i];
+		}
+
+		vertices = BufferUtil.newFloatBuffer(3*total);
+		float[] coords = sections.getCoordinates();
+		for (int i = 0; i < n; ++i) {
+			if (count[i] == 0) continue;
+			int hub = sections.getStart(i, 0), end = sections.getEnd(i, 0);
+			for (int v = hub + 1; v < end - 1; ++v) {
+				vertices.put(coords, 3*hub, 3);
+				vertices.put(coords, 3*v, 6);
+			}
+		}
+		vertices.rewind();
+	}
+
+	/** Returns true if a section is filled as a fan: one contour of at least three corners. */
+	public static boolean isFan(CrossSectionSet sections, int section) {
+		return sections.getLength(section, 1) <= 2 && sections.getLength(section, 0) > 2;
+	}
+
+	/** Returns true if a section has triangles here. */
+	public boolean hasTriangles(int section) {
+		return count[section] > 0;
+	}
+
+	/** Returns the first triangle corner of a section. */
+	public int getFirst(int section) { return first[section]; }
+
+	/** Returns the number of triangle corners of a section, three per triangle. */
+	public int getCount(int section) { return count[section]; }
+
+	/** Returns the x, y, z of every triangle corner, as a view sharing the vertex buffer. */
+	public FloatBuffer getVertices() { return vertices.duplicate(); }
+
+	/** Points the vertex array at the triangles. Client state is not compiled into display lists, so this may be
+	 * called around a series of glNewList() calls. */
+	public void enable(GL gl) {
+		gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+		gl.glVertexPointer(3, GL.GL_FLOAT, 0, vertices);
+	}
+
+	public void disable(GL gl) {
+		gl.glDisableClientState(GL.GL_VERTEX_ARRAY);
+	}
+
+	/** Draws the triangles of one section; enable() must have been called. */
+	public void draw(GL gl, int section) {
+		if (count[section] > 0) gl.glDrawArrays(GL.GL_TRIANGLES, first[section], count[section]);
+	}
+}
@@ -26,6 +26,7 @@ public class CrossSectionMaker {
 
 	/** A point lying on the cutting plane */ 	Vertex p;
 	/** A vector normal to the cutting plane*/ 	Vector n;
+	/** Plane given at construction, or null to ask the cutting tool */	private Vertex p0; private Vector n0;
 	RegistrationTool app;
 
 	/** Instantiates a new CrossSectionMaker.
@@ -34,9 +35,21 @@ public class CrossSectionMaker {
 	 */
 	public CrossSectionMaker(RegistrationTool app) {
 //		this.cutter = cutter; 
+		this.app = app;
 		this.g = app.getMesh().getGeometry(); //cutter.getMesh().getGeometry();
 	}
 
+	/** Instantiates a CrossSectionMaker for a fixed plane, so the plane is not rebuilt for every polyhedron.
+	 * @param g		vertices of the mesh
+	 * @param p		a point on the cutting plane
+	 * @param n		normal of the cutting plane
+	 */
+	public CrossSectionMaker(Geometry g, Vertex p, Vector n) {
+		this.g = g;
+		this.p0 = p;
+		this.n0 = n;
+	}
+
 	//******************************************************************************************************************************
 	//
 	//			CROSS-SECTIONING ROUTINE
@@ -192,8 +205,8 @@ public class CrossSectionMaker {
 	 */
 	private void initPlane(Polyhedron poly) {
 		boolean allVertexesClear = false;
-		p = app.getCutter().getP();
-		n = app.getCutter().getN();
+		p = (p0 != null) ? p0 : app.getCutter().getP();
+		n = (n0 != null) ? n0 : app.getCutter().getN();
 
 		Vector nudge =n.getScaled(1/10000.0f);		//Get a vector orthogonal to the cutting plane, with minimal magnitude.
 
@@ -0,0 +1,146 @@
+package app.tools.cross_sections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import app.tools.Log;
+import app.tools.math.Vector;
+import app.tools.math.Vertex;
+import app.tools.structure.Geometry;
+import app.tools.topology.Polyhedron;
+
+/** CrossSectionPipeline.java
+ * <br>
+ * Cuts the polyhedra on a plane off the GL thread. The polyhedra are split into batches that are cut on a pool of
+ * worker threads, each with its own CrossSectionCutter, and the contours are packed into a CrossSectionSet. The GL
+ * thread only takes finished sets and compiles them, so dragging the slider across a large slab never stalls
+ * rendering: the previous cross-sections stay on screen until the new ones are ready.
+ * <br>
+ * Only the latest request matters; one superseded while still queued is dropped without being cut.
+ */
+public class CrossSectionPipeline {
+
+	/** Polyhedra cut per task */		private static final int BATCH = 512;
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	/** Key of the latest request */													private volatile Object submitted;
+	/** Latest finished set, handed from the worker to the GL thread */		private final AtomicReference<Result> finished = new AtomicReference<Result>();
+
+	private final ExecutorService worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "CrossSectionPipeline");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+	private final ExecutorService batches = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "CrossSectionPipeline batch");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/** Queues the polyhedra to be cut, superseding any earlier request that has not started.
+	 * @param key		identifies the plane; returned with the result
+	 * @param g			vertices of the mesh
+	 * @param polys		polyhedra of the mesh
+	 * @param cut		indexes of the polyhedra to cut, in increasing order
+	 * @param p			a point on the plane
+	 * @param n			plane normal
+	 */
+	public void submit(final Object key, final Geometry g, final List<Polyhedron> polys, final int[] cut, final Vertex p, final Vector n) {
+		submitted = key;
+		worker.execute(new Runnable() {
+			public void run() {
+				if (key != submitted) return;													//Superseded while queued.
+				try {
+					finished.set(new Result(key, compute(g, polys, cut, p, n, batches)));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					Log.p("Could not compute cross-sections: " + e.getCause());
+				}
+			}
+		});
+	}
+
+	/** Returns the latest finished result, if one has arrived since the last call, or null. */
+	public Result take() {
+		return finished.getAndSet(null);
+	}
+
+	/** Cuts the given polyhedra with a plane.
+	 * @param g			vertices of the mesh
+	 * @param polys		polyhedra of the mesh
+	 * @param cut		indexes of the polyhedra to cut, in increasing order
+	 * @param p			a point on the plane
+	 * @param n			plane normal
+	 * @param pool		threads to cut batches on, or null to cut everything on the calling thread
+	 * @return sections, in the order of cut
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public static CrossSectionSet compute(final Geometry g, final List<Polyhedron> polys, final int[] cut, final Vertex p, final Vector n,
+			ExecutorService pool) throws InterruptedException, ExecutionException {
+		List<CrossSectionCutter> done = new ArrayList<CrossSectionCutter>();
+		if (pool == null) {
+			done.add(cutBatch(g, polys, cut, 0, cut.length, p, n));
+		} else {
+			List<Future<CrossSectionCutter>> tasks = new ArrayList<Future<CrossSectionCutter>>();
+			for (int k = 0; k < cut.length; k += BATCH) {
+				final int from = k, to = Math.min(cut.length, k + BATCH);
+				tasks.add(pool.submit(new Callable<CrossSectionCutter>() {
+					public CrossSectionCutter call() {
+						return cutBatch(g, polys, cut, from, to, p, n);
+					}
+				}));
+			}
+			for (Future<CrossSectionCutter> f : tasks) done.add(f.get());
+		}
+
+		int vertices = 0;
+		for (CrossSectionCutter b : done) vertices += b.getVertexCount();
+		int[] starts = new int[2*cut.length + 1];
+		float[] coords = new float[3*vertices];
+		boolean[] creases = new boolean[vertices];
+		int section = 0, offset = 0;
+		for (CrossSectionCutter b : done) {
+			int[] batchStarts = b.getStarts();
+			for (int i = 0; i < 2*b.getSectionCount(); ++i) starts[section + i] = offset + batchStarts[i];
+			section += 2*b.getSectionCount();
+			System.arraycopy(b.getCoordinates(), 0, coords, 3*offset, 3*b.getVertexCount());
+			System.arraycopy(b.getCreaseTags(), 0, creases, offset, b.getVertexCount());
+			offset += b.getVertexCount();
+		}
+		starts[section] = offset;
+		return new CrossSectionSet(cut.clone(), starts, coords, creases);
+	}
+
+	/** Cuts polyhedra cut[from, to) on the calling thread. A polyhedron that cannot be cut gets empty contours. */
+	private static CrossSectionCutter cutBatch(Geometry g, List<Polyhedron> polys, int[] cut, int from, int to, Vertex p, Vector n) {
+		CrossSectionCutter cutter = new CrossSectionCutter(g, p, n);
+		for (int k = from; k < to; ++k) {
+			try {
+				cutter.cut(polys.get(cut[k]));
+			} catch (RuntimeException e) {
+				Log.p("Could not cut polyhedron " + cut[k] + ": " + e);
+			}
+		}
+		return cutter;
+	}
+
+	/** A finished set and the key it was requested with. */
+	public static class Result {
+		public final Object key;
+		public final CrossSectionSet sections;
+		Result(Object key, CrossSectionSet sections) { this.key = key; this.sections = sections; }
+	}
+}
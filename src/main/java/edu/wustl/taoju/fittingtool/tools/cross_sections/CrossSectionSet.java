@@ -0,0 +1,91 @@
+package app.tools.cross_sections;
+
+import java.util.Arrays;
+
+/** CrossSectionSet.java
+ * <br>
+ * The cross-sections of many polyhedra with one plane, packed into flat arrays so they can be built on worker threads
+ * and handed to the GL thread in one piece. Section i belongs to polyhedron getPolyhedron(i), and has two contours
+ * like a CrossSection: contour c covers vertices getStart(i, c) to getEnd(i, c) - 1, whose coordinates are at
+ * 3*v, 3*v+1 and 3*v+2 of getCoordinates(). As in CrossSection, the crease tag of a vertex belongs to the edge that
+ * ends at it.
+ */
+public class CrossSectionSet {
+
+	/** Polyhedra cut, in increasing order */									private final int[] polys;
+	/** First vertex of each contour, two per section, plus the total */		private final int[] starts;
+	/** x, y, z of every contour vertex */										private final float[] coords;
+	/** Crease tag of every contour vertex */									private final boolean[] creases;
+
+	/** Wraps arrays filled by a builder; they are not copied.
+	 * @param polys
+	 * @param starts	length 2*polys.length + 1
+	 * @param coords	length 3*starts[2*polys.length]
+	 * @param creases	length starts[2*polys.length]
+	 */
+	public CrossSectionSet(int[] polys, int[] starts, float[] coords, boolean[] creases) {
+		this.polys = polys;
+		this.starts = starts;
+		this.coords = coords;
+		this.creases = creases;
+	}
+
+	/** Number of sections */
+	public int size() { return polys.length; }
+
+	public int getPolyhedron(int section) { return polys[section]; }
+
+	/** Returns the section of a polyhedron, or -1 if it is not cut. */
+	public int indexOf(int poly) {
+		int i = Arrays.binarySearch(polys, poly);
+		return (i < 0) ? -1 : i;
+	}
+
+	/** First vertex of a contour (0 or 1) of a section */
+	public int getStart(int section, int contour) { return starts[2*section + contour]; }
+
+	/** One past the last vertex of a contour (0 or 1) of a section */
+	public int getEnd(int section, int contour) { return starts[2*section + contour + 1]; }
+
+	public int getLength(int section, int contour) { return getEnd(section, contour) - getStart(section, contour); }
+
+	public float getX(int vertex) { return coords[3*vertex]; }
+	public float getY(int vertex) { return coords[3*vertex+1]; }
+	public float getZ(int vertex) { return coords[3*vertex+2]; }
+
+	public boolean isCrease(int vertex) { return creases[vertex]; }
+
+	/** Returns the packed coordinates, x, y, z per vertex. Not a copy. */
+	public float[] getCoordinates() { return coords; }
+
+	/** Returns true if a point on the plane lies inside a section. Both contours are tested together, even-odd, after
+	 * dropping the coordinate along which the plane normal is largest.
+	 * @param section
+	 * @param x, y, z		a point on the cutting plane
+	 * @param nx, ny, nz	plane normal
+	 * @return true if inside
+	 */
+	public boolean contains(int section, float x, float y, float z, float nx, float ny, float nz) {
+		float ax = Math.abs(nx), ay = Math.abs(ny), az = Math.abs(nz);
+		int drop = (ax >= ay && ax >= az) ? 0 : (ay >= az ? 1 : 2);
+		int u = (drop == 0) ? 1 : 0, v = (drop == 2) ? 1 : 2;								//Kept coordinates
+		float pu = (u == 0) ? x : y, pv = (v == 1) ? y : z;
+		boolean inside = false;
+		for (int c = 0; c <= 1; ++c) {
+			int start = getStart(section, c), end = getEnd(section, c);
+			for (int a = start, b = end - 1; a < end; b = a++) {
+				float au = coords[3*a+u], av = coords[3*a+v], bu = coords[3*b+u], bv = coords[3*b+v];
+				if ((av > pv) != (bv > pv) && pu < au + (pv - av)*(bu - au)/(bv - av)) inside = !inside;
+			}
+		}
+		return inside;
+	}
+
+	/** Total number of contour vertices */
+	public int getVertexCount() { return creases.length; }
+
+	@Override
+	public String toString() {
+		return "CrossSectionSet: " + polys.length + " sections, " + creases.length + " vertices";
+	}
+}
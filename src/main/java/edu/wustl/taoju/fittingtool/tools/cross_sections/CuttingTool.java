@@ -4,6 +4,7 @@ import java.awt.Color;
 import java.nio.ByteBuffer;
 import java.nio.DoubleBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 
 import javax.media.opengl.GL;
@@ -26,7 +27,7 @@ import app.tools.Log;
 import app.tools.MyJSlider;
 import app.tools.math.Vector;
 import app.tools.math.Vertex;
-import app.tools.topology.Polyhedron;
+import app.tools.structure.Mesh;
 
 /**CuttingTool.java
  * 
@@ -49,7 +50,14 @@ public class CuttingTool implements ChangeListener {
 	/** Rotational parameters	*/								private float yRot, xRot;
 
 	/** Polyhedra intersecting the cutting plane */ 					private ArrayList<Integer> clippedPolyhedra = new ArrayList<Integer>();
+	/** Scratch list for pick() */											private final ArrayList<Integer> pickHits = new ArrayList<Integer>();
 	/** Maps indexes in the cutting plane to global indexes */ 	private HashMap<Integer, Integer> listMap = new HashMap<Integer, Integer>();
+	/** Cross-sections of recent plane positions, shared by every pass */	private final CrossSectionCache sectionCache = new CrossSectionCache(4);
+	/** Cuts the polyhedra off the GL thread */									private final CrossSectionPipeline pipeline = new CrossSectionPipeline();
+	/** Key of the plane whose cross-sections are wanted */						private Object requestedKey;
+	/** Cross-sections in the fill and outline lists */							private CrossSectionSet fillSections, outlineSections;
+	/** Polyhedra along the normal, once the plane slides without turning */	private PlaneSweep sweep;
+	/** Normal, mesh and geometry version of the last intersection query */	private Vector sweepN; private Mesh sweepMesh; private int sweepVersion;
 
 	boolean enabled = false, clipOnPaint = false, doRefresh = true, doIntersectRefresh = true, doPlaneHandle = false, lassoMode = false, regionMode = false;
 
@@ -374,15 +382,27 @@ public class CuttingTool implements ChangeListener {
 	}
 
 	/** Paints the cross-sections of all polyhedra intersecting the cutting plane.
-	 * If a refresh needs to be done, this list of cross-sections is regenerated.
+	 * If a refresh needs to be done, the cross-sections of the current plane are requested, and the lists are
+	 * regenerated once they are ready; until then the previous lists are painted. The outline pass always follows
+	 * the fill pass, so both show the same cross-sections.
 	 * @param gl
 	 * @param doOutline
 	 * @param listNum
 	 * @return
 	 */
 	public int paintCrossSection(GL gl, boolean doOutline, int listNum) {
-		if (doRefresh /*|| currentSubDivLevel != app.getMesh().getSubDivLevel() */ ) {
-			listNum = fillList(gl, doOutline, listNum);
+		if (doOutline) {
+			if (fillSections != null && (doRefresh || outlineSections != fillSections)) {
+				listNum = fillList(gl, true, listNum, fillSections);
+				outlineSections = fillSections;
+			}
+		} else {
+			if (doRefresh /*|| currentSubDivLevel != app.getMesh().getSubDivLevel() */ ) requestCrossSections();
+			CrossSectionSet ready = getRequestedCrossSections();
+			if (ready != null && (doRefresh || ready != fillSections)) {
+				listNum = fillList(gl, false, listNum, ready);
+				fillSections = ready;
+			}
 		}
 
 		for (int i = 0; i < listMap.size(); ++i)
@@ -391,15 +411,39 @@ public class CuttingTool implements ChangeListener {
 		return listNum;
 	}
 
+	/** Asks for the cross-sections of the current plane. They come from the cache if the plane was seen recently,
+	 * and are otherwise cut on the pipeline's worker threads. */
+	private void requestCrossSections() {
+		Mesh mesh = app.getMesh();
+		Vector n = getN();
+		Vertex p = new Vertex(0,0,0).plus(n.getScaled(offset*radius));					//The plane of getP()
+		requestedKey = CrossSectionCache.getKey(mesh, p, n);
+		if (sectionCache.get(requestedKey) != null) return;
+
+		ArrayList<Integer> intersections = getIntersections();
+		int[] cut = new int[intersections.size()];
+		for (int i = 0; i < cut.length; ++i) cut[i] = intersections.get(i);
+		pipeline.submit(requestedKey, mesh.getGeometry(), mesh.getTopology().getPolyhedra(), cut, p, n);
+	}
+
+	/** Moves any finished cross-sections into the cache, and returns those of the requested plane, or null if they
+	 * are not ready yet. */
+	private CrossSectionSet getRequestedCrossSections() {
+		CrossSectionPipeline.Result result = pipeline.take();
+		if (result != null) sectionCache.put(result.key, result.sections);
+		return (requestedKey == null) ? null : sectionCache.get(requestedKey);
+	}
+
 	/** Variable needed to efficiently handle call lists */ private int oldSize = 0;
 	/** Fills the display-lists with the cross-sections of intersecting polyhedra. 
 	 * 
 	 * @param gl
 	 * @param doOutline
 	 * @param listNum
+	 * @param sections
 	 * @return
 	 */
-	public int fillList(GL gl, boolean doOutline, int listNum) {
+	public int fillList(GL gl, boolean doOutline, int listNum, CrossSectionSet sections) {
 		//if (readDensity) {DensityFile.readDensities(app,gl);readDensity=false;}
 		if (!doOutline) {
 			oldSize = listMap.size();
@@ -414,23 +458,25 @@ public class CuttingTool implements ChangeListener {
 		}
 
 
-		GLU glu = new GLU();																		//Initialize GLU and tessellators
-		GLUtessellator tess = initTessellator(glu, gl);
-
-		ArrayList<Integer> intersections = getIntersections();
-		crossSM = new CrossSectionMaker(app);
+		GLU glu = new GLU();
+		GLUtessellator tess = null;																	//Only for sections with two contours
+		CrossSectionFans fans = null;
+		if (!doOutline) {																				//Convex sections are drawn as fans from one buffer
+			fans = new CrossSectionFans(sections);
+			fans.enable(gl);
+		}
 
-		listNum = gl.glGenLists(intersections.size());
+		listNum = gl.glGenLists(sections.size());
 		//Log.p("Generated " +intersections.size() +"  for " + (doOutline ? "OUTLINE" : "FILL") + " at " + listNum );
 
-		for (int index = 0; index < intersections.size(); ++index) {
+		for (int index = 0; index < sections.size(); ++index) {
 //			Polyhedron p = app.getMesh().getTopology().getPolyhedra().get(intersections.get(index));	
 
 			gl.glNewList(listNum+index, GL.GL_COMPILE);								//Name the call list
 
 			if (!doOutline) {
-				listMap.put(intersections.get(index), index);
-				gl.glLoadName(intersections.get(index));									//Load name
+				listMap.put(sections.getPolyhedron(index), index);
+				gl.glLoadName(sections.getPolyhedron(index));									//Load name
 			}
 			
 //			int total;
@@ -451,13 +497,19 @@ public class CuttingTool implements ChangeListener {
 			else c = glSetColor(gl, Color.WHITE);
 
 			//Paint the cross section
-			CrossSection crossSection = crossSM.getCrossSection(app.getMesh().getTopology().getPolyhedra().get(intersections.get(index)));
-			paintOneCrossSection(gl, glu, tess, crossSection, c, doOutline);
+			if (fans != null && fans.hasTriangles(index)) {
+				fans.draw(gl, index);
+			} else {
+				if (tess == null && !doOutline) tess = initTessellator(glu, gl);
+				paintOneCrossSection(gl, glu, tess, sections, index, c, doOutline);
+			}
 
 			gl.glDisable(GL.GL_BLEND);
 			gl.glEndList();
 
 		}
+		if (fans != null) fans.disable(gl);
+		if (tess != null) glu.gluDeleteTess(tess);
 		return listNum;
 	}
 
@@ -519,26 +571,26 @@ public class CuttingTool implements ChangeListener {
 
 	}
 
-	/** Paints a single cross section, given a CrossSection object. 
+	/** Paints a single cross section, given a set of cross-sections and its index there. 
 	 * The cross section will be rendered differently based on whether 
 	 * a filled polygon or an outline is needed.
 	 * @param gl
 	 * @param glu
 	 * @param tess
-	 * @param crossSection
+	 * @param sections
+	 * @param index
 	 * @param doOutline
 	 */
-	private void paintOneCrossSection(GL gl, GLU glu, GLUtessellator tess, CrossSection crossSection, Color c, boolean doOutline) {	
+	private void paintOneCrossSection(GL gl, GLU glu, GLUtessellator tess, CrossSectionSet sections, int index, Color c, boolean doOutline) {	
 		if (!doOutline) {																	//Case 1: To draw a filled cross-section, we tessellate.
 
 			glu.gluTessBeginPolygon(tess, null);
 
 			for (short contour = 0; contour <= 1; ++contour) {
-				if (crossSection.getContour(contour).length > 2) {
+				if (sections.getLength(index, contour) > 2) {
 					glu.gluTessBeginContour(tess);
-					for (int i = 0; i < crossSection.getContour(contour).length; ++i ) {
-						Vertex v = crossSection.getContour(contour)[i];
-						double[] data = new double[] { v.getX(),v.getY(),v.getZ(),c.getRed()/255f,c.getGreen()/255f,c.getBlue()/255f,c.getAlpha()/255f};
+					for (int v = sections.getStart(index, contour); v < sections.getEnd(index, contour); ++v) {
+						double[] data = new double[] { sections.getX(v),sections.getY(v),sections.getZ(v),c.getRed()/255f,c.getGreen()/255f,c.getBlue()/255f,c.getAlpha()/255f};
 						glu.gluTessVertex(tess, data, 0, data);
 					}
 					glu.gluTessEndContour(tess);
@@ -547,59 +599,59 @@ public class CuttingTool implements ChangeListener {
 			try { 	glu.gluTessEndPolygon(tess);		
 			} catch (Throwable e) { //Where are self-intersecting polyhedra coming from?
 				Log.p("ERROR: A polygon could not be displayed, due to an array-out-of-bounds error from OpenGL.");	
-				Log.p("This cross-section was responsible: " + crossSection);
+				Log.p("This cross-section was responsible: polyhedron " + sections.getPolyhedron(index));
 				Log.p("Error was: " + e);
-				Log.p("Length of contour 1: " + crossSection.getContour(0).length);
-				Log.p("Length of contour 2: " + crossSection.getContour(1).length);
+				Log.p("Length of contour 1: " + sections.getLength(index, 0));
+				Log.p("Length of contour 2: " + sections.getLength(index, 1));
 				Log.p("Contour 1:");
-				for (int i = 0; i < crossSection.getContour(0).length; ++i) 
-					Log.p("---->" + crossSection.getContour(0)[i]);
+				for (int v = sections.getStart(index, 0); v < sections.getEnd(index, 0); ++v) 
+					Log.p("---->" + new Vertex(sections.getX(v), sections.getY(v), sections.getZ(v)));
 				//crossSection.tag.setSelected(true); 
 				//Re-enable the above line to select problematic polygons when they're detected. (Allowing them to be exported)
 			} 
 
 		} else {																					//Case 2: To draw the outline, we just use GL_POLYGON.
 
+			int start0 = sections.getStart(index, 0), length0 = sections.getLength(index, 0);
 			//gl.glBegin(GL.GL_LINE_LOOP);
-			for (int i = 0; i < crossSection.getContour(0).length; ++i) {
-				Vertex v1 = crossSection.getContour(0)[i];
-				Vertex v2 = crossSection.getContour(0)[(i+1)%crossSection.getContour(0).length];
+			for (int i = 0; i < length0; ++i) {
+				int v1 = start0 + i;
+				int v2 = start0 + (i+1)%length0;
 				
-				if (crossSection.getCreaseTags(0)[(i+1)%crossSection.getContour(0).length]) 
+				if (sections.isCrease(v2)) 
 					gl.glLineWidth(Viewer2D.CREASE_LINE_WIDTH);
 				else if (app.getViewer2D().getShowInnerSection()) 
 					gl.glLineWidth(Viewer2D.LINE_WIDTH);
 				else continue;
 				
-				//gl.glLineWidth(  (crossSection.getCreaseTags(0)[(i+1)%crossSection.getContour(0).length]) ? Viewer2D.CREASE_LINE_WIDTH : Viewer2D.LINE_WIDTH );
 				gl.glBegin(GL.GL_LINES);
-				gl.glVertex3f(v1.getX()*scalar, v1.getY()*scalar, v1.getZ()*scalar);
-				gl.glVertex3f(v2.getX()*scalar, v2.getY()*scalar, v2.getZ()*scalar);
+				gl.glVertex3f(sections.getX(v1)*scalar, sections.getY(v1)*scalar, sections.getZ(v1)*scalar);
+				gl.glVertex3f(sections.getX(v2)*scalar, sections.getY(v2)*scalar, sections.getZ(v2)*scalar);
 				gl.glEnd();
 			}
 			//gl.glEnd();
 			//gl.glBegin(GL.GL_LINE_LOOP);
-			for (int i = 0; i < crossSection.getContour(1).length; ++i) {
-				Vertex v = crossSection.getContour(1)[i];
-				Vertex v2 = crossSection.getContour(1)[(i+1)%crossSection.getContour(1).length];
+			int start1 = sections.getStart(index, 1), length1 = sections.getLength(index, 1);
+			for (int i = 0; i < length1; ++i) {
+				int v = start1 + i;
+				int v2 = start1 + (i+1)%length1;
 				
-				if (crossSection.getCreaseTags(0)[(i+1)%crossSection.getContour(0).length]) 
+				if (sections.isCrease(start0 + (i+1)%length0)) 
 					gl.glLineWidth(Viewer2D.CREASE_LINE_WIDTH);
 				else if (app.getViewer2D().getShowInnerSection())  		
 					gl.glLineWidth(Viewer2D.LINE_WIDTH);
 				else continue;
 				
-				//gl.glLineWidth(  (crossSection.getCreaseTags(1)[(i+1)%crossSection.getContour(1).length]) ? Viewer2D.CREASE_LINE_WIDTH : Viewer2D.LINE_WIDTH );
 				gl.glBegin(GL.GL_LINES);
-				gl.glVertex3f(v.getX()*scalar, v.getY()*scalar,v.getZ()*scalar);
-				gl.glVertex3f(v2.getX()*scalar, v2.getY()*scalar, v2.getZ()*scalar);
+				gl.glVertex3f(sections.getX(v)*scalar, sections.getY(v)*scalar, sections.getZ(v)*scalar);
+				gl.glVertex3f(sections.getX(v2)*scalar, sections.getY(v2)*scalar, sections.getZ(v2)*scalar);
 				gl.glEnd();
 				
 				gl.glPointSize(Viewer2D.CREASE_LINE_WIDTH/2);
 				gl.glEnable( GL.GL_POINT_SMOOTH );
 				gl.glBegin(GL.GL_POINTS);
-				gl.glVertex3f(v.getX()*scalar, v.getY()*scalar,v.getZ()*scalar);
-				gl.glVertex3f(v2.getX()*scalar, v2.getY()*scalar, v2.getZ()*scalar);
+				gl.glVertex3f(sections.getX(v)*scalar, sections.getY(v)*scalar, sections.getZ(v)*scalar);
+				gl.glVertex3f(sections.getX(v2)*scalar, sections.getY(v2)*scalar, sections.getZ(v2)*scalar);
 				gl.glEnd();
 			}
 			//gl.glEnd();
@@ -613,47 +665,34 @@ public class CuttingTool implements ChangeListener {
 	//
 	//******************************************************************************************************************************
 
-	/** Finds indexes of all polyhedra in the mesh that intersect the cutting plane. */
+	/** Finds indexes of all polyhedra in the mesh that intersect the cutting plane, in increasing order. After the
+	 * plane turns, the mesh's bounding volume hierarchy is queried; once it slides along the same normal, a sweep
+	 * is built, and later slider moves only update the polyhedra entering or leaving the plane. */
 	private ArrayList<Integer> getIntersections () {
 		if (doIntersectRefresh /* || currentSubDivLevel != app.getMesh().getSubDivLevel() */ ) {
+			Mesh mesh = app.getMesh();
+			Vector n = getN();
+			Vertex p = new Vertex(0,0,0).plus(n.getScaled(offset*radius));			//As getP(), without rotating the axis again
 			clippedPolyhedra = new ArrayList<Integer>();
-			for (int i = 0; i < app.getMesh().getTopology().getPolyhedra().size(); ++i)
-				if (checkPolyhedron(app.getMesh().getTopology().getPolyhedra().get(i)))
-					clippedPolyhedra.add(i);
+
+			boolean sliding = mesh == sweepMesh && mesh.getGeometryVersion() == sweepVersion 
+					&& sweepN != null && n.getX() == sweepN.getX() && n.getY() == sweepN.getY() && n.getZ() == sweepN.getZ();
+			if (sliding) {
+				if (sweep == null) sweep = new PlaneSweep(mesh.getTopology().getPolyhedra(), mesh.getGeometry(), n.getX(), n.getY(), n.getZ());
+				sweep.moveTo(p.getX(), p.getY(), p.getZ());
+				sweep.getActive(clippedPolyhedra);
+			} else {
+				sweep = null;
+				sweepN = n; sweepMesh = mesh; sweepVersion = mesh.getGeometryVersion();
+				mesh.getBVH().queryPlane(p.getX(), p.getY(), p.getZ(), n.getX(), n.getY(), n.getZ(), clippedPolyhedra);
+				Collections.sort(clippedPolyhedra);
+			}
 			doIntersectRefresh = false;
 		}
 
 		return clippedPolyhedra;
 	}
 
-	/** Checks to see if the given polyhedron intersects with the cutting plane.
-	 * @param poly
-	 * @return
-	 */
-	private boolean checkPolyhedron(Polyhedron poly) {
-		boolean foundBehind = false;
-		boolean foundAhead = false;
-
-		for (int i = 0; i < poly.getVertices().length; ++i) {
-			Vertex q = app.getMesh().getGeometry().get(poly.getVertices()[i]);
-			Vertex p = getP();
-
-			Vector traj = new Vector(p,q);
-			float dot = traj.dotProduct(getN());
-
-			if (dot > 0)
-				foundAhead = true;
-			else if (dot < 0)
-				foundBehind = true;
-			else {
-				foundAhead = true;
-				foundBehind = true;
-			}
-
-		}
-		return foundBehind		&&		foundAhead;
-	}
-
 	//******************************************************************************************************************************
 	//
 	//			ACCESSORS
@@ -698,6 +737,29 @@ public class CuttingTool implements ChangeListener {
 	public boolean getLassoMode() {		return lassoMode;     	}
 	public boolean getRegionMode() { 		return regionMode; 	}
 	public CrossSectionMaker getCrossSM() { return crossSM; }
+	/** Returns true if the fill lists hold a cross-section of the given polyhedron. */
+	public boolean hasCrossSection(int poly) { return fillSections != null && fillSections.indexOf(poly) >= 0; }
+	/** Returns the cross-sections in the fill lists, or null before the first are ready. */
+	public CrossSectionSet getPaintedCrossSections() { return fillSections; }
+
+	/** Returns the polyhedron whose painted cross-section holds a point of the cutting plane, or -1. Only polyhedra
+	 * whose bounding boxes hold the point are tested, so this costs microseconds however large the mesh.
+	 * @param x, y, z	a point on the cutting plane
+	 * @return global polyhedron index
+	 */
+	public int pick(float x, float y, float z) {
+		CrossSectionSet sections = fillSections;
+		if (sections == null) return -1;
+		float[] at = {x, y, z};
+		pickHits.clear();
+		app.getMesh().getBVH().queryBox(at, at, pickHits);
+		Vector n = getN();
+		for (int poly : pickHits) {
+			int i = sections.indexOf(poly);
+			if (i >= 0 && sections.contains(i, x, y, z, n.getX(), n.getY(), n.getZ())) return poly;
+		}
+		return -1;
+	}
 
 	//******************************************************************************************************************************
 	//
@@ -0,0 +1,214 @@
+package app.tools.cross_sections;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import app.tools.Log;
+import app.tools.math.Vector;
+import app.tools.math.Vertex;
+import app.tools.structure.Mesh;
+import app.tools.topology.Polyhedron;
+
+/** LabelSlicer.java
+ * <br>
+ * Rasterizes the materials of the mesh into label images on the z-slices of an image stack, without the viewer. Each
+ * slice is cut with a PlaneSweep along z, so stepping through the stack only touches the polyhedra entering or leaving
+ * the plane, and the cross-sections are filled with their polyhedron's material by a scanline fill, one band of rows
+ * per task on a pool of worker threads.
+ * <br>
+ * Labels are in raster order, index = x + width*y with y = 0 the top row, like a Slice. Slices and pixels are placed
+ * as for landmark extraction: slice k lies at z = minZ + k*(maxZ-minZ)/depth, and pixel (x, y) covers
+ * [minX + x*sx, minX + (x+1)*sx] by [maxY - (y+1)*sy, maxY - y*sy]. A pixel takes the label of the cross-section
+ * containing its centre; where cross-sections share an edge, the usual half-open rule gives it to one of them.
+ * <br>
+ * A slice lying on a face is cut as CrossSectionCutter does, nudging the plane into each polyhedron, so the polyhedra
+ * on both sides of the face get full cross-sections. They are filled in increasing polyhedron order, so on a face
+ * between two materials the polyhedron with the higher index wins. Since each polyhedron is nudged on its own, a pixel
+ * centre on an edge shared by two such sections may be left to neither.
+ */
+public class LabelSlicer {
+
+	/** Label of pixels outside the mesh; reads back as 65535 from an unsigned 16-bit volume */	public static final short BACKGROUND = -1;
+	/** Rows of a slice per fill task */																	private static final int BAND_ROWS = 16;
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	private final Mesh mesh;
+	/** Label image size and number of slices */							private final int width, height, depth;
+	private final float minX, maxX, minY, maxY, minZ, maxZ;
+
+	/** Polyhedra along z, for the geometry version it was built for */	private PlaneSweep sweep;
+	private int sweepVersion;
+
+	private final ExecutorService bands = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "LabelSlicer band");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/** Constructor.
+	 * @param mesh
+	 * @param width		label image width
+	 * @param height		label image height
+	 * @param depth		number of z-slices
+	 * @param minX
+	 * @param maxX
+	 * @param minY
+	 * @param maxY
+	 * @param minZ
+	 * @param maxZ
+	 */
+	public LabelSlicer(Mesh mesh, int width, int height, int depth,
+			float minX, float maxX, float minY, float maxY, float minZ, float maxZ) {
+		this.mesh = mesh;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.minX = minX;	this.maxX = maxX;
+		this.minY = minY;	this.maxY = maxY;
+		this.minZ = minZ;	this.maxZ = maxZ;
+	}
+
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	public int getDepth() { return depth; }
+
+	/** Returns the z of the k-th slice. */
+	public float getZ(int k) {
+		return minZ + k*(maxZ - minZ)/depth;
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			SLICING
+	//
+	//******************************************************************************************************************************
+
+	/** Rasterizes the materials of the mesh on one slice. Stepping through the slices in order is cheapest.
+	 * @param k		slice number, from 0
+	 * @return labels, in raster order
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public synchronized short[] slice(int k) throws InterruptedException, ExecutionException {
+		List<Polyhedron> polys = mesh.getTopology().getPolyhedra();
+		if (sweep == null || sweepVersion != mesh.getGeometryVersion()) {
+			sweep = new PlaneSweep(polys, mesh.getGeometry(), 0, 0, 1);
+			sweepVersion = mesh.getGeometryVersion();
+		}
+		float z = getZ(k);
+		sweep.moveTo(z);
+		int[] cut = sweep.getActive();
+		final CrossSectionSet sections = CrossSectionPipeline.compute(mesh.getGeometry(), polys, cut,
+				new Vertex(0, 0, z), new Vector(0, 0, 1), bands);
+
+		//Cross-sections in pixel coordinates, pixel centres at whole numbers, and the rows they cover.
+		final float[] uv = new float[2*sections.getVertexCount()];
+		float sx = (maxX - minX)/width, sy = (maxY - minY)/height;
+		for (int v = 0; v < sections.getVertexCount(); ++v) {
+			uv[2*v] = (sections.getX(v) - minX)/sx - 0.5f;
+			uv[2*v+1] = (maxY - sections.getY(v))/sy - 0.5f;
+		}
+		final short[] materials = new short[cut.length];
+		final float[] top = new float[cut.length], bottom = new float[cut.length];
+		for (int i = 0; i < cut.length; ++i) {
+			materials[i] = (short) polys.get(cut[i]).getMaterial();
+			top[i] = Float.MAX_VALUE;
+			bottom[i] = -Float.MAX_VALUE;
+			for (int v = sections.getStart(i, 0); v < sections.getEnd(i, 1); ++v) {
+				top[i] = Math.min(top[i], uv[2*v+1]);
+				bottom[i] = Math.max(bottom[i], uv[2*v+1]);
+			}
+		}
+
+		final short[] labels = new short[width*height];
+		Arrays.fill(labels, BACKGROUND);
+		List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+		for (int row = 0; row < height; row += BAND_ROWS) {
+			final int first = row, last = Math.min(height, row + BAND_ROWS);
+			tasks.add(bands.submit(new Callable<Void>() {
+				public Void call() {
+					fillRows(sections, uv, materials, top, bottom, first, last, labels);
+					return null;
+				}
+			}));
+		}
+		for (Future<Void> f : tasks) f.get();
+		return labels;
+	}
+
+	/** Fills rows [first, last) of a label image with every cross-section that covers them. The two contours of a
+	 * section are filled together, even-odd, so a concave polyhedron's section comes out right. */
+	private void fillRows(CrossSectionSet sections, float[] uv, short[] materials, float[] top, float[] bottom,
+			int first, int last, short[] labels) {
+		float[] crossings = new float[16];
+		for (int i = 0; i < sections.size(); ++i) {
+			int from = Math.max(first, (int) Math.ceil(top[i])), to = Math.min(last - 1, (int) Math.floor(bottom[i]));
+			for (int row = from; row <= to; ++row) {
+				int count = 0;
+				for (int c = 0; c <= 1; ++c) {
+					int start = sections.getStart(i, c), end = sections.getEnd(i, c);
+					for (int a = start; a < end; ++a) {
+						int b = (a + 1 < end) ? a + 1 : start;
+						float va = uv[2*a+1], vb = uv[2*b+1];
+						if ((va <= row) == (vb <= row)) continue;							//Edges cover [lower, upper) rows.
+						if (count == crossings.length) crossings = Arrays.copyOf(crossings, 2*count);
+						crossings[count++] = uv[2*a] + (row - va)*(uv[2*b] - uv[2*a])/(vb - va);
+					}
+				}
+				Arrays.sort(crossings, 0, count);
+				for (int k = 0; k + 1 < count; k += 2) {
+					int left = Math.max(0, (int) Math.ceil(crossings[k]));						//Spans cover [left, right) columns.
+					int right = Math.min(width, (int) Math.ceil(crossings[k+1]));
+					if (left < right) Arrays.fill(labels, row*width + left, row*width + right, materials[i]);
+				}
+			}
+		}
+	}
+
+	/** Writes the label images of every slice, in order, to one headerless volume of 16-bit samples, which a
+	 * RawSliceSource can read back. Only one slice is held at a time.
+	 * @param file
+	 * @param order		byte order of the samples
+	 * @throws IOException
+	 */
+	public void write(File file, ByteOrder order) throws IOException {
+		ByteBuffer bytes = ByteBuffer.allocate(2*width*height).order(order);
+		FileChannel channel = new FileOutputStream(file).getChannel();
+		try {
+			for (int k = 0; k < depth; ++k) {
+				bytes.clear();
+				bytes.asShortBuffer().put(slice(k));
+				while (bytes.hasRemaining()) channel.write(bytes);
+				Log.setStatusLoading((k+1f)/depth);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while slicing the mesh.");
+		} catch (ExecutionException e) {
+			throw new IOException("Could not slice the mesh: " + e.getCause());
+		} finally {
+			channel.close();
+		}
+		Log.p("Wrote " + depth + " label slices of " + width + " x " + height + " to " + file + ".");
+	}
+
+	/** Stops the worker threads; the slicer cannot be used afterwards. */
+	public void dispose() {
+		bands.shutdown();
+	}
+}
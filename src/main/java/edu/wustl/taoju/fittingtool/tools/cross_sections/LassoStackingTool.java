@@ -9,6 +9,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.ListIterator;
 
 import javax.media.opengl.GL;
@@ -661,7 +662,7 @@ public class LassoStackingTool implements ChangeListener,ActionListener {
 //			app.setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
 //
 //			ArrayList<Polyhedron> polys = app.getMesh().getTopology().getPolyhedra();
-//			for (int p = 0; p < polys.size(); ++p) {
+//			for (int p : getCandidates()) {
 //				if (testVertices) 
 //					for (int i : polys.get(p).getVertices()) 
 //						if ((enabledRegions.get(polys.get(p).getMaterial()) && stack.contains(app.getMesh().getGeometry().get(i), gl, this, view)))
@@ -697,6 +698,15 @@ public class LassoStackingTool implements ChangeListener,ActionListener {
 //		clear();
 //	}
 
+	/** Returns the polyhedra whose bounding boxes meet the box around every lasso in the stack. No other polyhedron
+	 * can have a vertex, edge or face inside the region the stack sweeps out, so selection need only test these. */
+	public List<Integer> getCandidates() {
+		ArrayList<Integer> candidates = new ArrayList<Integer>();
+		float[] min = new float[3], max = new float[3];
+		if (stack.getBounds(min, max)) app.getMesh().getBVH().queryBox(min, max, candidates);
+		return candidates;
+	}
+
 	private boolean testEdges (Polyhedron p) {
 		ArrayList<Vertex> v = p.getEdges(app.getMesh().getGeometry());
 		for (int i = 0; i < v.size()/2; ++i ) {
@@ -938,6 +948,25 @@ class LassoList extends LinkedList<Lasso> {
 		return faces;
 	}
 
+	/** Computes the box around the vertices of every lasso in the stack. Interpolated lassos lie inside it too.
+	 * @param min	receives the lowest x, y, z
+	 * @param max	receives the highest x, y, z
+	 * @return false if the stack has no vertices
+	 */
+	public boolean getBounds(float[] min, float[] max) {
+		boolean found = false;
+		for (Lasso l : this)
+			for (Vertex v : l) {
+				float[] xyz = {v.getX(), v.getY(), v.getZ()};
+				for (int a = 0; a < 3; ++a) {
+					if (!found || xyz[a] < min[a]) min[a] = xyz[a];
+					if (!found || xyz[a] > max[a]) max[a] = xyz[a];
+				}
+				found = true;
+			}
+		return found;
+	}
+
 	/** Check to see whether the given point is incident on the given lasso object. 
 	 * @param vertex
 	 * @param lasso
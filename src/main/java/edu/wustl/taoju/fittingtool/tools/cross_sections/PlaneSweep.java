@@ -0,0 +1,119 @@
+package app.tools.cross_sections;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import app.tools.math.Vertex;
+import app.tools.structure.Geometry;
+import app.tools.topology.Polyhedron;
+
+/** PlaneSweep.java
+ * <br>
+ * Tracks the polyhedra cut by a plane that slides along a fixed normal. Each polyhedron covers an interval [lo, hi]
+ * of distances along the normal, and the intervals are sorted once by lo and once by hi. Moving the plane to another
+ * distance only advances or retreats two pointers through those orders, touching just the polyhedra that enter or
+ * leave the plane, so dragging the slider costs time in proportion to the change rather than to the mesh.
+ * <br>
+ * A polyhedron is cut if it has vertices on both sides of the plane, or on it, as in CuttingTool; distances are
+ * compared as projections onto the normal, so a vertex within rounding of the plane may land on either side.
+ * A sweep is only good for one normal and one set of vertex positions; build a new one when either changes.
+ */
+public class PlaneSweep {
+
+	/** Nearest distance of each polyhedron along the normal */		private final float[] lo;
+	/** Farthest distance of each polyhedron along the normal */	private final float[] hi;
+	/** Polyhedra by increasing lo */									private final int[] byLo;
+	/** Polyhedra by increasing hi */									private final int[] byHi;
+	/** Polyhedra cut at the current distance */						private final BitSet active;
+	private final float nx, ny, nz;
+
+	/** Polyhedra with lo <= distance: the first entered of byLo */	private int entered = 0;
+	/** Polyhedra with hi < distance: the first exited of byHi */		private int exited = 0;
+	private float distance = Float.NEGATIVE_INFINITY;
+
+	/** Projects and sorts the polyhedra along a normal. No polyhedron is cut until the first moveTo().
+	 * @param polys
+	 * @param geometry
+	 * @param nx, ny, nz	normal of the plane
+	 */
+	public PlaneSweep(List<Polyhedron> polys, Geometry geometry, float nx, float ny, float nz) {
+		this.nx = nx; this.ny = ny; this.nz = nz;
+		int n = polys.size();
+		lo = new float[n];
+		hi = new float[n];
+		active = new BitSet(n);
+		for (int j = 0; j < n; ++j) {
+			lo[j] = Float.POSITIVE_INFINITY;
+			hi[j] = Float.NEGATIVE_INFINITY;
+			for (int index : polys.get(j).getVertices()) {
+				Vertex v = geometry.get(index);
+				float d = v.getX()*nx + v.getY()*ny + v.getZ()*nz;
+				if (d < lo[j]) lo[j] = d;
+				if (d > hi[j]) hi[j] = d;
+			}
+		}
+		byLo = sortBy(lo);
+		byHi = sortBy(hi);
+	}
+
+	/** Returns true if this sweep was built along the given normal. */
+	public boolean isAlong(float nx, float ny, float nz) {
+		return this.nx == nx && this.ny == ny && this.nz == nz;
+	}
+
+	/** Slides the plane to pass through a point. */
+	public void moveTo(float px, float py, float pz) {
+		moveTo(px*nx + py*ny + pz*nz);
+	}
+
+	/** Slides the plane to a distance along the normal, updating only the polyhedra that enter or leave it.
+	 * @param d
+	 * @return number of polyhedra whose state was rechecked
+	 */
+	public int moveTo(float d) {
+		distance = d;
+		int touched = 0;
+		while (entered < byLo.length && lo[byLo[entered]] <= d) { update(byLo[entered++]); ++touched; }
+		while (entered > 0 && lo[byLo[entered-1]] > d) { update(byLo[--entered]); ++touched; }
+		while (exited < byHi.length && hi[byHi[exited]] < d) { update(byHi[exited++]); ++touched; }
+		while (exited > 0 && hi[byHi[exited-1]] >= d) { update(byHi[--exited]); ++touched; }
+		return touched;
+	}
+
+	/** Appends the polyhedra cut at the current distance to a list, in increasing order. */
+	public void getActive(List<Integer> out) {
+		for (int j = active.nextSetBit(0); j >= 0; j = active.nextSetBit(j + 1)) out.add(j);
+	}
+
+	/** Returns the polyhedra cut at the current distance, in increasing order. */
+	public int[] getActive() {
+		int[] result = new int[active.cardinality()];
+		int i = 0;
+		for (int j = active.nextSetBit(0); j >= 0; j = active.nextSetBit(j + 1)) result[i++] = j;
+		return result;
+	}
+
+	public int getActiveCount() { return active.cardinality(); }
+
+	public boolean isActive(int poly) { return active.get(poly); }
+
+	/** A polyhedron's state can only change when one of its ends crosses the plane, so this is all a move does. */
+	private void update(int j) {
+		active.set(j, lo[j] <= distance && hi[j] >= distance);
+	}
+
+	/** Returns the indexes 0..n-1 ordered by key, sorting the keys and indexes together as longs. */
+	private static int[] sortBy(float[] key) {
+		long[] packed = new long[key.length];
+		for (int j = 0; j < key.length; ++j) {
+			int bits = Float.floatToIntBits(key[j]);
+			bits ^= (bits >> 31) & 0x7fffffff;					//Negative floats order backwards as ints
+			packed[j] = ((long) bits << 32) | j;
+		}
+		Arrays.sort(packed);
+		int[] order = new int[key.length];
+		for (int j = 0; j < key.length; ++j) order[j] = (int) packed[j];
+		return order;
+	}
+}
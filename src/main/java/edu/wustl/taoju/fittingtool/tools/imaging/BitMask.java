@@ -0,0 +1,115 @@
+package app.tools.imaging;
+
+import java.util.Arrays;
+
+/** BitMask.java
+ * <br>
+ * A binary image packed 64 pixels to a long. Each row (i1) occupies a whole number of words, with pixel i0 stored
+ * in bit (i0 & 63) of word (i0 >> 6), so a row can be shifted or combined with its neighbours a word at a time.
+ * Bits past the end of a row are always kept clear.
+ * <br>
+ * Pixels are addressed with the same layout as the int[] masks used elsewhere: index = i0 + n0*i1.
+ */
+public class BitMask {
+	/** Row length, in pixels */		final int n0;
+	/** Number of rows */				final int n1;
+	/** Words per row */					final int words;
+	/** Packed pixels */					final long[] bits;
+
+	/** Creates an empty n0 x n1 mask. */
+	public BitMask(int n0, int n1) {
+		this.n0 = n0;
+		this.n1 = n1;
+		this.words = (n0 + 63) >> 6;
+		this.bits = new long[words*n1];
+	}
+
+	/** Packs an int[] mask; every non-zero element becomes a set bit.
+	 *
+	 * @param mask
+	 * @param n0
+	 * @param n1
+	 * @return packed mask
+	 */
+	public static BitMask pack(int[] mask, int n0, int n1) {
+		BitMask m = new BitMask(n0, n1);
+		for (int i1 = 0; i1 < n1; ++i1) {
+			int row = i1*m.words, src = i1*n0;
+			for (int i0 = 0; i0 < n0; ++i0)
+				if (mask[src + i0] != 0) m.bits[row + (i0 >> 6)] |= 1L << i0;
+		}
+		return m;
+	}
+
+	/** Writes this mask back into an int[] buffer as 0s and 1s. */
+	public void unpack(int[] mask) {
+		for (int i1 = 0; i1 < n1; ++i1) {
+			int row = i1*words, dst = i1*n0;
+			for (int i0 = 0; i0 < n0; ++i0)
+				mask[dst + i0] = (int) ((bits[row + (i0 >> 6)] >>> i0) & 1L);
+		}
+	}
+
+	/** Packs a volume, index = i0 + n0*(i1 + n1*i2), into a stack of n2 slices. */
+	public static BitMask[] packStack(int[] volume, int n0, int n1, int n2) {
+		BitMask[] stack = new BitMask[n2];
+		int[] slice = new int[n0*n1];
+		for (int i2 = 0; i2 < n2; ++i2) {
+			System.arraycopy(volume, i2*slice.length, slice, 0, slice.length);
+			stack[i2] = pack(slice, n0, n1);
+		}
+		return stack;
+	}
+
+	/** Writes a stack of slices back into a volume buffer as 0s and 1s. */
+	public static void unpackStack(BitMask[] stack, int[] volume) {
+		int[] slice = new int[stack[0].n0*stack[0].n1];
+		for (int i2 = 0; i2 < stack.length; ++i2) {
+			stack[i2].unpack(slice);
+			System.arraycopy(slice, 0, volume, i2*slice.length, slice.length);
+		}
+	}
+
+	public int getWidth() { return n0; }
+	public int getHeight() { return n1; }
+
+	public boolean get(int i0, int i1) {
+		return ((bits[i1*words + (i0 >> 6)] >>> i0) & 1L) != 0L;
+	}
+
+	public void set(int i0, int i1, boolean value) {
+		if (value) 	bits[i1*words + (i0 >> 6)] |= 1L << i0;
+		else 			bits[i1*words + (i0 >> 6)] &= ~(1L << i0);
+	}
+
+	/** Returns the number of set pixels. */
+	public int count() {
+		int count = 0;
+		for (long w : bits) count += Long.bitCount(w);
+		return count;
+	}
+
+	public BitMask copy() {
+		BitMask m = new BitMask(n0, n1);
+		System.arraycopy(bits, 0, m.bits, 0, bits.length);
+		return m;
+	}
+
+	/** Inverts every pixel in place. */
+	void invert() {
+		for (int i = 0; i < bits.length; ++i) bits[i] = ~bits[i];
+		clearTail();
+	}
+
+	void clear() {
+		Arrays.fill(bits, 0L);
+	}
+
+	/** Clears the padding bits past the end of each row. */
+	void clearTail() {
+		int used = n0 & 63;
+		if (used == 0) return;
+		long keep = (1L << used) - 1L;
+		for (int i1 = 0; i1 < n1; ++i1) bits[i1*words + words - 1] &= keep;
+	}
+}
@@ -0,0 +1,159 @@
+package app.tools.imaging;
+
+/** ComponentLabeler.java
+ * <br>
+ * Labels the connected components of a 2D image or 3D volume stored in a flat int[] buffer, using the classic
+ * two-pass algorithm with a union-find table of provisional labels. Component sizes are counted during the second
+ * pass, so the largest component is known after a single linear scan, without boxing or per-seed flood fills.
+ * <br>
+ * Buffers are addressed as index = i0 + n0*(i1 + n1*i2), where i0 varies fastest. Connectivity is 8-neighbour in
+ * 2D and 26-neighbour in 3D.
+ */
+public class ComponentLabeler {
+
+	/** Result of a labeling pass. Label 0 marks elements that did not hold the labeled value. */
+	public static class Components {
+		/** Per-element labels, 1..count */		public final int[] labels;
+		/** Size of each label, indexed by label */	public final int[] sizes;
+		/** Number of components */					public final int count;
+
+		Components(int[] labels, int[] sizes, int count) {
+			this.labels = labels;
+			this.sizes = sizes;
+			this.count = count;
+		}
+
+		/** Returns the label of the largest component, or 0 if there are none. */
+		public int getLargest() {
+			int largest = 0;
+			for (int l = 1; l <= count; ++l)
+				if (sizes[l] > sizes[largest]) largest = l;
+			return largest;
+		}
+	}
+
+	/** Labels the 8-connected components of elements equal to value in an n0 x n1 image. */
+	public static Components label(int[] mask, int value, int n0, int n1) {
+		return label(mask, value, n0, n1, 1);
+	}
+
+	/** Labels the 26-connected components of elements equal to value in an n0 x n1 x n2 volume.
+	 *
+	 * @param mask
+	 * @param value
+	 * @param n0	size of the fastest-varying dimension
+	 * @param n1
+	 * @param n2
+	 * @return components
+	 */
+	public static Components label(int[] mask, int value, int n0, int n1, int n2) {
+		int[] labels = new int[n0*n1*n2];
+		int[] parent = new int[64];
+		int next = 1;
+		int plane = n0*n1;
+
+		/* First pass: provisional labels, recording equivalences between neighbours already visited */
+		for (int i2 = 0; i2 < n2; ++i2) {
+			for (int i1 = 0; i1 < n1; ++i1) {
+				int row = n0*i1 + plane*i2;
+				for (int i0 = 0; i0 < n0; ++i0) {
+					int p = row + i0;
+					if (mask[p] != value) continue;
+
+					int l = 0;
+					if (i0 > 0) l = merge(parent, l, labels[p-1]);
+					if (i1 > 0) {
+						if (i0 > 0) l = merge(parent, l, labels[p-n0-1]);
+						l = merge(parent, l, labels[p-n0]);
+						if (i0 < n0-1) l = merge(parent, l, labels[p-n0+1]);
+					}
+					if (i2 > 0) {
+						for (int d1 = -1; d1 <= 1; ++d1) {
+							if (i1+d1 < 0 || i1+d1 >= n1) continue;
+							int q = p - plane + n0*d1;
+							if (i0 > 0) l = merge(parent, l, labels[q-1]);
+							l = merge(parent, l, labels[q]);
+							if (i0 < n0-1) l = merge(parent, l, labels[q+1]);
+						}
+					}
+
+					if (l == 0) {															//New provisional label
+						if (next == parent.length) {
+							int[] grown = new int[parent.length*2];
+							System.arraycopy(parent, 0, grown, 0, parent.length);
+							parent = grown;
+						}
+						parent[next] = next;
+						l = next++;
+					}
+					labels[p] = l;
+				}
+			}
+		}
+
+		/* Resolve provisional labels to consecutive final labels */
+		int[] remap = new int[next];
+		int count = 0;
+		for (int l = 1; l < next; ++l) {
+			int root = find(parent, l);
+			if (root == l) remap[l] = ++count;
+		}
+		for (int l = 1; l < next; ++l) remap[l] = remap[find(parent, l)];
+
+		/* Second pass: relabel and count */
+		int[] sizes = new int[count+1];
+		for (int p = 0; p < labels.length; ++p) {
+			if (labels[p] == 0) continue;
+			labels[p] = remap[labels[p]];
+			sizes[labels[p]]++;
+		}
+		return new Components(labels, sizes, count);
+	}
+
+	/** Keeps only the largest 8-connected component of elements equal to value; every other element equal to value
+	 * is overwritten with fill. For example retainLargest(mask, 1, 0, ...) removes islands, and
+	 * retainLargest(mask, 0, 1, ...) fills holes.
+	 */
+	public static void retainLargest(int[] mask, int value, int fill, int n0, int n1) {
+		retainLargest(mask, value, fill, n0, n1, 1);
+	}
+
+	/** 3D version of {@link #retainLargest(int[], int, int, int, int)}, using 26-connectivity. */
+	public static void retainLargest(int[] mask, int value, int fill, int n0, int n1, int n2) {
+		Components c = label(mask, value, n0, n1, n2);
+		int largest = c.getLargest();
+		for (int p = 0; p < mask.length; ++p)
+			if (mask[p] == value && c.labels[p] != largest) mask[p] = fill;
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			UNION-FIND
+	//
+	//******************************************************************************************************************************
+
+	/** Combines the running label of the current element with a neighbour's label, returning the representative. */
+	private static int merge(int[] parent, int current, int neighbour) {
+		if (neighbour == 0) return current;
+		if (current == 0) return find(parent, neighbour);
+		return union(parent, current, neighbour);
+	}
+
+	/** Returns the root of a label, halving the path along the way. */
+	private static int find(int[] parent, int l) {
+		while (parent[l] != l) {
+			parent[l] = parent[parent[l]];
+			l = parent[l];
+		}
+		return l;
+	}
+
+	/** Joins two labels, keeping the smaller root so roots are always the first label of their component. */
+	private static int union(int[] parent, int a, int b) {
+		a = find(parent, a);
+		b = find(parent, b);
+		if (a < b) { parent[b] = a; return a; }
+		parent[a] = b;
+		return b;
+	}
+}
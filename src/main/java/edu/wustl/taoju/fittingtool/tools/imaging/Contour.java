@@ -0,0 +1,106 @@
+package app.tools.imaging;
+
+/** Contour.java
+ * <br>
+ * An ordered polyline in grid coordinates, as produced by {@link ContourExtractor}, with a unit outward normal at
+ * every point. x is the first (fastest-varying) grid index and y the second. Closed contours do not repeat their
+ * first point.
+ */
+public class Contour {
+	/** Interleaved x,y coordinates */			private final float[] points;
+	/** Interleaved unit outward normals */	private final float[] normals;
+	private final int size;
+	private final boolean closed;
+
+	/** Creates a contour from interleaved coordinates, computing normals from the ordering. Points are assumed to
+	 * run with the inside of the region on their left (in a frame where y is counter-clockwise from x).
+	 *
+	 * @param points	interleaved x,y coordinates; only the first 2*size entries are used
+	 * @param size
+	 * @param closed
+	 */
+	Contour(float[] points, int size, boolean closed) {
+		this.points = points;
+		this.size = size;
+		this.closed = closed;
+		this.normals = new float[2*size];
+		computeNormals();
+	}
+
+	public int size() { return size; }
+	public boolean isClosed() { return closed; }
+	public float getX(int i) { return points[2*i]; }
+	public float getY(int i) { return points[2*i+1]; }
+	public float getNormalX(int i) { return normals[2*i]; }
+	public float getNormalY(int i) { return normals[2*i+1]; }
+
+	/** Returns the arc length of the polyline, including the closing segment of a closed contour. */
+	public float length() {
+		float length = 0f;
+		int segments = closed ? size : size - 1;
+		for (int i = 0; i < segments; ++i) length += segmentLength(i);
+		return length;
+	}
+
+	/** Returns a copy of this contour with points evenly spaced along its arc length. Closed contours get a whole
+	 * number of points, with the spacing stretched slightly so the closing gap matches the others; open contours start
+	 * at their first point and stop at the last full step.
+	 *
+	 * @param spacing	distance between consecutive points, in grid units
+	 * @return resampled contour
+	 */
+	public Contour resample(float spacing) {
+		float total = length();
+		int count;
+		float step;
+		if (closed) {
+			count = Math.max(1, Math.round(total / spacing));
+			step = total / count;
+		} else {
+			count = (int) (total / spacing) + 1;
+			step = spacing;
+		}
+
+		float[] out = new float[2*count];
+		int segments = closed ? size : size - 1;
+		int segment = 0;
+		float segmentStart = 0f, segmentLength = segments > 0 ? segmentLength(0) : 0f;
+		for (int k = 0; k < count; ++k) {
+			float target = k * step;
+			while (segment < segments - 1 && segmentStart + segmentLength < target) {
+				segmentStart += segmentLength;
+				segmentLength = segmentLength(++segment);
+			}
+			int a = segment, b = (segment + 1) % size;
+			float t = segmentLength > 0f ? Math.min(1f, (target - segmentStart) / segmentLength) : 0f;
+			out[2*k] = points[2*a] + t * (points[2*b] - points[2*a]);
+			out[2*k+1] = points[2*a+1] + t * (points[2*b+1] - points[2*a+1]);
+		}
+		return new Contour(out, count, closed);
+	}
+
+	private float segmentLength(int i) {
+		int j = (i + 1) % size;
+		float dx = points[2*j] - points[2*i], dy = points[2*j+1] - points[2*i+1];
+		return (float) Math.sqrt(dx*dx + dy*dy);
+	}
+
+	/** Normals from central differences of the neighbouring points (one-sided at the ends of open contours). */
+	private void computeNormals() {
+		for (int i = 0; i < size; ++i) {
+			int prev = i - 1, next = i + 1;
+			if (closed) {
+				prev = (prev + size) % size;
+				next = next % size;
+			} else {
+				prev = Math.max(0, prev);
+				next = Math.min(size - 1, next);
+			}
+			float tx = points[2*next] - points[2*prev], ty = points[2*next+1] - points[2*prev+1];
+			float length = (float) Math.sqrt(tx*tx + ty*ty);
+			if (length == 0f) continue;
+			normals[2*i] = ty / length;											//Inside is on the left, so outward is the right-hand normal.
+			normals[2*i+1] = -tx / length;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package app.tools.imaging;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** ContourExtractor.java
+ * <br>
+ * Marching-squares iso-contouring of a 2D grid. Each cell crossed by the iso-level contributes oriented segments
+ * whose end points are linearly interpolated along the cell edges, so contours are sub-pixel accurate on grayscale
+ * data and pass through edge midpoints on binary masks. Segments are linked through their shared edges into ordered
+ * polylines, with the region at or above the iso-level always on the left; closed loops and chains that run off the
+ * edge of the grid are both returned.
+ * <br>
+ * Grids are addressed as index = x + n0*y, and contour coordinates are in the same (x, y) grid units.
+ */
+public class ContourExtractor {
+
+	/** Segments per case, as {start edge, end edge} pairs. Edges are numbered 0: (x,y)-(x+1,y), 1: (x+1,y)-(x+1,y+1),
+	 * 2: (x,y+1)-(x+1,y+1), 3: (x,y)-(x,y+1). Case bits are 1: (x,y), 2: (x+1,y), 4: (x+1,y+1), 8: (x,y+1).
+	 * Saddles (5 and 10) list the separated form; the joined form is chosen at run time. */
+	private static final int[][] SEGMENTS = {
+		{}, {0,3}, {1,0}, {1,3}, {2,1}, {0,3, 2,1}, {2,0}, {2,3},
+		{3,2}, {0,2}, {1,0, 3,2}, {1,2}, {3,1}, {0,1}, {3,0}, {}
+	};
+	/** Saddle segments when the cell centre is inside, joining the two inside corners. */
+	private static final int[] JOINED_5 = {0,1, 2,3}, JOINED_10 = {1,2, 3,0};
+
+	/** Extracts the contours of a binary (0/1) mask, at the boundary between 0s and 1s. */
+	public static List<Contour> extract(int[] mask, int n0, int n1) {
+		return extract(new IntField(mask), n0, n1, 0.5f);
+	}
+
+	/** Extracts the iso-contours of a grayscale grid at the given level. */
+	public static List<Contour> extract(float[] values, int n0, int n1, float iso) {
+		return extract(new FloatField(values), n0, n1, iso);
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			MARCHING SQUARES
+	//
+	//******************************************************************************************************************************
+
+	private static List<Contour> extract(Field f, int n0, int n1, float iso) {
+		int[] next = new int[2*n0*n1];								//next[edge] = edge the segment starting there ends on
+		boolean[] incoming = new boolean[2*n0*n1];
+		Arrays.fill(next, -1);
+
+		int[] edges = new int[4];
+		for (int y = 0; y < n1 - 1; ++y) {
+			for (int x = 0; x < n0 - 1; ++x) {
+				int p = x + n0*y;
+				float va = f.get(p), vb = f.get(p+1), vc = f.get(p+1+n0), vd = f.get(p+n0);
+				int code = (va >= iso ? 1 : 0) | (vb >= iso ? 2 : 0) | (vc >= iso ? 4 : 0) | (vd >= iso ? 8 : 0);
+				if (code == 0 || code == 15) continue;
+
+				int[] segments = SEGMENTS[code];
+				if ((code == 5 || code == 10) && (va + vb + vc + vd) / 4f >= iso)
+					segments = (code == 5) ? JOINED_5 : JOINED_10;
+
+				edges[0] = 2*p;  edges[1] = 2*(p+1) + 1;  edges[2] = 2*(p+n0);  edges[3] = 2*p + 1;
+				for (int s = 0; s < segments.length; s += 2) {
+					int from = edges[segments[s]], to = edges[segments[s+1]];
+					next[from] = to;
+					incoming[to] = true;
+				}
+			}
+		}
+
+		List<Contour> contours = new ArrayList<Contour>();
+		float[] buffer = new float[64];
+		for (int pass = 0; pass < 2; ++pass) {									//Open chains first, then loops.
+			for (int start = 0; start < next.length; ++start) {
+				if (next[start] == -1 || (pass == 0 && incoming[start])) continue;
+				int count = 0;
+				int e = start;
+				do {
+					if (2*count + 2 > buffer.length) buffer = Arrays.copyOf(buffer, buffer.length*2);
+					interpolate(f, n0, iso, e, buffer, 2*count++);
+					int following = next[e];
+					next[e] = -1;
+					e = following;
+				} while (e != -1 && e != start);
+				contours.add(new Contour(Arrays.copyOf(buffer, 2*count), count, pass == 1));
+			}
+		}
+		return contours;
+	}
+
+	/** Writes the point where the iso-level crosses the given edge. */
+	private static void interpolate(Field f, int n0, float iso, int edge, float[] out, int offset) {
+		int p = edge >> 1;
+		int q = (edge & 1) == 0 ? p + 1 : p + n0;
+		float vp = f.get(p), vq = f.get(q);
+		float t = (vq != vp) ? (iso - vp) / (vq - vp) : 0.5f;
+		float x = p % n0, y = p / n0;
+		if ((edge & 1) == 0) x += t; else y += t;
+		out[offset] = x;
+		out[offset+1] = y;
+	}
+
+	/** Read access to the grid being contoured. */
+	private static abstract class Field {
+		abstract float get(int p);
+	}
+
+	private static class IntField extends Field {
+		private final int[] values;
+		IntField(int[] values) { this.values = values; }
+		float get(int p) { return values[p]; }
+	}
+
+	private static class FloatField extends Field {
+		private final float[] values;
+		FloatField(float[] values) { this.values = values; }
+		float get(int p) { return values[p]; }
+	}
+}
@@ -0,0 +1,97 @@
+package app.tools.imaging;
+
+/** GrayVolume.java
+ * <br>
+ * A volume of 8-bit gray levels filling a box in world coordinates, sampled on arbitrary planes with trilinear
+ * interpolation. Voxels are placed as the thumbnails of an image stack are drawn: voxel (x, y, z) covers
+ * [minX + x*sx, minX + (x+1)*sx] by [maxY - (y+1)*sy, maxY - y*sy] by [minZ + z*sz, minZ + (z+1)*sz], so image rows
+ * run down from maxY and slices up from minZ.
+ */
+public class GrayVolume {
+
+	/** Gray levels, index = x + width*(y + height*z) */		private final byte[] values;
+	private final int width, height, depth;
+	private final float minX, maxX, minY, maxY, minZ, maxZ;
+
+	/** Constructor.
+	 * @param values		gray levels, index = x + width*(y + height*z)
+	 * @param width
+	 * @param height
+	 * @param depth		number of slices
+	 * @param minX
+	 * @param maxX
+	 * @param minY
+	 * @param maxY
+	 * @param minZ
+	 * @param maxZ
+	 */
+	public GrayVolume(byte[] values, int width, int height, int depth,
+			float minX, float maxX, float minY, float maxY, float minZ, float maxZ) {
+		if (values.length != width*height*depth) throw new IllegalArgumentException("Volume needs " + width*height*depth + " values, not " + values.length);
+		this.values = values;
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.minX = minX;	this.maxX = maxX;
+		this.minY = minY;	this.maxY = maxY;
+		this.minZ = minZ;	this.maxZ = maxZ;
+	}
+
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	public int getDepth() { return depth; }
+
+	/** Fills rows [first, last) of a square ARGB image sampled over a plane; outside the volume is transparent.
+	 * @param plane		{centre, right, up}: the middle of the image and the unit directions of its columns and rows
+	 * @param halfSize	half the edge length of the image, in world units
+	 * @param size		edge length of the image, in pixels
+	 * @param first		first row, from the top of the plane
+	 * @param last		row after the last
+	 * @param pixels		image, size*size in raster order
+	 */
+	public void sampleRows(float[] plane, float halfSize, int size, int first, int last, int[] pixels) {
+		float step = 2f*halfSize / size;
+		float fx = width / (maxX - minX), fy = height / (maxY - minY), fz = depth / (maxZ - minZ);
+		for (int row = first; row < last; ++row) {
+			float b = halfSize - (row + 0.5f)*step;
+			for (int col = 0; col < size; ++col) {
+				float a = (col + 0.5f)*step - halfSize;
+				float wx = plane[0] + a*plane[3] + b*plane[6];
+				float wy = plane[1] + a*plane[4] + b*plane[7];
+				float wz = plane[2] + a*plane[5] + b*plane[8];
+
+				float x = (wx - minX)*fx - 0.5f, y = (maxY - wy)*fy - 0.5f, z = (wz - minZ)*fz - 0.5f;
+				int g = trilinear(x, y, z);
+				pixels[row*size + col] = (g < 0) ? 0 : (0xff000000 | (g << 16) | (g << 8) | g);
+			}
+		}
+	}
+
+	/** Trilinear interpolation between voxel centres, clamped at the faces of the volume.
+	 * @param x		voxel coordinates, with voxel centres at whole numbers
+	 * @param y
+	 * @param z
+	 * @return gray level, rounded, or -1 outside the volume
+	 */
+	public int trilinear(float x, float y, float z) {
+		if (x < -0.5f || y < -0.5f || z < -0.5f || x > width - 0.5f || y > height - 0.5f || z > depth - 0.5f) return -1;
+		x = Math.max(0f, Math.min(width - 1, x));
+		y = Math.max(0f, Math.min(height - 1, y));
+		z = Math.max(0f, Math.min(depth - 1, z));
+		int x0 = (int) x, y0 = (int) y, z0 = (int) z;
+		int x1 = Math.min(x0 + 1, width - 1), y1 = Math.min(y0 + 1, height - 1), z1 = Math.min(z0 + 1, depth - 1);
+		float tx = x - x0, ty = y - y0, tz = z - z0;
+
+		byte[] v = values;
+		int s0 = width*height*z0, s1 = width*height*z1;
+		float c00 = lerp(v[s0 + x0 + width*y0] & 0xff, v[s0 + x1 + width*y0] & 0xff, tx);
+		float c10 = lerp(v[s0 + x0 + width*y1] & 0xff, v[s0 + x1 + width*y1] & 0xff, tx);
+		float c01 = lerp(v[s1 + x0 + width*y0] & 0xff, v[s1 + x1 + width*y0] & 0xff, tx);
+		float c11 = lerp(v[s1 + x0 + width*y1] & 0xff, v[s1 + x1 + width*y1] & 0xff, tx);
+		return (int) (lerp(lerp(c00, c10, ty), lerp(c01, c11, ty), tz) + 0.5f);
+	}
+
+	private static float lerp(float a, float b, float t) {
+		return a + t*(b - a);
+	}
+}
@@ -0,0 +1,115 @@
+package app.tools.imaging;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+import java.io.IOException;
+
+import app.tools.FileUtils;
+
+/** ImageFileSliceSource.java
+ * <br>
+ * Reads the slices of a stack stored as one image file per slice, named base + (scale + k) + "." + ext. Grayscale files
+ * keep their own bit depth, so 16-bit TIFF or PNG slices come through as 0..65535; colour files are read as the mean of
+ * their colour bands. Pixels that are mostly transparent read as the maximum value, i.e. as blank background.
+ */
+public class ImageFileSliceSource implements SliceSource {
+
+	private final String directory, base, ext;
+	private final int scale, first, count;
+	private int width = -1, height = -1, maxValue = -1;
+
+	/** Constructor.
+	 * @param directory		directory holding the images
+	 * @param base			file name before the number
+	 * @param ext			file extension
+	 * @param scale			number of the first file of the stack
+	 * @param first			index of this source's first slice within the stack
+	 * @param count			number of slices
+	 */
+	public ImageFileSliceSource(String directory, String base, String ext, int scale, int first, int count) {
+		this.directory = directory;
+		this.base = base;
+		this.ext = ext;
+		this.scale = scale;
+		this.first = first;
+		this.count = count;
+	}
+
+	public int getSliceCount() { return count; }
+
+	public int getWidth() {
+		readHeader();
+		return width;
+	}
+
+	public int getHeight() {
+		readHeader();
+		return height;
+	}
+
+	public int getMaxValue() {
+		if (maxValue < 0) {
+			int bits = Math.min(16, FileUtils.getSampleBits(getPath(0)));
+			maxValue = (1 << bits) - 1;
+		}
+		return maxValue;
+	}
+
+	public Slice readSlice(int k, int subsampling) throws IOException {
+		BufferedImage image = FileUtils.getImageRegion(getPath(k), null, subsampling);
+		if (image == null) throw new IOException("Could not read slice " + k + " (" + getPath(k) + ")");
+		return toSlice(image, getMaxValue());
+	}
+
+	/** Returns the path of the k-th slice */
+	public String getPath(int k) {
+		return FileUtils.getImagePath(first + k, directory, base, ext, scale);
+	}
+
+	private void readHeader() {
+		if (width >= 0) return;
+		Dimension size = FileUtils.getImageSize(getPath(0));
+		width = size == null ? 0 : size.width;
+		height = size == null ? 0 : size.height;
+	}
+
+	/** Converts a decoded image to intensities, reading its raster directly so nothing is packed into ARGB on the way,
+	 * and counts their histogram in the same pass. */
+	static Slice toSlice(BufferedImage image, int maxValue) {
+		int w = image.getWidth(), h = image.getHeight();
+		Raster raster = image.getRaster();
+		ColorModel model = image.getColorModel();
+		int bands = raster.getNumBands();
+		boolean indexed = model instanceof IndexColorModel;
+		boolean alpha = !indexed && model.hasAlpha();
+		int colours = alpha ? bands - 1 : bands;
+		int opaque = alpha ? 1 << (raster.getSampleModel().getSampleSize(bands - 1) - 1) : 0;
+
+		short[] values = new short[w*h];
+		int[] histogram = new int[Slice.HISTOGRAM_BINS];
+		int[] row = new int[w*bands];
+		for (int y = 0; y < h; ++y) {
+			raster.getPixels(0, y, w, 1, row);
+			for (int x = 0; x < w; ++x) {
+				int v;
+				if (indexed) {
+					int rgb = model.getRGB(row[x*bands]);
+					v = ((rgb >> 16 & 0xff) + (rgb >> 8 & 0xff) + (rgb & 0xff)) / 3;
+					if ((rgb >>> 24) < 128) v = maxValue;
+				} else {
+					int sum = 0;
+					for (int b = 0; b < colours; ++b) sum += row[x*bands + b];
+					v = sum / colours;
+					if (alpha && row[x*bands + bands - 1] < opaque) v = maxValue;
+				}
+				v = Math.min(v, maxValue);
+				values[x + w*y] = (short) v;
+				histogram[Slice.bin(v, maxValue)]++;
+			}
+		}
+		return new Slice(w, h, values, maxValue, histogram);
+	}
+}
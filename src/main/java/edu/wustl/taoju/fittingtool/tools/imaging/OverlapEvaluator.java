@@ -0,0 +1,343 @@
+package app.tools.imaging;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** OverlapEvaluator.java
+ * <br>
+ * Measures how well two label volumes agree, region by region: typically the segmentation of the image stack as the
+ * reference, and the mesh's materials sliced or voxelized on the same grid. For every label other than the
+ * background it reports the Dice coefficient, and the Hausdorff distance and mean surface distance between the
+ * boundaries of the region in the two volumes, in scaled units.
+ * <br>
+ * Neither volume is ever held whole. Slices are read a slab at a time on a pool of worker threads, with one slice
+ * either side so boundaries can be found, and only a few slabs are read ahead. Each slab's voxel counts are summed as
+ * it finishes; only its boundary voxels are kept. Distances are found by searching a grid of boundary voxels, again split
+ * across the pool. The distances are only an estimate, since boundaries are taken to the nearest voxel.
+ */
+public class OverlapEvaluator {
+
+	/** Slices per task */								private static final int SLAB = 8;
+	/** Voxels per grid cell edge, for distances */	private static final int CELL = 8;
+	/** Boundary voxels per distance task */			private static final int CHUNK = 4096;
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+	private static final int LABELS = 1 << 16;
+
+	/** A stack of label images, all the same size, in raster order. */
+	public interface LabelSlices {
+		public int getWidth();
+		public int getHeight();
+		public int getSliceCount();
+		/** Returns the labels of one slice; may be called from several threads at once. */
+		public short[] getSlice(int k) throws IOException;
+	}
+
+	private final LabelSlices reference, candidate;
+	private final short background;
+	private final int n0, n1, n2;
+	/** Voxel size */		private final float s0, s1, s2;
+
+	/** Constructor.
+	 * @param reference		e.g. the image segmentation
+	 * @param candidate		e.g. the mesh labels; must be the same size as the reference
+	 * @param background	label that is not a region
+	 * @param s0			voxel size across a row
+	 * @param s1			voxel size down a column
+	 * @param s2			slice spacing
+	 */
+	public OverlapEvaluator(LabelSlices reference, LabelSlices candidate, short background, float s0, float s1, float s2) {
+		if (reference.getWidth() != candidate.getWidth() || reference.getHeight() != candidate.getHeight()
+				|| reference.getSliceCount() != candidate.getSliceCount())
+			throw new IllegalArgumentException("Label volumes differ in size.");
+		this.reference = reference;
+		this.candidate = candidate;
+		this.background = background;
+		this.n0 = reference.getWidth();
+		this.n1 = reference.getHeight();
+		this.n2 = reference.getSliceCount();
+		this.s0 = s0;
+		this.s1 = s1;
+		this.s2 = s2;
+	}
+
+	/** Returns a view of a stack in which every label but the background becomes one, e.g. to compare all the
+	 * materials of a mesh with a foreground/background segmentation. */
+	public static LabelSlices merge(final LabelSlices slices, final short background, final short label) {
+		return new LabelSlices() {
+			public int getWidth() { return slices.getWidth(); }
+			public int getHeight() { return slices.getHeight(); }
+			public int getSliceCount() { return slices.getSliceCount(); }
+			public short[] getSlice(int k) throws IOException {
+				short[] labels = slices.getSlice(k);
+				for (int i = 0; i < labels.length; ++i)
+					if (labels[i] != background) labels[i] = label;
+				return labels;
+			}
+		};
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			EVALUATION
+	//
+	//******************************************************************************************************************************
+
+	/** Compares the two volumes.
+	 * @return one entry per label found in either volume, by increasing unsigned label
+	 * @throws IOException			if a slice could not be read
+	 * @throws InterruptedException
+	 */
+	public List<Overlap> evaluate() throws IOException, InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			long[] inReference = new long[LABELS], inCandidate = new long[LABELS], inBoth = new long[LABELS];
+			List<Slab> slabs = new ArrayList<Slab>();
+			ArrayDeque<Future<Slab>> inFlight = new ArrayDeque<Future<Slab>>();
+			int next = 0;
+			while (next < n2 || !inFlight.isEmpty()) {
+				while (next < n2 && inFlight.size() <= THREADS) {								//Bounds the slices held at once.
+					final int from = next, to = Math.min(n2, next + SLAB);
+					inFlight.add(pool.submit(new Callable<Slab>() {
+						public Slab call() throws IOException {
+							return scan(from, to);
+						}
+					}));
+					next = to;
+				}
+				Slab slab = get(inFlight.poll());
+				for (int l = 0; l < LABELS; ++l) {
+					inReference[l] += slab.inReference[l];
+					inCandidate[l] += slab.inCandidate[l];
+					inBoth[l] += slab.inBoth[l];
+				}
+				slab.inReference = slab.inCandidate = slab.inBoth = null;
+				slabs.add(slab);
+			}
+
+			List<Overlap> result = new ArrayList<Overlap>();
+			for (int l = 0; l < LABELS; ++l) {
+				if (inReference[l] == 0 && inCandidate[l] == 0) continue;
+				int[] a = gather(slabs, l, true), b = gather(slabs, l, false);
+				double[] ab = distances(a, b, pool), ba = distances(b, a, pool);
+				double hausdorff = Math.max(ab[0], ba[0]);
+				double mean = Double.isNaN(hausdorff) ? Double.NaN : (ab[1] + ba[1]) / (a.length/3 + b.length/3);
+				result.add(new Overlap((short) l, inReference[l], inCandidate[l], inBoth[l], hausdorff, mean));
+			}
+			return result;
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/** Counts voxels and finds boundary voxels in slices [from, to). */
+	private Slab scan(int from, int to) throws IOException {
+		Slab slab = new Slab();
+		short[][] ref = new short[to - from + 2][], cand = new short[to - from + 2][];
+		for (int k = Math.max(0, from - 1); k <= Math.min(n2 - 1, to); ++k) {
+			ref[k - from + 1] = reference.getSlice(k);
+			cand[k - from + 1] = candidate.getSlice(k);
+		}
+		for (int k = from; k < to; ++k) {
+			short[] r = ref[k - from + 1], c = cand[k - from + 1];
+			for (int i = 0; i < n0*n1; ++i) {
+				if (r[i] != background) slab.inReference[r[i] & 0xffff]++;
+				if (c[i] != background) {
+					slab.inCandidate[c[i] & 0xffff]++;
+					if (r[i] == c[i]) slab.inBoth[c[i] & 0xffff]++;
+				}
+			}
+			boundary(ref, k - from + 1, k, slab.referenceBoundary);
+			boundary(cand, k - from + 1, k, slab.candidateBoundary);
+		}
+		return slab;
+	}
+
+	/** Appends the boundary voxels of slice k as label, i0, i1, i2: voxels of a region with a 6-neighbour outside it.
+	 * Outside the volume counts as outside every region. */
+	private void boundary(short[][] slices, int at, int k, IntList out) {
+		short[] s = slices[at], below = slices[at - 1], above = slices[at + 1];
+		for (int i1 = 0; i1 < n1; ++i1) {
+			for (int i0 = 0; i0 < n0; ++i0) {
+				int i = i0 + n0*i1;
+				short l = s[i];
+				if (l == background) continue;
+				boolean edge = i0 == 0 || i0 == n0 - 1 || i1 == 0 || i1 == n1 - 1 || below == null || above == null
+						|| s[i-1] != l || s[i+1] != l || s[i-n0] != l || s[i+n0] != l || below[i] != l || above[i] != l;
+				if (edge) out.add(l & 0xffff, i0, i1, k);
+			}
+		}
+	}
+
+	/** Collects the boundary voxels of one label from every slab, as i0, i1, i2 triples. */
+	private static int[] gather(List<Slab> slabs, int label, boolean ofReference) {
+		int count = 0;
+		for (Slab slab : slabs) count += (ofReference ? slab.referenceBoundary : slab.candidateBoundary).count(label);
+		int[] points = new int[3*count];
+		int n = 0;
+		for (Slab slab : slabs) {
+			IntList list = ofReference ? slab.referenceBoundary : slab.candidateBoundary;
+			for (int j = 0; j < list.size; j += 4)
+				if (list.values[j] == label) {
+					points[n++] = list.values[j+1];
+					points[n++] = list.values[j+2];
+					points[n++] = list.values[j+3];
+				}
+		}
+		return points;
+	}
+
+	/** Returns the largest and the total distance from each point of from to the nearest point of to; the largest is
+	 * NaN if either set is empty. */
+	private double[] distances(final int[] from, int[] to, ExecutorService pool) throws IOException, InterruptedException {
+		if (from.length == 0 || to.length == 0) return new double[] {Double.NaN, 0};
+		final PointGrid grid = new PointGrid(to);
+		List<Future<double[]>> tasks = new ArrayList<Future<double[]>>();
+		for (int j = 0; j < from.length/3; j += CHUNK) {
+			final int first = j, last = Math.min(from.length/3, j + CHUNK);
+			tasks.add(pool.submit(new Callable<double[]>() {
+				public double[] call() {
+					double max = 0, sum = 0;
+					for (int p = first; p < last; ++p) {
+						double d = Math.sqrt(grid.nearest(from[3*p], from[3*p+1], from[3*p+2]));
+						max = Math.max(max, d);
+						sum += d;
+					}
+					return new double[] {max, sum};
+				}
+			}));
+		}
+		double max = 0, sum = 0;
+		for (Future<double[]> f : tasks) {
+			double[] part = get(f);
+			max = Math.max(max, part[0]);
+			sum += part[1];
+		}
+		return new double[] {max, sum};
+	}
+
+	/** Waits for a task, passing on a failure to read a slice as it was thrown. */
+	private static <T> T get(Future<T> f) throws IOException, InterruptedException {
+		try {
+			return f.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			HELPER CLASSES
+	//
+	//******************************************************************************************************************************
+
+	/** Agreement of one region between the two volumes. */
+	public static class Overlap {
+		public final short label;
+		/** Voxels of the region in each volume, and in both */		public final long reference, candidate, both;
+		/** Largest boundary distance, either way; NaN if the region is missing from either volume */	public final double hausdorff;
+		/** Mean boundary distance, both ways together; NaN as above */									public final double meanDistance;
+
+		Overlap(short label, long reference, long candidate, long both, double hausdorff, double meanDistance) {
+			this.label = label;
+			this.reference = reference;
+			this.candidate = candidate;
+			this.both = both;
+			this.hausdorff = hausdorff;
+			this.meanDistance = meanDistance;
+		}
+
+		/** Returns 2|A and B| / (|A| + |B|), from 0 for no overlap to 1 for the same voxels. */
+		public double getDice() {
+			return 2.0*both / (reference + candidate);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("Region %d: Dice %.3f, Hausdorff %.3f, mean surface distance %.3f (%d / %d voxels)",
+					label, getDice(), hausdorff, meanDistance, reference, candidate);
+		}
+	}
+
+	/** What one slab contributes. */
+	private static class Slab {
+		long[] inReference = new long[LABELS], inCandidate = new long[LABELS], inBoth = new long[LABELS];
+		final IntList referenceBoundary = new IntList(), candidateBoundary = new IntList();
+	}
+
+	/** Growable int array, four ints per boundary voxel. */
+	private static class IntList {
+		int[] values = new int[256];
+		int size = 0;
+
+		void add(int a, int b, int c, int d) {
+			if (size + 4 > values.length) values = Arrays.copyOf(values, 2*values.length);
+			values[size++] = a;
+			values[size++] = b;
+			values[size++] = c;
+			values[size++] = d;
+		}
+
+		int count(int label) {
+			int n = 0;
+			for (int j = 0; j < size; j += 4)
+				if (values[j] == label) n++;
+			return n;
+		}
+	}
+
+	/** Voxels bucketed into cubes of CELL voxels, for nearest-voxel searches in scaled units. */
+	private class PointGrid {
+		final int c0 = (n0 + CELL - 1)/CELL, c1 = (n1 + CELL - 1)/CELL, c2 = (n2 + CELL - 1)/CELL;
+		/** First point of each cell, plus the total */	final int[] start = new int[c0*c1*c2 + 1];
+		/** Points, i0, i1, i2, grouped by cell */		final int[] points;
+		final float minSize = Math.min(s0, Math.min(s1, s2));
+
+		PointGrid(int[] unsorted) {
+			int n = unsorted.length/3;
+			for (int p = 0; p < n; ++p) start[cell(unsorted, p) + 1]++;
+			for (int c = 0; c < c0*c1*c2; ++c) start[c + 1] += start[c];
+			int[] next = Arrays.copyOf(start, c0*c1*c2);
+			points = new int[unsorted.length];
+			for (int p = 0; p < n; ++p) {
+				int at = 3*next[cell(unsorted, p)]++;
+				System.arraycopy(unsorted, 3*p, points, at, 3);
+			}
+		}
+
+		private int cell(int[] pts, int p) {
+			return pts[3*p]/CELL + c0*(pts[3*p+1]/CELL + c1*(pts[3*p+2]/CELL));
+		}
+
+		/** Returns the squared distance from a voxel to the nearest point, searching cells in growing shells until no
+		 * nearer point can remain. */
+		double nearest(int i0, int i1, int i2) {
+			int x = i0/CELL, y = i1/CELL, z = i2/CELL;
+			double best = Double.MAX_VALUE;
+			int maxShell = Math.max(c0, Math.max(c1, c2));
+			for (int r = 0; r <= maxShell; ++r) {
+				double reach = (r - 1)*CELL*minSize;
+				if (r > 0 && reach > 0 && best <= reach*reach) break;
+				for (int cz = Math.max(0, z - r); cz <= Math.min(c2 - 1, z + r); ++cz)
+					for (int cy = Math.max(0, y - r); cy <= Math.min(c1 - 1, y + r); ++cy)
+						for (int cx = Math.max(0, x - r); cx <= Math.min(c0 - 1, x + r); ++cx) {
+							if (Math.abs(cx - x) < r && Math.abs(cy - y) < r && Math.abs(cz - z) < r) continue;	//Inner shells were done.
+							int c = cx + c0*(cy + c1*cz);
+							for (int p = start[c]; p < start[c + 1]; ++p) {
+								float dx = (points[3*p] - i0)*s0, dy = (points[3*p+1] - i1)*s1, dz = (points[3*p+2] - i2)*s2;
+								best = Math.min(best, dx*dx + dy*dy + dz*dz);
+							}
+						}
+			}
+			return best;
+		}
+	}
+}
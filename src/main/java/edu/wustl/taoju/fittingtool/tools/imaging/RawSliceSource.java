@@ -0,0 +1,73 @@
+package app.tools.imaging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/** RawSliceSource.java
+ * <br>
+ * Reads the slices of a stack stored as one headerless volume file: count slices of width x height unsigned samples,
+ * 8 or 16 bits each, one after another in raster order, optionally after a fixed-size header. Each slice is read by
+ * mapping just its own bytes, so a volume larger than memory can still be browsed.
+ */
+public class RawSliceSource implements SliceSource {
+
+	private final File file;
+	private final int width, height, count, bytesPerSample;
+	private final ByteOrder order;
+	private final long offset;
+
+	/** Constructor.
+	 * @param file				volume file
+	 * @param width				slice width, in samples
+	 * @param height			slice height, in samples
+	 * @param count				number of slices
+	 * @param bytesPerSample	1 or 2
+	 * @param order				byte order of 16-bit samples
+	 * @param offset			bytes to skip at the start of the file
+	 */
+	public RawSliceSource(File file, int width, int height, int count, int bytesPerSample, ByteOrder order, long offset) {
+		if (bytesPerSample != 1 && bytesPerSample != 2) throw new IllegalArgumentException("bytesPerSample must be 1 or 2");
+		this.file = file;
+		this.width = width;
+		this.height = height;
+		this.count = count;
+		this.bytesPerSample = bytesPerSample;
+		this.order = order;
+		this.offset = offset;
+	}
+
+	public int getSliceCount() { return count; }
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	public int getMaxValue() { return (1 << (8*bytesPerSample)) - 1; }
+
+	public Slice readSlice(int k, int subsampling) throws IOException {
+		if (k < 0 || k >= count) throw new IOException("No slice " + k + " in " + file);
+		int w = (width + subsampling - 1) / subsampling, h = (height + subsampling - 1) / subsampling;
+		short[] values = new short[w*h];
+		int[] histogram = new int[Slice.HISTOGRAM_BINS];
+		int max = getMaxValue();
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			long size = (long) width*height*bytesPerSample;
+			ByteBuffer bytes = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, offset + k*size, size).order(order);
+			for (int y = 0; y < h; ++y) {
+				int row = y*subsampling*width;
+				for (int x = 0; x < w; ++x) {
+					int i = row + x*subsampling;
+					int v = bytesPerSample == 1 ? bytes.get(i) & 0xff : bytes.getShort(2*i) & 0xffff;
+					values[x + w*y] = (short) v;
+					histogram[Slice.bin(v, max)]++;
+				}
+			}
+		} finally {
+			raf.close();
+		}
+		return new Slice(w, h, values, max, histogram);
+	}
+}
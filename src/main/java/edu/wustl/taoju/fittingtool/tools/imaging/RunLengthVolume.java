@@ -0,0 +1,82 @@
+package app.tools.imaging;
+
+import java.util.Arrays;
+
+/** RunLengthVolume.java
+ * <br>
+ * A label volume stored as runs of equal labels, slice by slice. Label volumes of a mesh are mostly long stretches of
+ * background and of one material, so this takes a small fraction of the dense short[] size. Each slice (i2) keeps its
+ * labels in raster order, index = i0 + n0*i1, as the end of each run and the label it holds; a voxel is found by
+ * binary search over the ends.
+ * <br>
+ * Slices are set whole, and may be set from several threads as long as each slice is set by only one.
+ */
+public class RunLengthVolume {
+	/** Voxels per row, rows per slice, slices */		public final int n0, n1, n2;
+	/** One past the last voxel of each run, per slice */	private final int[][] ends;
+	/** Label of each run, per slice */						private final short[][] labels;
+
+	/** Creates a volume whose slices are all one run of the given label. */
+	public RunLengthVolume(int n0, int n1, int n2, short fill) {
+		this.n0 = n0;
+		this.n1 = n1;
+		this.n2 = n2;
+		ends = new int[n2][];
+		labels = new short[n2][];
+		for (int i2 = 0; i2 < n2; ++i2) {
+			ends[i2] = new int[] {n0*n1};
+			labels[i2] = new short[] {fill};
+		}
+	}
+
+	/** Encodes one slice.
+	 * @param i2
+	 * @param slice		n0*n1 labels, in raster order
+	 */
+	public void setSlice(int i2, short[] slice) {
+		int runs = 0;
+		for (int i = 0; i < slice.length; ++i)
+			if (i == 0 || slice[i] != slice[i-1]) runs++;
+		int[] e = new int[runs];
+		short[] l = new short[runs];
+		int r = -1;
+		for (int i = 0; i < slice.length; ++i) {
+			if (i == 0 || slice[i] != slice[i-1]) l[++r] = slice[i];
+			e[r] = i + 1;
+		}
+		ends[i2] = e;
+		labels[i2] = l;
+	}
+
+	/** Decodes one slice into an array of n0*n1 labels, which is returned. */
+	public short[] getSlice(int i2, short[] out) {
+		int[] e = ends[i2];
+		short[] l = labels[i2];
+		int start = 0;
+		for (int r = 0; r < e.length; ++r) {
+			Arrays.fill(out, start, e[r], l[r]);
+			start = e[r];
+		}
+		return out;
+	}
+
+	public short get(int i0, int i1, int i2) {
+		int r = Arrays.binarySearch(ends[i2], i0 + n0*i1 + 1);
+		return labels[i2][(r < 0) ? -r - 1 : r];
+	}
+
+	/** Number of runs in a slice */
+	public int getRunCount(int i2) { return ends[i2].length; }
+
+	/** Counts the voxels holding a label. */
+	public long count(short label) {
+		long total = 0;
+		for (int i2 = 0; i2 < n2; ++i2) {
+			int[] e = ends[i2];
+			short[] l = labels[i2];
+			for (int r = 0; r < e.length; ++r)
+				if (l[r] == label) total += e[r] - ((r == 0) ? 0 : e[r-1]);
+		}
+		return total;
+	}
+}
@@ -0,0 +1,106 @@
+package app.tools.imaging;
+
+/** Slice.java
+ * <br>
+ * One grayscale slice of an image stack, as unsigned intensities in a short[] (so up to 16 bits per pixel). Pixels are
+ * in raster order: index = x + width*y, with y = 0 the top row.
+ * <br>
+ * A slice also carries a histogram of its intensities in HISTOGRAM_BINS equal bins over 0..maxValue. Sources fill it
+ * while they convert the decoded pixels, so it costs no extra pass; a resampled slice keeps the histogram of the
+ * pixels it was resampled from.
+ */
+public class Slice {
+	/** Number of histogram bins */	public static final int HISTOGRAM_BINS = 256;
+
+	private final int width, height, maxValue;
+	private final short[] values;
+	private int[] histogram;
+
+	/** Constructor. The histogram is counted when first asked for. */
+	public Slice(int width, int height, short[] values, int maxValue) {
+		this(width, height, values, maxValue, null);
+	}
+
+	/** Constructor.
+	 * @param width
+	 * @param height
+	 * @param values		unsigned intensities, in raster order
+	 * @param maxValue	largest intensity the source can hold
+	 * @param histogram	counts per bin (see bin()), or null to count them when first asked for
+	 */
+	public Slice(int width, int height, short[] values, int maxValue, int[] histogram) {
+		this.width = width;
+		this.height = height;
+		this.values = values;
+		this.maxValue = maxValue;
+		this.histogram = histogram;
+	}
+
+	public int getWidth() { return width; }
+	public int getHeight() { return height; }
+	public int getMaxValue() { return maxValue; }
+	/** Returns the backing array; values are unsigned, so read them with & 0xffff. */
+	public short[] getValues() { return values; }
+
+	/** Returns the histogram bin of an intensity in 0..maxValue. */
+	public static int bin(int value, int maxValue) {
+		return (int) ((long) value * HISTOGRAM_BINS / (maxValue + 1L));
+	}
+
+	/** Returns the lowest intensity that falls in a bin. */
+	public static int binStart(int bin, int maxValue) {
+		return (int) ((bin * (maxValue + 1L) + HISTOGRAM_BINS - 1) / HISTOGRAM_BINS);
+	}
+
+	/** Returns the intensity counts, HISTOGRAM_BINS bins over 0..maxValue. */
+	public synchronized int[] getHistogram() {
+		if (histogram == null) {
+			int[] counts = new int[HISTOGRAM_BINS];
+			for (short v : values) counts[bin(v & 0xffff, maxValue)]++;
+			histogram = counts;
+		}
+		return histogram;
+	}
+
+	public int get(int x, int y) {
+		return values[x + width*y] & 0xffff;
+	}
+
+	/** Returns this slice resampled to the given size by bilinear interpolation between pixel centres. The histogram is
+	 * that of this slice. */
+	public Slice resample(int w, int h) {
+		if (w == width && h == height) return this;
+		short[] out = new short[w*h];
+		float fx = width / (float) w, fy = height / (float) h;
+		for (int y = 0; y < h; ++y) {
+			float sy = Math.max(0f, Math.min(height - 1, (y + 0.5f)*fy - 0.5f));
+			int y0 = (int) sy, y1 = Math.min(y0 + 1, height - 1);
+			float ty = sy - y0;
+			for (int x = 0; x < w; ++x) {
+				float sx = Math.max(0f, Math.min(width - 1, (x + 0.5f)*fx - 0.5f));
+				int x0 = (int) sx, x1 = Math.min(x0 + 1, width - 1);
+				float tx = sx - x0;
+				float top = get(x0, y0) + tx*(get(x1, y0) - get(x0, y0));
+				float bottom = get(x0, y1) + tx*(get(x1, y1) - get(x0, y1));
+				out[x + w*y] = (short) (int) (top + ty*(bottom - top) + 0.5f);
+			}
+		}
+		return new Slice(w, h, out, maxValue, getHistogram());
+	}
+
+	/** Returns a 0/1 mask of the foreground, in the same raster order.
+	 *
+	 * @param threshold			in intensity units
+	 * @param darkForeground	true if the foreground is below the threshold (stained tissue on a bright background),
+	 * 								false if it is above it (fluorescence)
+	 * @return mask
+	 */
+	public int[] threshold(double threshold, boolean darkForeground) {
+		int[] mask = new int[values.length];
+		for (int i = 0; i < values.length; ++i) {
+			int v = values[i] & 0xffff;
+			mask[i] = (darkForeground ? v < threshold : v > threshold) ? 1 : 0;
+		}
+		return mask;
+	}
+}
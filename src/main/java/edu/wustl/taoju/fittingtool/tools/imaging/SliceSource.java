@@ -0,0 +1,32 @@
+package app.tools.imaging;
+
+import java.io.IOException;
+
+/** SliceSource.java
+ * <br>
+ * Supplies the slices of an image stack as grayscale intensities, whatever their file format or bit depth.
+ */
+public interface SliceSource {
+
+	/** Number of slices in the stack */
+	public int getSliceCount();
+
+	/** Full-resolution width of a slice, in pixels */
+	public int getWidth();
+
+	/** Full-resolution height of a slice, in pixels */
+	public int getHeight();
+
+	/** Largest intensity the source can hold: 255 for 8-bit data, 65535 for 16-bit */
+	public int getMaxValue();
+
+	/** Reads one slice, keeping every subsampling-th pixel in each direction, so the result is
+	 * ceil(width/subsampling) x ceil(height/subsampling).
+	 *
+	 * @param k				slice number, from 0
+	 * @param subsampling	1 for full resolution
+	 * @return slice
+	 * @throws IOException
+	 */
+	public Slice readSlice(int k, int subsampling) throws IOException;
+}
@@ -0,0 +1,192 @@
+package app.tools.imaging;
+
+import java.util.Arrays;
+
+/** SurfaceExtractor.java
+ * <br>
+ * Marching-cubes extraction of the boundary of a binary volume, sampled into evenly spread surface points. Each cube
+ * of eight neighbouring voxels is split into six tetrahedra around its main diagonal and each tetrahedron is
+ * triangulated on its own, which needs no case table and never leaves holes between cubes. Triangles are not kept:
+ * their area is accumulated as the cells are visited and a sample is dropped every areaPerSample units, so memory
+ * does not grow with the size of the surface.
+ * <br>
+ * The volume is a stack of slices (index i2), each addressed as i0 + n0*i1. Cells are independent, so a range of
+ * slices (a slab) can be processed by each worker thread; the results depend only on the slab boundaries.
+ */
+public class SurfaceExtractor {
+
+	/** Tetrahedra sharing the diagonal from corner 0 to corner 7. Corner k sits at (k & 1, (k >> 1) & 1, k >> 2). */
+	private static final int[][] TETRAHEDRA = {
+		{0,1,3,7}, {0,3,2,7}, {0,2,6,7}, {0,6,4,7}, {0,4,5,7}, {0,5,1,7}
+	};
+	/** Sobel smoothing weights, for normals */
+	private static final int[] SOBEL = {1, 2, 1};
+
+	private final BitMask[] stack;
+	private final int n0, n1, n2;
+	private final float s0, s1, s2;
+	private final float areaPerSample;
+
+	/** Per-slab working state */
+	private float[] points, normals;
+	private int size;
+	private float accumulated;
+
+	private SurfaceExtractor(BitMask[] stack, float s0, float s1, float s2, float areaPerSample) {
+		this.stack = stack;
+		this.n0 = stack[0].n0;
+		this.n1 = stack[0].n1;
+		this.n2 = stack.length;
+		this.s0 = s0;
+		this.s1 = s1;
+		this.s2 = s2;
+		this.areaPerSample = areaPerSample;
+	}
+
+	/** Samples the part of the surface between slices from and to (exclusive), which may be run concurrently with
+	 * other ranges of the same stack. Cells span slices i2 and i2+1, so the last useful range ends at n2 - 1.
+	 *
+	 * @param stack			binary volume; slices must all have the same size
+	 * @param from			first slice of cells
+	 * @param to				end of the slab, at most stack.length - 1
+	 * @param s0				voxel size along i0
+	 * @param s1				voxel size along i1
+	 * @param s2				voxel size along i2 (slice spacing)
+	 * @param areaPerSample	surface area, in scaled units, per sample point
+	 * @return samples, in scaled grid coordinates
+	 */
+	public static SurfaceSamples sample(BitMask[] stack, int from, int to, float s0, float s1, float s2, float areaPerSample) {
+		SurfaceExtractor extractor = new SurfaceExtractor(stack, s0, s1, s2, areaPerSample);
+		extractor.march(from, Math.min(to, stack.length - 1));
+		return new SurfaceSamples(extractor.points, extractor.normals, extractor.size);
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			MARCHING
+	//
+	//******************************************************************************************************************************
+
+	private void march(int from, int to) {
+		points = new float[3*64];
+		normals = new float[3*64];
+		size = 0;
+		accumulated = areaPerSample / 2f;											//First sample half a step in.
+
+		boolean[] inside = new boolean[8];
+		float[][] corners = new float[8][3];
+		for (int i2 = from; i2 < to; ++i2) {
+			for (int i1 = 0; i1 < n1 - 1; ++i1) {
+				for (int i0 = 0; i0 < n0 - 1; ++i0) {
+					int count = 0;
+					for (int k = 0; k < 8; ++k) {
+						inside[k] = stack[i2 + (k >> 2)].get(i0 + (k & 1), i1 + ((k >> 1) & 1));
+						if (inside[k]) count++;
+					}
+					if (count == 0 || count == 8) continue;
+					for (int k = 0; k < 8; ++k) {
+						corners[k][0] = (i0 + (k & 1)) * s0;
+						corners[k][1] = (i1 + ((k >> 1) & 1)) * s1;
+						corners[k][2] = (i2 + (k >> 2)) * s2;
+					}
+					for (int[] tet : TETRAHEDRA) polygonise(tet, inside, corners);
+				}
+			}
+		}
+	}
+
+	/** Emits the one or two triangles where the surface crosses a tetrahedron. Crossings are edge midpoints, which
+	 * is where the 0.5 iso-level falls between a 0 and a 1 voxel. */
+	private void polygonise(int[] tet, boolean[] inside, float[][] corners) {
+		int[] in = new int[4], out = new int[4];
+		int nIn = 0, nOut = 0;
+		for (int v : tet) {
+			if (inside[v]) in[nIn++] = v; else out[nOut++] = v;
+		}
+		if (nIn == 0 || nOut == 0) return;
+
+		float[] direction = new float[3];												//From the inside corners towards the outside ones
+		for (int c = 0; c < 3; ++c) {
+			float a = 0f, b = 0f;
+			for (int i = 0; i < nIn; ++i) a += corners[in[i]][c];
+			for (int i = 0; i < nOut; ++i) b += corners[out[i]][c];
+			direction[c] = b / nOut - a / nIn;
+		}
+
+		if (nIn == 1)
+			triangle(mid(corners, in[0], out[0]), mid(corners, in[0], out[1]), mid(corners, in[0], out[2]), direction);
+		else if (nOut == 1)
+			triangle(mid(corners, out[0], in[0]), mid(corners, out[0], in[1]), mid(corners, out[0], in[2]), direction);
+		else {
+			float[] ac = mid(corners, in[0], out[0]), ad = mid(corners, in[0], out[1]);
+			float[] bd = mid(corners, in[1], out[1]), bc = mid(corners, in[1], out[0]);
+			triangle(ac, ad, bd, direction);
+			triangle(ac, bd, bc, direction);
+		}
+	}
+
+	private static float[] mid(float[][] corners, int a, int b) {
+		return new float[] {
+				(corners[a][0] + corners[b][0]) / 2f,
+				(corners[a][1] + corners[b][1]) / 2f,
+				(corners[a][2] + corners[b][2]) / 2f };
+	}
+
+	/** Accumulates the area of a triangle and drops a sample at its centroid whenever another areaPerSample has been
+	 * covered. */
+	private void triangle(float[] a, float[] b, float[] c, float[] direction) {
+		float ux = b[0]-a[0], uy = b[1]-a[1], uz = b[2]-a[2];
+		float vx = c[0]-a[0], vy = c[1]-a[1], vz = c[2]-a[2];
+		float nx = uy*vz - uz*vy, ny = uz*vx - ux*vz, nz = ux*vy - uy*vx;
+		float twiceArea = (float) Math.sqrt(nx*nx + ny*ny + nz*nz);
+		if (twiceArea == 0f) return;
+
+		accumulated += twiceArea / 2f;
+		if (accumulated < areaPerSample) return;
+		accumulated -= areaPerSample;
+
+		float x = (a[0]+b[0]+c[0]) / 3f, y = (a[1]+b[1]+c[1]) / 3f, z = (a[2]+b[2]+c[2]) / 3f;
+		float[] n = gradientNormal(x, y, z);
+		if (n == null) {																	//Too thin for a gradient; use the facet.
+			float sign = (nx*direction[0] + ny*direction[1] + nz*direction[2]) < 0f ? -1f : 1f;
+			n = new float[] { sign*nx/twiceArea, sign*ny/twiceArea, sign*nz/twiceArea };
+		}
+		add(x, y, z, n);
+	}
+
+	/** Returns the outward unit normal at a point from the Sobel gradient of the voxel nearest to it, or null where
+	 * the gradient vanishes. Voxels outside the volume repeat the nearest edge voxel. */
+	private float[] gradientNormal(float x, float y, float z) {
+		int c0 = Math.round(x / s0), c1 = Math.round(y / s1), c2 = Math.round(z / s2);
+		float g0 = 0f, g1 = 0f, g2 = 0f;
+		for (int a = -1; a <= 1; ++a) {
+			for (int b = -1; b <= 1; ++b) {
+				int w = SOBEL[a+1] * SOBEL[b+1];
+				g0 += w * (voxel(c0+1, c1+a, c2+b) - voxel(c0-1, c1+a, c2+b));
+				g1 += w * (voxel(c0+a, c1+1, c2+b) - voxel(c0+a, c1-1, c2+b));
+				g2 += w * (voxel(c0+a, c1+b, c2+1) - voxel(c0+a, c1+b, c2-1));
+			}
+		}
+		g0 /= -s0; g1 /= -s1; g2 /= -s2;													//Outward is down the gradient.
+		float length = (float) Math.sqrt(g0*g0 + g1*g1 + g2*g2);
+		if (length == 0f) return null;
+		return new float[] { g0/length, g1/length, g2/length };
+	}
+
+	private int voxel(int i0, int i1, int i2) {
+		i0 = Math.max(0, Math.min(n0 - 1, i0));
+		i1 = Math.max(0, Math.min(n1 - 1, i1));
+		i2 = Math.max(0, Math.min(n2 - 1, i2));
+		return stack[i2].get(i0, i1) ? 1 : 0;
+	}
+
+	private void add(float x, float y, float z, float[] n) {
+		if (3*size + 3 > points.length) {
+			points = Arrays.copyOf(points, points.length*2);
+			normals = Arrays.copyOf(normals, normals.length*2);
+		}
+		points[3*size] = x;  points[3*size+1] = y;  points[3*size+2] = z;
+		normals[3*size] = n[0];  normals[3*size+1] = n[1];  normals[3*size+2] = n[2];
+		size++;
+	}
+}
@@ -0,0 +1,26 @@
+package app.tools.imaging;
+
+/** SurfaceSamples.java
+ * <br>
+ * Points scattered over an iso-surface, as produced by {@link SurfaceExtractor}, each with a unit outward normal.
+ * Coordinates are grid indices scaled by the voxel size, so (0,0,0) is the centre of the first voxel.
+ */
+public class SurfaceSamples {
+	/** Interleaved x,y,z coordinates */			private final float[] points;
+	/** Interleaved unit outward normals */	private final float[] normals;
+	private final int size;
+
+	SurfaceSamples(float[] points, float[] normals, int size) {
+		this.points = points;
+		this.normals = normals;
+		this.size = size;
+	}
+
+	public int size() { return size; }
+	public float getX(int i) { return points[3*i]; }
+	public float getY(int i) { return points[3*i+1]; }
+	public float getZ(int i) { return points[3*i+2]; }
+	public float getNormalX(int i) { return normals[3*i]; }
+	public float getNormalY(int i) { return normals[3*i+1]; }
+	public float getNormalZ(int i) { return normals[3*i+2]; }
+}
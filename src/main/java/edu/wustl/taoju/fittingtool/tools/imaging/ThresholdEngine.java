@@ -0,0 +1,78 @@
+package app.tools.imaging;
+
+import java.util.Arrays;
+
+/** ThresholdEngine.java
+ * <br>
+ * Chooses foreground thresholds from slice histograms. Each slice gets Otsu's threshold, the split of its histogram
+ * into two classes with the largest between-class variance; the per-slice values are then smoothed through the stack
+ * with a running median, so that a slice with little tissue (whose histogram barely has a second class) follows its
+ * neighbours instead of jumping.
+ * <br>
+ * Thresholds are in intensity units and lie halfway between two integers, so "value &lt; t" and "value &gt; t" split
+ * the intensities into exactly the two classes whichever side is the foreground.
+ */
+public class ThresholdEngine {
+
+	/** Returns Otsu's threshold for a histogram of Slice.HISTOGRAM_BINS bins over 0..maxValue, or NaN if fewer than two
+	 * bins are occupied (a blank slice has no threshold).
+	 *
+	 * @param histogram
+	 * @param maxValue
+	 * @return threshold
+	 */
+	public static double otsu(int[] histogram, int maxValue) {
+		long total = 0;
+		double sum = 0;
+		int occupied = 0;
+		for (int b = 0; b < histogram.length; ++b) {
+			total += histogram[b];
+			sum += (double) b * histogram[b];
+			if (histogram[b] > 0) ++occupied;
+		}
+		if (occupied < 2) return Double.NaN;
+
+		long below = 0;
+		double sumBelow = 0, bestVariance = -1;
+		int best = 0;
+		for (int b = 0; b < histogram.length - 1; ++b) {
+			below += histogram[b];
+			sumBelow += (double) b * histogram[b];
+			if (below == 0) continue;
+			long above = total - below;
+			if (above == 0) break;
+			double diff = sumBelow/below - (sum - sumBelow)/above;
+			double variance = (double) below * above * diff * diff;
+			if (variance > bestVariance) {
+				bestVariance = variance;
+				best = b;
+			}
+		}
+		return Slice.binStart(best + 1, maxValue) - 0.5;
+	}
+
+	/** Returns the thresholds smoothed with a running median over the slices up to radius away. NaN entries (slices
+	 * without a threshold) are left out of every median, and take the median of their neighbours; an entry stays NaN
+	 * only if its whole window is.
+	 *
+	 * @param thresholds	per slice, in stack order
+	 * @param radius
+	 * @return smoothed copy
+	 */
+	public static double[] smooth(double[] thresholds, int radius) {
+		double[] smoothed = new double[thresholds.length];
+		double[] window = new double[2*radius + 1];
+		for (int k = 0; k < thresholds.length; ++k) {
+			int n = 0;
+			for (int j = Math.max(0, k - radius); j <= Math.min(thresholds.length - 1, k + radius); ++j)
+				if (!Double.isNaN(thresholds[j])) window[n++] = thresholds[j];
+			if (n == 0) {
+				smoothed[k] = Double.NaN;
+				continue;
+			}
+			Arrays.sort(window, 0, n);
+			smoothed[k] = n % 2 == 1 ? window[n/2] : Math.floor((window[n/2 - 1] + window[n/2]) / 2) + 0.5;
+		}
+		return smoothed;
+	}
+}
@@ -0,0 +1,52 @@
+package app.tools.imaging;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/** Windowing.java
+ * <br>
+ * Maps intensities to display gray levels with a window/level: intensities from level - window/2 to level + window/2
+ * are spread over black to white, and everything outside is clamped. Used to show high-bit-depth slices, whose
+ * interesting range is usually a small part of 0..65535.
+ */
+public class Windowing {
+	private final float level, window;
+	/** Gray level of every 16-bit intensity */	private final int[] lut = new int[65536];
+
+	/** Constructor.
+	 * @param level		intensity shown as mid-gray
+	 * @param window	width of the intensity range spread over the gray levels
+	 */
+	public Windowing(float level, float window) {
+		this.level = level;
+		this.window = Math.max(1f, window);
+		float min = level - this.window/2f;
+		for (int v = 0; v < lut.length; ++v)
+			lut[v] = Math.max(0, Math.min(255, Math.round((v - min) * 255f / this.window)));
+	}
+
+	/** Returns the windowing that shows 0..maxValue as black to white. */
+	public static Windowing fullRange(int maxValue) {
+		return new Windowing(maxValue/2f, maxValue);
+	}
+
+	public float getLevel() { return level; }
+	public float getWindow() { return window; }
+
+	/** Returns the gray level, 0..255, of an intensity. */
+	public int toGray(int value) {
+		return lut[value & 0xffff];
+	}
+
+	/** Renders a slice as an opaque gray TYPE_INT_ARGB image. */
+	public BufferedImage toImage(Slice slice) {
+		BufferedImage image = new BufferedImage(slice.getWidth(), slice.getHeight(), BufferedImage.TYPE_INT_ARGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		short[] values = slice.getValues();
+		for (int i = 0; i < values.length; ++i) {
+			int g = lut[values[i] & 0xffff];
+			pixels[i] = 0xff000000 | (g << 16) | (g << 8) | g;
+		}
+		return image;
+	}
+}
@@ -23,7 +23,12 @@ public class Mesh {
 	private Geometry geometry;
 
 	private Vertex centroid;
-	private boolean[] newSelections;
+	/** Selected polyhedra, with the changes each view has yet to draw */
+	private Selection selection;
+	/** Bounding volume hierarchy over the polyhedra; built on first use */
+	private PolyhedronBVH bvh;
+	/** Bumped whenever vertices move or the topology changes */
+	private int geometryVersion;
 	private int subDivLevel;
 
 	public static final int VIEW_ID_1 = 0, VIEW_ID_2 = 1;
@@ -53,7 +58,13 @@ public class Mesh {
 		centroid.setY(centroid.getY()/geometry.size());
 		centroid.setZ(centroid.getZ()/geometry.size());
 
-		newSelections = new boolean [] {false, false};
+		resetSelection();
+	}
+
+	/** Rebuilds the selection from the polyhedra, for a new topology; both views redraw all of it. */
+	private void resetSelection() {
+		selection = new Selection(topology.getPolyhedra().size(), 2);
+		selection.sync(topology.getPolyhedra());
 	}
 	
 	//******************************************************************************************************************************
@@ -88,16 +99,47 @@ public class Mesh {
 		return partitionIDsArray;
 	}
 
-	public boolean hasNewSelections(int viewIndex) { return newSelections[viewIndex]; }
+	public Selection getSelection() { return selection; }
+
+	/** Returns the bounding volume hierarchy over the polyhedra, building it if the topology is new. */
+	public PolyhedronBVH getBVH() {
+		if (bvh == null) bvh = new PolyhedronBVH(topology.getPolyhedra(), geometry);
+		return bvh;
+	}
+
+	/** Call after moving vertices without changing the topology. The hierarchy's boxes are refitted rather than
+	 * the whole tree rebuilt. */
+	public void geometryChanged() {
+		if (bvh != null) bvh.refit();
+		geometryVersion++;
+	}
+
+	/** Returns a number that changes whenever vertices move or the topology changes, so structures derived from the
+	 * positions can tell when they are stale. */
+	public int getGeometryVersion() { return geometryVersion; }
+
+	/** Selects or deselects the index-th polyhedron, recording the change so views redraw only what changed.
+	 * @param index
+	 * @param isSelected
+	 * @param selectionExpr
+	 */
+	public void setSelected(int index, boolean isSelected, short selectionExpr) {
+		topology.getPolyhedra().get(index).setSelected(isSelected, selectionExpr);
+		selection.set(index, isSelected);
+	}
+
+	public boolean hasNewSelections(int viewIndex) { return selection.hasChanges(viewIndex); }
 
+	/** Marks everything as changed for a view, or forgets the changes it has not drawn. */
 	public void setNewSelections(int viewIndex, boolean newSelections) { 
-		this.newSelections[viewIndex] = newSelections;
+		if (newSelections) selection.markAllChanged(viewIndex);
+		else selection.clearChanges(viewIndex);
 	}
 
-	/** Method to alert BOTH views that there are new selections. */
+	/** Method to alert BOTH views that there are new selections. Picks up polyhedra selected directly through
+	 * Polyhedron.setSelected(); only those whose state differs are recorded as changed. */
 	public void pushNewSelections() {
-		setNewSelections(0, true);							
-		setNewSelections(1, true);
+		selection.sync(topology.getPolyhedra());
 	}
 
 	//******************************************************************************************************************************
@@ -175,6 +217,9 @@ public class Mesh {
 		linearSubdivision();
 		smoothing();
 		subDivLevel++;
+		resetSelection();
+		bvh = null;
+		geometryVersion++;
 	}
 
 	/** Splits each element of the mesh:
@@ -444,6 +489,7 @@ public class Mesh {
 		for (int i = 0; i < geometry.size(); ++i) {
 			geometry.set(i,geometry.get(i).plus(centerL.minus(centerM)));
 		}
+		geometryChanged();
 		
 		// TODO: for now just align centroids
 		if (true) return;
@@ -515,7 +561,7 @@ public class Mesh {
 			Vertex result = centerL.plus(v);
 			geometry.set(i,result);
 		}
-		
+		geometryChanged();
 	}
 	
 //	public void icpAlignToLandmarks(List<Landmark> landmarks) {
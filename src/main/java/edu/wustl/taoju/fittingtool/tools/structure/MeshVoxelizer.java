@@ -0,0 +1,280 @@
+package app.tools.structure;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import app.tools.imaging.RunLengthVolume;
+import app.tools.math.Vertex;
+import app.tools.topology.Polyhedron;
+
+/** MeshVoxelizer.java
+ * <br>
+ * Converts the mesh into a label volume: every voxel whose centre lies in a polyhedron takes that polyhedron's
+ * material, and the rest take BACKGROUND. The volume is made in slabs of SLAB slices, each rasterized on its own
+ * worker thread. Only a few slabs are in memory at a time, and they are handed to a Sink in order, so a mesh of
+ * 10^7 polyhedra can be voxelized at a resolution whose dense volume would not fit.
+ * <br>
+ * The polyhedra are bucketed once by the slabs their z-range overlaps. Within a slab, each polyhedron only visits
+ * the voxels of its bounding box. Each voxel is tested against the face planes of the polyhedron, and an octahedron
+ * is tested as four tetrahedra around its 0-5 diagonal.
+ * <br>
+ * Voxels are placed as in LabelSlicer: voxel (i0, i1, i2) has its centre at x = minX + (i0+0.5)*sx,
+ * y = maxY - (i1+0.5)*sy, z = minZ + i2*sz, and each slice is in raster order with i1 = 0 the top row, so a voxelized
+ * slice lines up with the sliced label image and with the image stack.
+ * <br>
+ * A voxel centre on a face is given out by LabelSlicer's half-open rule: it belongs to the side the face looks away
+ * from along -x, or along +y if the face is parallel to x. A face parallel to the slices goes to the later
+ * polyhedron, as LabelSlicer overwrites it. Each face plane is computed from its vertices in index order, so both
+ * elements sharing a face see the same plane and the centre falls to exactly one of them. The two paths still round
+ * differently, so a centre within rounding of a face may be labelled differently by each.
+ */
+public class MeshVoxelizer {
+
+	/** Label of voxels outside the mesh */							public static final short BACKGROUND = -1;
+	/** Slices per task */												private static final int SLAB = 8;
+	/** Floats per tetrahedron face: a vertex, the inward normal, and whether the face keeps centres on it */
+	private static final int FACE = 7;
+	private static final int THREADS = Runtime.getRuntime().availableProcessors();
+
+	/** Tetrahedra of an octahedron, around the diagonal from vertex 0 to vertex 5 */
+	private static final int[][] OCTAHEDRON_TETS = { {0,5,1,2}, {0,5,2,4}, {0,5,4,3}, {0,5,3,1} };
+	private static final int[][] TETRAHEDRON_TETS = { {0,1,2,3} };
+
+	/** Receives the slices of the volume in order. */
+	public interface Sink {
+		/** @param i2		slice number
+		 *  @param labels	n0*n1 labels in raster order; only valid during the call */
+		public void slice(int i2, short[] labels) throws IOException;
+	}
+
+	private final List<Polyhedron> polys;
+	private final Geometry g;
+	/** Voxels per row, rows per slice, slices */		private final int n0, n1, n2;
+	private final float minX, maxY, minZ;
+	/** Voxel size */										private final float sx, sy, sz;
+
+	/** Constructor.
+	 * @param mesh
+	 * @param n0		voxels along x
+	 * @param n1		voxels along y
+	 * @param n2		slices along z
+	 * @param minX
+	 * @param maxX
+	 * @param minY
+	 * @param maxY
+	 * @param minZ
+	 * @param maxZ
+	 */
+	public MeshVoxelizer(Mesh mesh, int n0, int n1, int n2,
+			float minX, float maxX, float minY, float maxY, float minZ, float maxZ) {
+		this.polys = mesh.getTopology().getPolyhedra();
+		this.g = mesh.getGeometry();
+		this.n0 = n0;
+		this.n1 = n1;
+		this.n2 = n2;
+		this.minX = minX;
+		this.maxY = maxY;
+		this.minZ = minZ;
+		sx = (maxX - minX)/n0;
+		sy = (maxY - minY)/n1;
+		sz = (maxZ - minZ)/n2;
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			OUTPUT
+	//
+	//******************************************************************************************************************************
+
+	/** Returns the whole volume as one array, index = i0 + n0*(i1 + n1*i2). Only for volumes that fit in memory. */
+	public short[] toDense() throws IOException, InterruptedException, ExecutionException {
+		final short[] volume = new short[n0*n1*n2];
+		voxelize(new Sink() {
+			public void slice(int i2, short[] labels) {
+				System.arraycopy(labels, 0, volume, i2*n0*n1, n0*n1);
+			}
+		});
+		return volume;
+	}
+
+	/** Returns the volume run-length encoded; only one slab at a time is held uncompressed. */
+	public RunLengthVolume toRunLength() throws IOException, InterruptedException, ExecutionException {
+		final RunLengthVolume volume = new RunLengthVolume(n0, n1, n2, BACKGROUND);
+		voxelize(new Sink() {
+			public void slice(int i2, short[] labels) {
+				volume.setSlice(i2, labels);
+			}
+		});
+		return volume;
+	}
+
+	/** Voxelizes the mesh, handing each slice to the sink in order on the calling thread. At most THREADS + 1 slabs
+	 * are held at a time.
+	 * @param sink
+	 * @throws IOException				from the sink
+	 * @throws InterruptedException
+	 * @throws ExecutionException		if a slab could not be rasterized
+	 */
+	public void voxelize(Sink sink) throws IOException, InterruptedException, ExecutionException {
+		int slabs = (n2 + SLAB - 1)/SLAB;
+		final int[] start = new int[slabs + 1];
+		final int[] bucketed = bucket(slabs, start);
+
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "MeshVoxelizer slab");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			ArrayDeque<Future<short[]>> inFlight = new ArrayDeque<Future<short[]>>();
+			short[] slice = new short[n0*n1];
+			int submitted = 0;
+			for (int s = 0; s < slabs; ++s) {
+				while (submitted < slabs && inFlight.size() <= THREADS) {
+					final int slab = submitted++;
+					inFlight.add(pool.submit(new Callable<short[]>() {
+						public short[] call() {
+							return rasterize(slab, bucketed, start[slab], start[slab + 1]);
+						}
+					}));
+				}
+				short[] labels = inFlight.poll().get();
+				for (int i2 = s*SLAB; i2 < Math.min(n2, (s + 1)*SLAB); ++i2) {
+					System.arraycopy(labels, (i2 - s*SLAB)*n0*n1, slice, 0, n0*n1);
+					sink.slice(i2, slice);
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			RASTERIZATION
+	//
+	//******************************************************************************************************************************
+
+	/** Lists the polyhedra overlapping each slab: those of slab s are bucketed[start[s]] to bucketed[start[s+1]-1].
+	 * A polyhedron spanning several slabs is listed in each. */
+	private int[] bucket(int slabs, int[] start) {
+		int[] range = new int[2];
+		for (int j = 0; j < polys.size(); ++j)
+			if (getSlices(j, range))
+				for (int s = range[0]/SLAB; s <= range[1]/SLAB; ++s) start[s + 1]++;
+		for (int s = 0; s < slabs; ++s) start[s + 1] += start[s];
+
+		int[] bucketed = new int[start[slabs]];
+		int[] next = Arrays.copyOf(start, slabs);
+		for (int j = 0; j < polys.size(); ++j)
+			if (getSlices(j, range))
+				for (int s = range[0]/SLAB; s <= range[1]/SLAB; ++s) bucketed[next[s]++] = j;
+		return bucketed;
+	}
+
+	/** Finds the first and last slices a polyhedron's z-range covers; returns false if it covers none. */
+	private boolean getSlices(int j, int[] range) {
+		float lo = Float.MAX_VALUE, hi = -Float.MAX_VALUE;
+		for (int v : polys.get(j).getVertices()) {
+			float z = g.get(v).getZ();
+			lo = Math.min(lo, z);
+			hi = Math.max(hi, z);
+		}
+		range[0] = Math.max(0, (int) Math.ceil((lo - minZ)/sz));
+		range[1] = Math.min(n2 - 1, (int) Math.floor((hi - minZ)/sz));
+		return range[0] <= range[1];
+	}
+
+	/** Rasterizes the polyhedra bucketed[from, to) into one slab. Polyhedra are in increasing order, so a later one
+	 * overwrites voxels on a face parallel to the slices, as in LabelSlicer. */
+	private short[] rasterize(int slab, int[] bucketed, int from, int to) {
+		int z0 = slab*SLAB, z1 = Math.min(n2, z0 + SLAB) - 1;
+		short[] labels = new short[(z1 - z0 + 1)*n0*n1];
+		Arrays.fill(labels, BACKGROUND);
+		float[] x = new float[6], y = new float[6], z = new float[6];
+		float[] planes = new float[4*4*FACE];
+		for (int b = from; b < to; ++b) {
+			Polyhedron poly = polys.get(bucketed[b]);
+			int[] verts = poly.getVertices();
+			int[][] tets = (verts.length == 6) ? OCTAHEDRON_TETS : TETRAHEDRON_TETS;
+			float loX = Float.MAX_VALUE, hiX = -Float.MAX_VALUE, loY = Float.MAX_VALUE, hiY = -Float.MAX_VALUE, loZ = Float.MAX_VALUE, hiZ = -Float.MAX_VALUE;
+			for (int k = 0; k < verts.length; ++k) {
+				Vertex v = g.get(verts[k]);
+				x[k] = v.getX(); y[k] = v.getY(); z[k] = v.getZ();
+				loX = Math.min(loX, x[k]); hiX = Math.max(hiX, x[k]);
+				loY = Math.min(loY, y[k]); hiY = Math.max(hiY, y[k]);
+				loZ = Math.min(loZ, z[k]); hiZ = Math.max(hiZ, z[k]);
+			}
+			int tetCount = 0;
+			for (int[] tet : tets)
+				if (getPlanes(tet, verts, x, y, z, planes, 4*FACE*tetCount)) tetCount++;
+			if (tetCount == 0) continue;
+
+			int i0a = Math.max(0, (int) Math.ceil((loX - minX)/sx - 0.5f)), i0b = Math.min(n0 - 1, (int) Math.floor((hiX - minX)/sx - 0.5f));
+			int i1a = Math.max(0, (int) Math.ceil((maxY - hiY)/sy - 0.5f)), i1b = Math.min(n1 - 1, (int) Math.floor((maxY - loY)/sy - 0.5f));
+			int i2a = Math.max(z0, (int) Math.ceil((loZ - minZ)/sz)), i2b = Math.min(z1, (int) Math.floor((hiZ - minZ)/sz));
+			short material = (short) poly.getMaterial();
+			for (int i2 = i2a; i2 <= i2b; ++i2) {
+				float qz = minZ + i2*sz;
+				for (int i1 = i1a; i1 <= i1b; ++i1) {
+					float qy = maxY - (i1 + 0.5f)*sy;
+					int row = ((i2 - z0)*n1 + i1)*n0;
+					for (int i0 = i0a; i0 <= i0b; ++i0) {
+						float qx = minX + (i0 + 0.5f)*sx;
+						for (int t = 0; t < tetCount; ++t) {
+							if (!inside(planes, 4*FACE*t, qx, qy, qz)) continue;
+							labels[row + i0] = material;
+							break;
+						}
+					}
+				}
+			}
+		}
+		return labels;
+	}
+
+	/** Stores the four face planes of a tetrahedron, each as a vertex, its inward normal, and 1 if centres on the face
+	 * are inside. The normal comes from the face's vertices in increasing index order, so the tetrahedron across the
+	 * face gets exactly its negation. Returns false for a flat tetrahedron.
+	 * @param tet		corners of the tetrahedron, as positions in verts
+	 * @param verts		mesh vertex of each corner, for the order
+	 */
+	private static boolean getPlanes(int[] tet, int[] verts, float[] x, float[] y, float[] z, float[] out, int at) {
+		int[] face = new int[3];
+		for (int f = 0; f < 4; ++f, at += FACE) {
+			for (int k = 0, j = 0; k < 4; ++k) if (k != f) face[j++] = tet[k];
+			for (int i = 1; i < 3; ++i)															//Sort by mesh vertex
+				for (int j = i; j > 0 && verts[face[j-1]] > verts[face[j]]; --j) { int t = face[j]; face[j] = face[j-1]; face[j-1] = t; }
+			int a = face[0], b = face[1], c = face[2], d = tet[f];
+			float bx = x[b] - x[a], by = y[b] - y[a], bz = z[b] - z[a];
+			float cx = x[c] - x[a], cy = y[c] - y[a], cz = z[c] - z[a];
+			float mx = by*cz - bz*cy, my = bz*cx - bx*cz, mz = bx*cy - by*cx;
+			float side = mx*(x[d] - x[a]) + my*(y[d] - y[a]) + mz*(z[d] - z[a]);
+			if (side == 0) return false;
+			if (side < 0) { mx = -mx; my = -my; mz = -mz; }
+			out[at] = x[a]; out[at+1] = y[a]; out[at+2] = z[a];
+			out[at+3] = mx; out[at+4] = my; out[at+5] = mz;
+			out[at+6] = (mx > 0 || (mx == 0 && my < 0) || (mx == 0 && my == 0)) ? 1 : 0;	//Outward normal along -x, then +y
+		}
+		return true;
+	}
+
+	/** Returns true if a point is inside all four face planes of a tetrahedron, or on one that keeps it. */
+	private static boolean inside(float[] planes, int at, float qx, float qy, float qz) {
+		for (int f = 0; f < 4; ++f, at += FACE) {
+			float side = planes[at+3]*(qx - planes[at]) + planes[at+4]*(qy - planes[at+1]) + planes[at+5]*(qz - planes[at+2]);
+			if (side < 0 || (side == 0 && planes[at+6] == 0)) return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,308 @@
+package app.tools.structure;
+
+import java.util.List;
+
+import app.tools.math.Vertex;
+import app.tools.topology.Polyhedron;
+
+/** PolyhedronBVH.java
+ * <br>
+ * A bounding volume hierarchy over the polyhedra of a mesh, for finding the few polyhedra near a plane, a ray or a box
+ * without visiting every one of them. Nodes are axis-aligned boxes kept in flat arrays in depth-first order, so the
+ * first child of an inner node is the node right after it; leaves hold up to LEAF_SIZE polyhedra.
+ * <br>
+ * The tree is split once, by median along the longest axis, when it is built. After a deformation that moves
+ * vertices but keeps the topology, refit() recomputes the boxes bottom-up without splitting again; the tree gets
+ * looser as the shape drifts, but stays correct. Build a new one when the topology changes.
+ * <br>
+ * Queries append polyhedron indexes to a list in tree order, and allocate nothing per polyhedron.
+ */
+public class PolyhedronBVH {
+
+	/** Most polyhedra in a leaf */		private static final int LEAF_SIZE = 8;
+	/** Deepest tree a query can walk */	private static final int MAX_DEPTH = 64;
+
+	private final List<Polyhedron> polys;
+	private final Geometry geometry;
+
+	/** Polyhedron indexes, grouped by leaf */								private final int[] order;
+	/** Box of each polyhedron: min x, y, z then max x, y, z */				private final float[] polyBounds;
+	/** Box of each node, laid out as polyBounds */							private final float[] nodeBounds;
+	/** First entry in order of each leaf */									private final int[] first;
+	/** Number of polyhedra of each leaf, or 0 for an inner node */			private final int[] count;
+	/** Second child of each inner node */										private final int[] second;
+	private int nodeCount;
+
+	/** Builds the hierarchy over the given polyhedra.
+	 * @param polys
+	 * @param geometry	vertices indexed by the polyhedra
+	 */
+	public PolyhedronBVH(List<Polyhedron> polys, Geometry geometry) {
+		this.polys = polys;
+		this.geometry = geometry;
+		int n = polys.size();
+		order = new int[n];
+		polyBounds = new float[6*n];
+		int maxNodes = Math.max(1, 2*n);
+		nodeBounds = new float[6*maxNodes];
+		first = new int[maxNodes];
+		count = new int[maxNodes];
+		second = new int[maxNodes];
+
+		float[] centers = new float[3*n];
+		for (int j = 0; j < n; ++j) {
+			order[j] = j;
+			fitPolyhedron(j);
+			for (int a = 0; a < 3; ++a) centers[3*j+a] = 0.5f*(polyBounds[6*j+a] + polyBounds[6*j+3+a]);
+		}
+		if (n == 0) {
+			setEmpty(nodeBounds, 0);
+			count[0] = 0;
+			first[0] = 0;
+			nodeCount = 1;
+			return;
+		}
+		build(0, n, centers);
+		refitNodes();
+	}
+
+	public int getPolyhedronCount() { return order.length; }
+
+	public int getNodeCount() { return nodeCount; }
+
+	/** Recomputes every box from the current vertex positions, keeping the tree as it is. */
+	public void refit() {
+		for (int j = 0; j < order.length; ++j) fitPolyhedron(j);
+		refitNodes();
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			QUERIES
+	//
+	//******************************************************************************************************************************
+
+	/** Finds the polyhedra straddling a plane: those with vertices on both sides of it, or on it. This is the same
+	 * test as checking the sign of (q - p) . n for every vertex q, with boxes lying wholly on one side skipped.
+	 * @param px, py, pz	point on the plane
+	 * @param nx, ny, nz	plane normal
+	 * @param out			receives the polyhedron indexes
+	 */
+	public void queryPlane(float px, float py, float pz, float nx, float ny, float nz, List<Integer> out) {
+		if (order.length == 0) return;
+		int[] stack = new int[MAX_DEPTH];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (!straddles(nodeBounds, node, px, py, pz, nx, ny, nz)) continue;
+			if (count[node] == 0) {
+				stack[top++] = second[node];
+				stack[top++] = node + 1;
+				continue;
+			}
+			for (int k = first[node]; k < first[node] + count[node]; ++k) {
+				int j = order[k];
+				if (straddles(polyBounds, j, px, py, pz, nx, ny, nz) && crossesPlane(j, px, py, pz, nx, ny, nz)) out.add(j);
+			}
+		}
+	}
+
+	/** Finds the polyhedra whose boxes overlap a box.
+	 * @param min	lowest x, y, z
+	 * @param max	highest x, y, z
+	 * @param out	receives the polyhedron indexes
+	 */
+	public void queryBox(float[] min, float[] max, List<Integer> out) {
+		if (order.length == 0) return;
+		int[] stack = new int[MAX_DEPTH];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (!overlaps(nodeBounds, node, min, max)) continue;
+			if (count[node] == 0) {
+				stack[top++] = second[node];
+				stack[top++] = node + 1;
+				continue;
+			}
+			for (int k = first[node]; k < first[node] + count[node]; ++k)
+				if (overlaps(polyBounds, order[k], min, max)) out.add(order[k]);
+		}
+	}
+
+	/** Finds the polyhedra whose boxes are hit by a ray. These are candidates only: the ray may pass a corner of a
+	 * box without entering the polyhedron.
+	 * @param ox, oy, oz	origin
+	 * @param dx, dy, dz	direction, need not be normalized
+	 * @param out			receives the polyhedron indexes
+	 */
+	public void queryRay(float ox, float oy, float oz, float dx, float dy, float dz, List<Integer> out) {
+		if (order.length == 0) return;
+		float ix = 1f/dx, iy = 1f/dy, iz = 1f/dz;
+		int[] stack = new int[MAX_DEPTH];
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			if (!hits(nodeBounds, node, ox, oy, oz, ix, iy, iz)) continue;
+			if (count[node] == 0) {
+				stack[top++] = second[node];
+				stack[top++] = node + 1;
+				continue;
+			}
+			for (int k = first[node]; k < first[node] + count[node]; ++k)
+				if (hits(polyBounds, order[k], ox, oy, oz, ix, iy, iz)) out.add(order[k]);
+		}
+	}
+
+	/** Returns the box of a polyhedron: min x, y, z then max x, y, z. */
+	public float[] getBounds(int poly) {
+		float[] b = new float[6];
+		System.arraycopy(polyBounds, 6*poly, b, 0, 6);
+		return b;
+	}
+
+	//******************************************************************************************************************************
+	//
+	//			HELPERS
+	//
+	//******************************************************************************************************************************
+
+	/** Splits order[from, to) into node nodeCount and its subtree. */
+	private void build(int from, int to, float[] centers) {
+		int node = nodeCount++;
+		if (to - from <= LEAF_SIZE) {
+			first[node] = from;
+			count[node] = to - from;
+			return;
+		}
+
+		float[] lo = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+		float[] hi = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+		for (int k = from; k < to; ++k)
+			for (int a = 0; a < 3; ++a) {
+				lo[a] = Math.min(lo[a], centers[3*order[k]+a]);
+				hi[a] = Math.max(hi[a], centers[3*order[k]+a]);
+			}
+		int axis = 0;
+		for (int a = 1; a < 3; ++a) if (hi[a] - lo[a] > hi[axis] - lo[axis]) axis = a;
+
+		int mid = (from + to) >>> 1;
+		select(from, to - 1, mid, centers, axis);
+		count[node] = 0;
+		build(from, mid, centers);
+		second[node] = nodeCount;
+		build(mid, to, centers);
+	}
+
+	/** Partially sorts order[lo, hi] so the entry at k has the k-th smallest center along the axis. */
+	private void select(int lo, int hi, int k, float[] centers, int axis) {
+		while (lo < hi) {
+			float pivot = centers[3*order[(lo + hi) >>> 1] + axis];
+			int i = lo, j = hi;
+			while (i <= j) {
+				while (centers[3*order[i] + axis] < pivot) ++i;
+				while (centers[3*order[j] + axis] > pivot) --j;
+				if (i <= j) {
+					int t = order[i]; order[i] = order[j]; order[j] = t;
+					++i; --j;
+				}
+			}
+			if (k <= j) hi = j;
+			else if (k >= i) lo = i;
+			else return;
+		}
+	}
+
+	private void fitPolyhedron(int j) {
+		int b = 6*j;
+		setEmpty(polyBounds, j);
+		for (int index : polys.get(j).getVertices()) {
+			Vertex v = geometry.get(index);
+			float x = v.getX(), y = v.getY(), z = v.getZ();
+			if (x < polyBounds[b]) polyBounds[b] = x;
+			if (y < polyBounds[b+1]) polyBounds[b+1] = y;
+			if (z < polyBounds[b+2]) polyBounds[b+2] = z;
+			if (x > polyBounds[b+3]) polyBounds[b+3] = x;
+			if (y > polyBounds[b+4]) polyBounds[b+4] = y;
+			if (z > polyBounds[b+5]) polyBounds[b+5] = z;
+		}
+	}
+
+	/** Children come after their parent, so walking backwards fits every child before its parent. */
+	private void refitNodes() {
+		for (int node = nodeCount - 1; node >= 0; --node) {
+			setEmpty(nodeBounds, node);
+			if (count[node] == 0) {
+				grow(nodeBounds, node, nodeBounds, node + 1);
+				grow(nodeBounds, node, nodeBounds, second[node]);
+			} else {
+				for (int k = first[node]; k < first[node] + count[node]; ++k) grow(nodeBounds, node, polyBounds, order[k]);
+			}
+		}
+	}
+
+	private static void setEmpty(float[] bounds, int i) {
+		for (int a = 0; a < 3; ++a) {
+			bounds[6*i+a] = Float.MAX_VALUE;
+			bounds[6*i+3+a] = -Float.MAX_VALUE;
+		}
+	}
+
+	private static void grow(float[] bounds, int i, float[] other, int j) {
+		for (int a = 0; a < 3; ++a) {
+			bounds[6*i+a] = Math.min(bounds[6*i+a], other[6*j+a]);
+			bounds[6*i+3+a] = Math.max(bounds[6*i+3+a], other[6*j+3+a]);
+		}
+	}
+
+	/** False if the box lies strictly on one side of the plane. The corners nearest and farthest along the normal
+	 * are evaluated exactly as a vertex would be, so no vertex can be rejected by rounding. */
+	private static boolean straddles(float[] bounds, int i, float px, float py, float pz, float nx, float ny, float nz) {
+		int b = 6*i;
+		float lo = (bounds[b + (nx > 0 ? 0 : 3)] - px)*nx + (bounds[b + (ny > 0 ? 1 : 4)] - py)*ny + (bounds[b + (nz > 0 ? 2 : 5)] - pz)*nz;
+		float hi = (bounds[b + (nx > 0 ? 3 : 0)] - px)*nx + (bounds[b + (ny > 0 ? 4 : 1)] - py)*ny + (bounds[b + (nz > 0 ? 5 : 2)] - pz)*nz;
+		return lo <= 0 && hi >= 0;
+	}
+
+	/** Checks the vertices of a polyhedron against the plane; a vertex on the plane counts as both sides. */
+	private boolean crossesPlane(int j, float px, float py, float pz, float nx, float ny, float nz) {
+		boolean foundBehind = false, foundAhead = false;
+		for (int index : polys.get(j).getVertices()) {
+			Vertex q = geometry.get(index);
+			float dot = (q.getX() - px)*nx + (q.getY() - py)*ny + (q.getZ() - pz)*nz;
+			if (dot > 0) foundAhead = true;
+			else if (dot < 0) foundBehind = true;
+			else return true;
+			if (foundAhead && foundBehind) return true;
+		}
+		return false;
+	}
+
+	private static boolean overlaps(float[] bounds, int i, float[] min, float[] max) {
+		int b = 6*i;
+		return bounds[b] <= max[0] && bounds[b+3] >= min[0]
+			&& bounds[b+1] <= max[1] && bounds[b+4] >= min[1]
+			&& bounds[b+2] <= max[2] && bounds[b+5] >= min[2];
+	}
+
+	/** Slab test of a ray, given the inverse of its direction, against a box. */
+	private static boolean hits(float[] bounds, int i, float ox, float oy, float oz, float ix, float iy, float iz) {
+		int b = 6*i;
+		float near = 0f, far = Float.POSITIVE_INFINITY;
+		float t0 = (bounds[b] - ox)*ix, t1 = (bounds[b+3] - ox)*ix;
+		if (!(ix >= 0)) { float t = t0; t0 = t1; t1 = t; }
+		if (t0 > near) near = t0;
+		if (t1 < far) far = t1;
+		t0 = (bounds[b+1] - oy)*iy; t1 = (bounds[b+4] - oy)*iy;
+		if (!(iy >= 0)) { float t = t0; t0 = t1; t1 = t; }
+		if (t0 > near) near = t0;
+		if (t1 < far) far = t1;
+		t0 = (bounds[b+2] - oz)*iz; t1 = (bounds[b+5] - oz)*iz;
+		if (!(iz >= 0)) { float t = t0; t0 = t1; t1 = t; }
+		if (t0 > near) near = t0;
+		if (t1 < far) far = t1;
+		return near <= far;
+	}
+}
@@ -0,0 +1,87 @@
+package app.tools.structure;
+
+import java.util.BitSet;
+import java.util.List;
+
+import app.tools.topology.Polyhedron;
+
+/** Selection.java
+ * <br>
+ * The selected polyhedra of a mesh, as a BitSet over their indexes in the topology. Each view also gets a BitSet of
+ * the polyhedra whose state has changed since it last looked, so it can redraw just the part of the selection that
+ * changed instead of all of it. A view can also be told that everything changed, e.g. after a subdivision.
+ * <br>
+ * Changes are made from the GUI thread and read from the GL thread, so the mutators and the change records are
+ * synchronized. get() is not, so the renderer can scan millions of bits cheaply; a read that races a write sees the
+ * old or the new bit, and the write is picked up with the next changes anyway.
+ */
+public class Selection {
+
+	private final BitSet selected;
+	/** Polyhedra changed since each view last took its changes */		private final BitSet[] changed;
+	/** Views that must treat every polyhedron as changed */				private final boolean[] allChanged;
+
+	/** Constructor. Nothing is selected, and every view starts out with everything changed.
+	 * @param size		number of polyhedra
+	 * @param views		number of views that track changes
+	 */
+	public Selection(int size, int views) {
+		selected = new BitSet(size);
+		changed = new BitSet[views];
+		allChanged = new boolean[views];
+		for (int v = 0; v < views; ++v) {
+			changed[v] = new BitSet(size);
+			allChanged[v] = true;
+		}
+	}
+
+	public boolean get(int poly) {
+		return selected.get(poly);
+	}
+
+	public synchronized int cardinality() {
+		return selected.cardinality();
+	}
+
+	/** Selects or deselects a polyhedron, recording the change for every view if its state actually changed.
+	 * @param poly
+	 * @param isSelected
+	 * @return true if the state changed
+	 */
+	public synchronized boolean set(int poly, boolean isSelected) {
+		if (selected.get(poly) == isSelected) return false;
+		selected.set(poly, isSelected);
+		for (BitSet c : changed) c.set(poly);
+		return true;
+	}
+
+	/** Copies the selection flags of the polyhedra, for code that selects through Polyhedron.setSelected(). Only the
+	 * polyhedra that differ are recorded as changed. */
+	public synchronized void sync(List<Polyhedron> polys) {
+		for (int j = 0; j < polys.size(); ++j) set(j, polys.get(j).isSelected());
+		for (int j = selected.nextSetBit(polys.size()); j >= 0; j = selected.nextSetBit(j + 1)) set(j, false);
+	}
+
+	/** Tells a view that every polyhedron must be treated as changed. */
+	public synchronized void markAllChanged(int view) {
+		allChanged[view] = true;
+	}
+
+	public synchronized boolean hasChanges(int view) {
+		return allChanged[view] || !changed[view].isEmpty();
+	}
+
+	/** Returns the polyhedra changed since the view last took its changes, or null if it must treat all of them as
+	 * changed, and forgets them. */
+	public synchronized BitSet takeChanges(int view) {
+		BitSet result = allChanged[view] ? null : (BitSet) changed[view].clone();
+		clearChanges(view);
+		return result;
+	}
+
+	/** Forgets the changes a view has not taken. */
+	public synchronized void clearChanges(int view) {
+		changed[view].clear();
+		allChanged[view] = false;
+	}
+}
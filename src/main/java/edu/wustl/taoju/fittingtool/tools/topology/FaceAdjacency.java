@@ -0,0 +1,83 @@
+package app.tools.topology;
+
+import java.util.HashMap;
+import java.util.List;
+
+/** FaceAdjacency.java
+ * <br>
+ * Pairs up the triangular faces of a list of polyhedra: two polyhedra sharing a face (the same three vertices, in any
+ * order) are neighbours across it, and a face with no partner lies on the boundary of the mesh. Faces are numbered
+ * polyhedron by polyhedron, in the order of Polyhedron.getFaceIndexes(), so face i of polyhedron j is number
+ * getFirstFace(j) + i.
+ * <br>
+ * A face is a surface face if it is on the mesh boundary or separates two materials; everything else is hidden inside
+ * a region. Crease faces are exactly the surface faces, counted once per pair.
+ */
+public class FaceAdjacency {
+
+	private final List<Polyhedron> polys;
+	/** First face of each polyhedron, plus the total */		private final int[] firstFace;
+	/** Vertex indexes, three per face */							private final int[] corners;
+	/** Polyhedron owning each face */								private final int[] owner;
+	/** Face on the other side of each face, or -1 */				private final int[] partner;
+
+	/** Pairs the faces of the given polyhedra.
+	 * @param polys
+	 * @throws IllegalArgumentException if a face is shared by more than two polyhedra
+	 */
+	public FaceAdjacency(List<Polyhedron> polys) {
+		this.polys = polys;
+		firstFace = new int[polys.size() + 1];
+		for (int j = 0; j < polys.size(); ++j) firstFace[j+1] = firstFace[j] + polys.get(j).getNumFaces();
+		int count = firstFace[polys.size()];
+		corners = new int[3*count];
+		owner = new int[count];
+		partner = new int[count];
+
+		HashMap<Long, Integer> hash = new HashMap<Long, Integer>();
+		for (int j = 0; j < polys.size(); ++j) {
+			Polyhedron p = polys.get(j);
+			int[][] rawFaces = new int[p.getNumFaces()][3];
+			p.getFaceIndexes(rawFaces);
+
+			for (int i = 0; i < rawFaces.length; ++i) {
+				int face = firstFace[j] + i;
+				System.arraycopy(rawFaces[i], 0, corners, 3*face, 3);
+				owner[face] = j;
+				partner[face] = -1;
+				Integer other = hash.put(new Face(rawFaces[i], p.getMaterial()).longHashCode(), face);
+				if (other != null) {
+					if (partner[other] >= 0) throw new IllegalArgumentException("Face shared by more than two polyhedra.");
+					partner[other] = face;
+					partner[face] = other;
+				}
+			}
+		}
+	}
+
+	/** Number of faces, over all polyhedra */
+	public int getFaceCount() { return owner.length; }
+
+	/** Number of the first face of a polyhedron; for poly = the number of polyhedra, the face count */
+	public int getFirstFace(int poly) { return firstFace[poly]; }
+
+	/** Index of the polyhedron that owns a face */
+	public int getOwner(int face) { return owner[face]; }
+
+	/** Returns the face on the other side of a face, or -1 if it is on the mesh boundary. */
+	public int getPartner(int face) { return partner[face]; }
+
+	/** Returns the geometry index of one corner (0-2) of a face. */
+	public int getVertex(int face, int corner) { return corners[3*face + corner]; }
+
+	/** Returns the three geometry indexes of a face, as a new array. */
+	public int[] getVertices(int face) {
+		return new int[] {corners[3*face], corners[3*face+1], corners[3*face+2]};
+	}
+
+	/** Returns true if a face is on the mesh boundary or between two materials, i.e. can be seen from outside its region. */
+	public boolean isSurface(int face) {
+		int other = partner[face];
+		return other < 0 || polys.get(owner[face]).getMaterial() != polys.get(owner[other]).getMaterial();
+	}
+}
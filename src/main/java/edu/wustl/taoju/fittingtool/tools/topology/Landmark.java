@@ -12,6 +12,8 @@ public class Landmark {
 	private List<Integer> materials;
 	private Vertex location;
 	private Color displayColor;
+	/** Outward surface normal at the landmark, if known (null otherwise) */
+	private Vector normal;
 	
 	public Landmark(Vertex v) {
 		location = v;
@@ -46,4 +48,12 @@ public class Landmark {
 		this.displayColor = displayColor;
 	}
 
+	public Vector getNormal() {
+		return normal;
+	}
+
+	public void setNormal(Vector normal) {
+		this.normal = normal;
+	}
+
 }
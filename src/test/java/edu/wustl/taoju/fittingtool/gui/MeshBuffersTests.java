@@ -0,0 +1,88 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+
+import org.junit.Test;
+
+import app.gui.MeshBuffers;
+import app.tools.math.Vertex;
+import app.tools.structure.Geometry;
+import app.tools.structure.Mesh;
+import app.tools.topology.Edge;
+import app.tools.topology.Face;
+import app.tools.topology.Polyhedron;
+import app.tools.topology.Tetrahedron;
+import app.tools.topology.Topology;
+
+public class MeshBuffersTests {
+
+	private static final MeshBuffers.Regions ALL_SHOWN = new MeshBuffers.Regions() {
+		public boolean isShown(int material) { return true; }
+	};
+
+	/** A unit cube of six tetrahedra; consecutive ones share a face, around the 0-7 diagonal. */
+	private static Mesh makeMesh() {
+		ArrayList<Vertex> vertices = new ArrayList<Vertex>();
+		ArrayList<Polyhedron> polys = new ArrayList<Polyhedron>();
+		for (int k = 0; k < 8; ++k) vertices.add(new Vertex(k & 1, (k >> 1) & 1, k >> 2));
+		int[][] cube = {{0,1,3,7}, {0,3,2,7}, {0,2,6,7}, {0,6,4,7}, {0,4,5,7}, {0,5,1,7}};
+		for (int[] tet : cube) polys.add(new Tetrahedron(tet, 1));
+		return new Mesh(new Topology(new ArrayList<Integer>(), new ArrayList<Edge>(), new ArrayList<Face>(), polys), new Geometry(vertices));
+	}
+
+	/** A new mesh has every polyhedron pending for each view; the first refresh must take those changes, or the view
+	 * would keep skipping its rebuild. */
+	@Test
+	public void testRefreshTakesChanges() {
+		Mesh mesh = makeMesh();
+		MeshBuffers buffers = new MeshBuffers();
+		assertTrue(mesh.hasNewSelections(Mesh.VIEW_ID_1));
+
+		assertTrue(buffers.prepare(mesh, 1, 0));
+		BitSet refilled = buffers.prepareSelection(mesh, ALL_SHOWN, Mesh.VIEW_ID_1);
+		assertEquals(1, refilled.cardinality());
+		assertFalse(mesh.hasNewSelections(Mesh.VIEW_ID_1));
+		assertTrue(mesh.hasNewSelections(Mesh.VIEW_ID_2));
+		assertEquals(0, buffers.getSelectionSize());
+
+		assertFalse(buffers.prepare(mesh, 1, 0));											//Same topology: positions only
+		assertTrue(buffers.prepareSelection(mesh, ALL_SHOWN, Mesh.VIEW_ID_1).isEmpty());
+	}
+
+	/** Changes are taken even before the arrays are built for the mesh, since the build refills every chunk. */
+	@Test
+	public void testChangesTakenBeforeBuild() {
+		Mesh mesh = makeMesh();
+		MeshBuffers buffers = new MeshBuffers();
+		assertTrue(buffers.prepareSelection(mesh, ALL_SHOWN, Mesh.VIEW_ID_1).isEmpty());
+		assertFalse(mesh.hasNewSelections(Mesh.VIEW_ID_1));
+		buffers.prepare(mesh, 1, 0);
+		assertEquals(1, buffers.prepareSelection(mesh, ALL_SHOWN, Mesh.VIEW_ID_1).cardinality());
+		assertFalse(mesh.hasNewSelections(Mesh.VIEW_ID_1));
+	}
+
+	/** Selected polyhedra draw their faces, less those shared with another selected polyhedron. */
+	@Test
+	public void testSelectionFaces() {
+		Mesh mesh = makeMesh();
+		MeshBuffers buffers = new MeshBuffers();
+		buffers.prepare(mesh, 1, 0);
+		buffers.prepareSelection(mesh, ALL_SHOWN, Mesh.VIEW_ID_1);
+
+		mesh.setSelected(2, true, (short) 0);
+		assertEquals(1, buffers.prepareSelection(mesh, ALL_SHOWN, Mesh.VIEW_ID_1).cardinality());
+		assertEquals(3*4, buffers.getSelectionSize());
+
+		mesh.setSelected(3, true, (short) 0);
+		buffers.prepareSelection(mesh, ALL_SHOWN, Mesh.VIEW_ID_1);
+		assertEquals(3*6, buffers.getSelectionSize());
+
+		buffers.prepareSelection(mesh, new MeshBuffers.Regions() {
+			public boolean isShown(int material) { return false; }
+		}, Mesh.VIEW_ID_1);
+		assertEquals(0, buffers.getSelectionSize());
+	}
+}
@@ -0,0 +1,66 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import app.tools.cross_sections.CrossSection;
+import app.tools.cross_sections.CrossSectionCutter;
+import app.tools.cross_sections.CrossSectionMaker;
+import app.tools.math.Vector;
+import app.tools.math.Vertex;
+import app.tools.structure.Geometry;
+import app.tools.topology.Octahedron;
+import app.tools.topology.Polyhedron;
+import app.tools.topology.Tetrahedron;
+
+public class CrossSectionCutterTests {
+
+	private static final float[][] OCTAHEDRON = {{1,0,0}, {0,1,0}, {0,0,1}, {0,0,-1}, {0,-1,0}, {-1,0,0}};
+
+	/** Grid vertices put some corners exactly on the plane, so the nudge is exercised too. */
+	@Test
+	public void testMatchesCrossSectionMaker() {
+		Random random = new Random(3);
+		Geometry g = new Geometry(new ArrayList<Vertex>());
+		Vertex p = new Vertex(0, 0, 0);
+		Vector n = new Vector(0, 0, 1);
+		CrossSectionMaker maker = new CrossSectionMaker(g, p, n);
+		CrossSectionCutter cutter = new CrossSectionCutter(g, p, n);
+
+		for (int j = 0; j < 500; ++j) {
+			boolean octahedron = (j % 2 == 0);
+			int[] verts = new int[octahedron ? 6 : 4];
+			for (int k = 0; k < verts.length; ++k) {
+				verts[k] = g.size();
+				if (octahedron)
+					g.add(new Vertex(OCTAHEDRON[k][0] + 0.3f*random.nextFloat(), OCTAHEDRON[k][1] + 0.3f*random.nextFloat(), OCTAHEDRON[k][2]));
+				else
+					g.add(new Vertex(random.nextInt(3) - 1, random.nextInt(3) - 1, random.nextInt(3) - 1));
+			}
+			Polyhedron poly = octahedron ? new Octahedron(verts, 0) : new Tetrahedron(verts, 0);
+			for (int f = 0; f < (octahedron ? 8 : 4); ++f)
+				if (random.nextInt(3) == 0) poly.addCreaseFace(f);
+
+			CrossSection expected = maker.getCrossSection(poly);
+			cutter.cut(poly);
+			int[] starts = cutter.getStarts();
+			float[] coords = cutter.getCoordinates();
+			Vertex[] contour = expected.getContour(0);
+			Boolean[] tags = expected.getCreaseTags(0);
+			assertEquals(contour.length, starts[2*j + 1] - starts[2*j]);
+			assertEquals(expected.getContour(1).length, starts[2*j + 2] - starts[2*j + 1]);
+			for (int i = 0; i < contour.length; ++i) {
+				int v = starts[2*j] + i;
+				assertEquals(contour[i].getX(), coords[3*v], 0);
+				assertEquals(contour[i].getY(), coords[3*v+1], 0);
+				assertEquals(contour[i].getZ(), coords[3*v+2], 0);
+				assertEquals(tags[i], cutter.getCreaseTags()[v]);
+			}
+		}
+		assertEquals(500, cutter.getSectionCount());
+	}
+}
@@ -0,0 +1,77 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import java.nio.FloatBuffer;
+
+import org.junit.Test;
+
+import app.tools.cross_sections.CrossSectionFans;
+import app.tools.cross_sections.CrossSectionSet;
+
+public class CrossSectionFansTests {
+
+	/** Sections of 3, 4 and 6 corners, then one of two contours (4 and 3 corners), then one of 5 corners. Vertex v is
+	 * at (v, 10v, 100v), so every corner can be told apart in the vertex buffer. */
+	private static CrossSectionSet makeSections() {
+		int[] polys = {0, 1, 2, 3, 4};
+		int[] starts = {0, 3, 3, 7, 7, 13, 13, 17, 20, 25, 25};
+		int total = starts[starts.length - 1];
+		float[] coords = new float[3*total];
+		for (int v = 0; v < total; ++v) {
+			coords[3*v] = v;
+			coords[3*v+1] = 10*v;
+			coords[3*v+2] = 100*v;
+		}
+		return new CrossSectionSet(polys, starts, coords, new boolean[total]);
+	}
+
+	@Test
+	public void testTriangleCounts() {
+		CrossSectionSet sections = makeSections();
+		CrossSectionFans fans = new CrossSectionFans(sections);
+		int[] triangles = {1, 2, 4, 0, 3};
+		int first = 0;
+		for (int i = 0; i < sections.size(); ++i) {
+			assertEquals(triangles[i] > 0, CrossSectionFans.isFan(sections, i));
+			assertEquals(triangles[i] > 0, fans.hasTriangles(i));
+			assertEquals(3*triangles[i], fans.getCount(i));
+			assertEquals(first, fans.getFirst(i));
+			first += 3*triangles[i];
+		}
+		assertEquals(3*first, fans.getVertices().remaining());
+	}
+
+	/** Each section is a fan from its first corner: (hub, v, v+1) for every later pair of neighbouring corners, in
+	 * contour order, one section after another. */
+	@Test
+	public void testFanOrder() {
+		CrossSectionSet sections = makeSections();
+		CrossSectionFans fans = new CrossSectionFans(sections);
+		FloatBuffer vertices = fans.getVertices();
+		for (int i = 0; i < sections.size(); ++i) {
+			if (!fans.hasTriangles(i)) continue;
+			int hub = sections.getStart(i, 0), end = sections.getEnd(i, 0);
+			int corner = fans.getFirst(i);
+			for (int v = hub + 1; v < end - 1; ++v) {
+				int[] expected = {hub, v, v + 1};
+				for (int k = 0; k < 3; ++k, ++corner) {
+					assertEquals(expected[k], vertices.get(3*corner), 0f);
+					assertEquals(10*expected[k], vertices.get(3*corner+1), 0f);
+					assertEquals(100*expected[k], vertices.get(3*corner+2), 0f);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testTwoContoursLeftOut() {
+		CrossSectionSet sections = makeSections();
+		assertEquals(4, sections.getLength(3, 0));
+		assertEquals(3, sections.getLength(3, 1));
+		CrossSectionFans fans = new CrossSectionFans(sections);
+		assertFalse(fans.hasTriangles(3));
+		assertEquals(0, fans.getCount(3));
+		assertEquals(fans.getFirst(4), fans.getFirst(3));
+	}
+}
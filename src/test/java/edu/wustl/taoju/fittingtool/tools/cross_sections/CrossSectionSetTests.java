@@ -0,0 +1,78 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import app.tools.cross_sections.CrossSectionPipeline;
+import app.tools.cross_sections.CrossSectionSet;
+import app.tools.math.Vector;
+import app.tools.math.Vertex;
+import app.tools.structure.Geometry;
+import app.tools.topology.Polyhedron;
+import app.tools.topology.Tetrahedron;
+
+public class CrossSectionSetTests {
+
+	/** Point on every cutting plane */	private static final float CX = 0.47f, CY = 0.55f, CZ = 0.45f;
+
+	/** Cuts a unit cube of six tetrahedra near its centre, and checks that points on the plane inside the cube lie in
+	 * exactly one section and points outside it in none. The plane is kept off the cube's vertices, so it does not
+	 * run along a face shared by two tetrahedra.
+	 * @param nx, ny, nz	unit normal of the plane
+	 */
+	private static void checkContains(float nx, float ny, float nz) throws Exception {
+		ArrayList<Vertex> vertices = new ArrayList<Vertex>();
+		ArrayList<Polyhedron> polys = new ArrayList<Polyhedron>();
+		for (int k = 0; k < 8; ++k) vertices.add(new Vertex(k & 1, (k >> 1) & 1, k >> 2));
+		int[][] cube = {{0,1,3,7}, {0,3,2,7}, {0,2,6,7}, {0,6,4,7}, {0,4,5,7}, {0,5,1,7}};
+		for (int[] tet : cube) polys.add(new Tetrahedron(tet, 1));
+		int[] cut = {0, 1, 2, 3, 4, 5};
+		CrossSectionSet sections = CrossSectionPipeline.compute(new Geometry(vertices), polys, cut,
+				new Vertex(CX, CY, CZ), new Vector(nx, ny, nz), null);
+		assertEquals(6, sections.size());
+
+		//Two directions spanning the plane
+		float ax = (Math.abs(nx) < 0.9f) ? 1 : 0, ay = 1 - ax, az = 0;
+		float ux = ay*nz - az*ny, uy = az*nx - ax*nz, uz = ax*ny - ay*nx;
+		float len = (float) Math.sqrt(ux*ux + uy*uy + uz*uz);
+		ux /= len; uy /= len; uz /= len;
+		float vx = ny*uz - nz*uy, vy = nz*ux - nx*uz, vz = nx*uy - ny*ux;
+
+		Random random = new Random(5);
+		int insideCount = 0;
+		for (int t = 0; t < 2000; ++t) {
+			float a = 2*random.nextFloat() - 1, b = 2*random.nextFloat() - 1;
+			float x = CX + a*ux + b*vx, y = CY + a*uy + b*vy, z = CZ + a*uz + b*vz;
+			float margin = Math.min(Math.min(Math.min(x, 1 - x), Math.min(y, 1 - y)), Math.min(z, 1 - z));
+			if (Math.abs(margin) < 1e-3f) continue;
+			int found = 0;
+			for (int i = 0; i < sections.size(); ++i)
+				if (sections.contains(i, x, y, z, nx, ny, nz)) found++;
+			assertEquals((margin > 0) ? 1 : 0, found);
+			if (margin > 0) insideCount++;
+		}
+		assertTrue(insideCount > 100);
+	}
+
+	@Test
+	public void testContainsAxisAligned() throws Exception {
+		checkContains(0, 0, 1);
+		checkContains(1, 0, 0);
+		checkContains(0, -1, 0);
+	}
+
+	/** Turned 45 degrees about y, where the x and z components of the normal are equal. */
+	@Test
+	public void testContainsTilted() throws Exception {
+		float s = (float) Math.sqrt(0.5);
+		checkContains(s, 0, s);
+		checkContains(-s, 0, s);
+		checkContains(s, s, 0);
+		float t = (float) Math.sqrt(1/3.0);
+		checkContains(t, t, t);
+	}
+}
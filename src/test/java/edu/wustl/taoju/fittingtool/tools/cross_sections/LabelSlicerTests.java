@@ -0,0 +1,101 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import app.tools.cross_sections.LabelSlicer;
+import app.tools.imaging.RawSliceSource;
+import app.tools.math.Vertex;
+import app.tools.structure.Geometry;
+import app.tools.structure.Mesh;
+import app.tools.structure.MeshVoxelizer;
+import app.tools.topology.Edge;
+import app.tools.topology.Face;
+import app.tools.topology.Polyhedron;
+import app.tools.topology.Tetrahedron;
+import app.tools.topology.Topology;
+
+public class LabelSlicerTests {
+
+	private static final int[][] CUBE = {{0,1,3,7}, {0,3,2,7}, {0,2,6,7}, {0,6,4,7}, {0,4,5,7}, {0,5,1,7}};
+
+	/** Two unit cubes of six tetrahedra, placed side by side along the given axis (0 for x, 2 for z) and listed in
+	 * order, of the given materials. */
+	private static Mesh makeTwoCubes(int axis, int material1, int material2) {
+		ArrayList<Vertex> vertices = new ArrayList<Vertex>();
+		ArrayList<Polyhedron> polys = new ArrayList<Polyhedron>();
+		int[] materials = {material1, material2};
+		for (int m = 0; m < 2; ++m) {
+			for (int k = 0; k < 8; ++k) {
+				float x = k & 1, y = (k >> 1) & 1, z = k >> 2;
+				if (axis == 0) x += m; else z += m;
+				vertices.add(new Vertex(x, y, z));
+			}
+			for (int[] tet : CUBE) polys.add(new Tetrahedron(new int[] {8*m + tet[0], 8*m + tet[1], 8*m + tet[2], 8*m + tet[3]}, materials[m]));
+		}
+		return new Mesh(new Topology(new ArrayList<Integer>(), new ArrayList<Edge>(), new ArrayList<Face>(), polys), new Geometry(vertices));
+	}
+
+	/** Pixel centres at x = 0, 0.25, ..., 2 and y = 1, 2/3, 1/3, 0 fall on the faces x = 0, 1, 2 and y = 0, 1, and the
+	 * slices at z = 0 and z = 1 lie on faces; the rows keep centres off the diagonals of the faces z = 0 and z = 1. */
+	private static final int WIDTH = 9, HEIGHT = 4, DEPTH = 9;
+	private static final float MIN_X = -0.125f, MAX_X = 2.125f, MIN_Y = -1/6f, MAX_Y = 7/6f, MIN_Z = -1, MAX_Z = 1.25f;
+
+	@Test
+	public void testMatchesVoxelizer() throws Exception {
+		Mesh mesh = makeTwoCubes(0, 1, 2);
+		short[] dense = new MeshVoxelizer(mesh, WIDTH, HEIGHT, DEPTH, MIN_X, MAX_X, MIN_Y, MAX_Y, MIN_Z, MAX_Z).toDense();
+		LabelSlicer slicer = new LabelSlicer(mesh, WIDTH, HEIGHT, DEPTH, MIN_X, MAX_X, MIN_Y, MAX_Y, MIN_Z, MAX_Z);
+		assertEquals(0f, slicer.getZ(4), 1e-6f);
+		assertEquals(1f, slicer.getZ(8), 1e-6f);
+		int filled = 0;
+		for (int k = 0; k < DEPTH; ++k) {
+			short[] labels = slicer.slice(k);
+			for (int i = 0; i < WIDTH*HEIGHT; ++i) {
+				assertEquals("slice " + k + ", pixel " + i, dense[k*WIDTH*HEIGHT + i], labels[i]);
+				if (labels[i] != LabelSlicer.BACKGROUND) ++filled;
+			}
+		}
+		assertEquals(5*8*3, filled);											//Slices z = 0 to 1, x = 0 to 1.75, y = 1/3 to 1
+		slicer.dispose();
+	}
+
+	/** On a slice through the face between two cubes of different materials, both cubes are cut and the one listed
+	 * later wins. */
+	@Test
+	public void testSliceOnSharedFace() throws Exception {
+		for (int order = 0; order < 2; ++order) {
+			Mesh mesh = makeTwoCubes(2, order == 0 ? 1 : 2, order == 0 ? 2 : 1);
+			LabelSlicer slicer = new LabelSlicer(mesh, WIDTH, HEIGHT, 3, MIN_X, MAX_X, MIN_Y, MAX_Y, 0, 3);
+			short[] labels = slicer.slice(1);
+			short later = (short) (order == 0 ? 2 : 1);
+			for (int y = 0; y < HEIGHT; ++y)
+				for (int x = 0; x < WIDTH; ++x) {
+					boolean inside = x < 4 && y < 3;
+					assertEquals(inside ? later : LabelSlicer.BACKGROUND, labels[x + WIDTH*y]);
+				}
+			slicer.dispose();
+		}
+	}
+
+	@Test
+	public void testWriteReadsBack() throws Exception {
+		Mesh mesh = makeTwoCubes(0, 1, 2);
+		LabelSlicer slicer = new LabelSlicer(mesh, WIDTH, HEIGHT, DEPTH, MIN_X, MAX_X, MIN_Y, MAX_Y, MIN_Z, MAX_Z);
+		File file = File.createTempFile("labels", ".raw");
+		file.deleteOnExit();
+		slicer.write(file, ByteOrder.BIG_ENDIAN);
+		assertEquals(2L*WIDTH*HEIGHT*DEPTH, file.length());
+
+		RawSliceSource source = new RawSliceSource(file, WIDTH, HEIGHT, DEPTH, 2, ByteOrder.BIG_ENDIAN, 0);
+		for (int k = 0; k < DEPTH; ++k)
+			assertArrayEquals(slicer.slice(k), source.readSlice(k, 1).getValues());
+		slicer.dispose();
+		file.delete();
+	}
+}
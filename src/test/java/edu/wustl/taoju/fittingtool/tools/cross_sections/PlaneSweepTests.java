@@ -0,0 +1,79 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import app.tools.cross_sections.PlaneSweep;
+import app.tools.math.Vertex;
+import app.tools.structure.Geometry;
+import app.tools.topology.Polyhedron;
+import app.tools.topology.Tetrahedron;
+
+public class PlaneSweepTests {
+
+	private static final float NX = 0.6f, NY = 0.0f, NZ = -0.8f;
+
+	/** Scatters n small tetrahedra over a 10 x 10 x 10 cube. */
+	private static List<Polyhedron> scatter(int n, Geometry g, Random random) {
+		List<Polyhedron> polys = new ArrayList<Polyhedron>();
+		for (int j = 0; j < n; ++j) {
+			float x = 10*random.nextFloat(), y = 10*random.nextFloat(), z = 10*random.nextFloat();
+			int[] verts = new int[4];
+			for (int k = 0; k < 4; ++k) {
+				verts[k] = g.size();
+				g.add(new Vertex(x + random.nextFloat(), y + random.nextFloat(), z + random.nextFloat()));
+			}
+			polys.add(new Tetrahedron(verts, 0));
+		}
+		return polys;
+	}
+
+	private static List<Integer> crossing(List<Polyhedron> polys, Geometry g, float d) {
+		List<Integer> result = new ArrayList<Integer>();
+		for (int j = 0; j < polys.size(); ++j) {
+			boolean ahead = false, behind = false;
+			for (int index : polys.get(j).getVertices()) {
+				Vertex q = g.get(index);
+				float dist = q.getX()*NX + q.getY()*NY + q.getZ()*NZ;
+				if (dist >= d) ahead = true;
+				if (dist <= d) behind = true;
+			}
+			if (ahead && behind) result.add(j);
+		}
+		return result;
+	}
+
+	@Test
+	public void testMovesMatchBruteForce() {
+		Random random = new Random(5);
+		Geometry g = new Geometry(new ArrayList<Vertex>());
+		List<Polyhedron> polys = scatter(3000, g, random);
+		PlaneSweep sweep = new PlaneSweep(polys, g, NX, NY, NZ);
+		assertEquals(0, sweep.getActiveCount());
+
+		for (int trial = 0; trial < 50; ++trial) {
+			float d = -9 + 16*random.nextFloat();
+			sweep.moveTo(d);
+			List<Integer> found = new ArrayList<Integer>();
+			sweep.getActive(found);
+			assertEquals(crossing(polys, g, d), found);
+		}
+	}
+
+	@Test
+	public void testSmallMoveTouchesFewPolyhedra() {
+		Random random = new Random(9);
+		Geometry g = new Geometry(new ArrayList<Vertex>());
+		List<Polyhedron> polys = scatter(3000, g, random);
+		PlaneSweep sweep = new PlaneSweep(polys, g, NX, NY, NZ);
+		sweep.moveTo(-2f);
+		int touched = sweep.moveTo(-1.99f);
+		assertTrue(touched < polys.size() / 50);
+		assertEquals(crossing(polys, g, -1.99f).size(), sweep.getActiveCount());
+	}
+}
@@ -0,0 +1,98 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import app.tools.imaging.ComponentLabeler;
+import app.tools.imaging.ComponentLabeler.Components;
+
+public class ComponentLabelerTests {
+
+	/** Builds a mask from rows of '#' (1) and '.' (0); the first index varies along each row. */
+	private static int[] mask(String... rows) {
+		int[] m = new int[rows.length * rows[0].length()];
+		for (int i1 = 0; i1 < rows.length; ++i1)
+			for (int i0 = 0; i0 < rows[i1].length(); ++i0)
+				m[i0 + rows[0].length()*i1] = rows[i1].charAt(i0) == '#' ? 1 : 0;
+		return m;
+	}
+
+	@Test
+	public void testCountsAndSizes() {
+		int[] m = mask(
+				"##...#",
+				"##...#",
+				".....#",
+				"#.....");
+		Components c = ComponentLabeler.label(m, 1, 6, 4);
+		assertEquals(3, c.count);
+		assertEquals(4, c.sizes[c.labels[0]]);
+		assertEquals(3, c.sizes[c.labels[5]]);
+		assertEquals(1, c.sizes[c.labels[18]]);
+		assertEquals(c.labels[0], c.getLargest());
+	}
+
+	@Test
+	public void testDiagonalsAreConnected() {
+		int[] m = mask(
+				"#...",
+				".#..",
+				"..#.",
+				".#.#");
+		Components c = ComponentLabeler.label(m, 1, 4, 4);
+		assertEquals(1, c.count);
+		assertEquals(5, c.sizes[1]);
+	}
+
+	@Test
+	public void testUShapeMergesLabels() {
+		int[] m = mask(
+				"#.#.#",
+				"#.#.#",
+				"#####");
+		Components c = ComponentLabeler.label(m, 1, 5, 3);
+		assertEquals(1, c.count);
+		assertEquals(11, c.sizes[1]);
+	}
+
+	@Test
+	public void testRetainLargestFillsHoles() {
+		int[] m = mask(
+				"......",
+				".####.",
+				".#..#.",
+				".####.",
+				"......",
+				"....##");
+		ComponentLabeler.retainLargest(m, 1, 0, 6, 6);
+		ComponentLabeler.retainLargest(m, 0, 1, 6, 6);
+		assertArrayEquals(mask(
+				"......",
+				".####.",
+				".####.",
+				".####.",
+				"......",
+				"......"), m);
+	}
+
+	@Test
+	public void testVolumeConnectsAcrossSlices() {
+		int[] slice0 = mask(
+				"#..",
+				"...",
+				"..#");
+		int[] slice1 = mask(
+				"...",
+				".#.",
+				"...");
+		int[] volume = new int[18];
+		System.arraycopy(slice0, 0, volume, 0, 9);
+		System.arraycopy(slice1, 0, volume, 9, 9);
+
+		assertEquals(2, ComponentLabeler.label(slice0, 1, 3, 3).count);
+		Components c = ComponentLabeler.label(volume, 1, 3, 3, 2);
+		assertEquals(1, c.count);
+		assertEquals(3, c.sizes[1]);
+	}
+}
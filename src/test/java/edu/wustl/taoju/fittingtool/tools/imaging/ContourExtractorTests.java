@@ -0,0 +1,89 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import app.tools.imaging.Contour;
+import app.tools.imaging.ContourExtractor;
+
+public class ContourExtractorTests {
+
+	private static final int N0 = 64, N1 = 60;
+	private static final float CX = 30.3f, CY = 28.6f, R = 20;
+
+	private static float distance(float x, float y) {
+		float dx = x - CX, dy = y - CY;
+		return (float) Math.sqrt(dx*dx + dy*dy);
+	}
+
+	/** Checks that a contour is one closed loop around the disc, its points in order with the disc on their left, and
+	 * its normals pointing away from the centre. Normals of a staircase can lean up to 45 degrees off the radius. */
+	private static void checkLoop(Contour c, float maxStep) {
+		assertTrue(c.isClosed());
+		double twiceArea = 0, sumCos = 0;
+		for (int i = 0; i < c.size(); ++i) {
+			int j = (i + 1) % c.size();
+			float dx = c.getX(j) - c.getX(i), dy = c.getY(j) - c.getY(i);
+			assertTrue("points out of order", Math.sqrt(dx*dx + dy*dy) <= maxStep);
+			twiceArea += c.getX(i)*c.getY(j) - c.getX(j)*c.getY(i);
+
+			float d = distance(c.getX(i), c.getY(i));
+			float cos = ((c.getX(i) - CX)*c.getNormalX(i) + (c.getY(i) - CY)*c.getNormalY(i))/d;
+			assertTrue("normal points inward", cos > 0.7f);
+			sumCos += cos;
+		}
+		assertTrue(sumCos/c.size() > 0.95);
+		assertEquals(Math.PI*R*R, twiceArea/2, 0.03*Math.PI*R*R);			//Positive: counter-clockwise, inside on the left
+	}
+
+	@Test
+	public void testThresholdedDisc() {
+		int[] mask = new int[N0*N1];
+		for (int y = 0; y < N1; ++y)
+			for (int x = 0; x < N0; ++x) mask[x + N0*y] = distance(x, y) <= R ? 1 : 0;
+		List<Contour> contours = ContourExtractor.extract(mask, N0, N1);
+		assertEquals(1, contours.size());
+		Contour c = contours.get(0);
+		checkLoop(c, 1.0001f);																//Edge midpoints of neighbouring cells
+		for (int i = 0; i < c.size(); ++i) assertEquals(R, distance(c.getX(i), c.getY(i)), 1f);
+	}
+
+	/** On a smooth edge the interpolated crossings land well inside a pixel of the circle. */
+	@Test
+	public void testSubPixel() {
+		float[] values = new float[N0*N1];
+		for (int y = 0; y < N1; ++y)
+			for (int x = 0; x < N0; ++x) values[x + N0*y] = Math.max(0, Math.min(1, R - distance(x, y) + 0.5f));
+		List<Contour> contours = ContourExtractor.extract(values, N0, N1, 0.5f);
+		assertEquals(1, contours.size());
+		Contour c = contours.get(0);
+		checkLoop(c, 1.5f);
+		for (int i = 0; i < c.size(); ++i) assertEquals(R, distance(c.getX(i), c.getY(i)), 0.1f);
+	}
+
+	@Test
+	public void testResample() {
+		int[] mask = new int[N0*N1];
+		for (int y = 0; y < N1; ++y)
+			for (int x = 0; x < N0; ++x) mask[x + N0*y] = distance(x, y) <= R ? 1 : 0;
+		Contour c = ContourExtractor.extract(mask, N0, N1).get(0);
+		float spacing = 2.5f, length = c.length();
+		Contour r = c.resample(spacing);
+		checkLoop(r, 1.05f*spacing);
+
+		//A whole number of steps round the loop, each as close as possible to the spacing asked for
+		assertEquals(Math.round(length/spacing), r.size());
+		float step = length/r.size();
+		assertEquals(spacing, step, spacing/r.size());
+		for (int i = 0; i < r.size(); ++i) {
+			int j = (i + 1) % r.size();
+			float dx = r.getX(j) - r.getX(i), dy = r.getY(j) - r.getY(i);
+			float chord = (float) Math.sqrt(dx*dx + dy*dy);
+			assertTrue("step " + chord, chord <= step + 1e-3f && chord > 0.7f*step);
+		}
+		assertEquals(2*Math.PI*R, r.length(), 0.02*2*Math.PI*R);						//Shorter than the staircase it follows
+	}
+}
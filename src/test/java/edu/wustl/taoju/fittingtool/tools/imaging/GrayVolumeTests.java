@@ -0,0 +1,76 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import app.tools.imaging.GrayVolume;
+
+public class GrayVolumeTests {
+
+	/** A 4 x 4 x 3 volume over [0,4] x [0,4] x [0,3], so voxel (x, y, z) is centred on (x+0.5, 3.5-y, z+0.5). */
+	private static GrayVolume makeVolume(byte[] values) {
+		return new GrayVolume(values, 4, 4, 3, 0, 4, 0, 4, 0, 3);
+	}
+
+	/** Interpolating a linear ramp gives the ramp back, between voxel centres as well as on them. */
+	@Test
+	public void testRamp() {
+		byte[] values = new byte[4*4*3];
+		for (int z = 0; z < 3; ++z)
+			for (int y = 0; y < 4; ++y)
+				for (int x = 0; x < 4; ++x)
+					values[x + 4*(y + 4*z)] = (byte) (10*x + 20*y + 40*z);
+		GrayVolume volume = makeVolume(values);
+		for (float z = 0; z <= 2; z += 0.25f)
+			for (float y = 0; y <= 3; y += 0.25f)
+				for (float x = 0; x <= 3; x += 0.25f)
+					assertEquals((int) (10*x + 20*y + 40*z + 0.5f), volume.trilinear(x, y, z));
+	}
+
+	/** A plane along a slice, with pixels on the voxel centres, gives back the slice. */
+	@Test
+	public void testAxisAlignedPlane() {
+		byte[] values = new byte[4*4*3];
+		new Random(7).nextBytes(values);
+		GrayVolume volume = makeVolume(values);
+		int[] pixels = new int[16];
+		for (int z = 0; z < 3; ++z) {
+			float[] plane = {2, 2, z + 0.5f, 1, 0, 0, 0, 1, 0};
+			volume.sampleRows(plane, 2, 4, 0, 4, pixels);
+			for (int y = 0; y < 4; ++y)
+				for (int x = 0; x < 4; ++x) {
+					int g = values[x + 4*(y + 4*z)] & 0xff;
+					assertEquals(0xff000000 | (g << 16) | (g << 8) | g, pixels[x + 4*y]);
+				}
+		}
+	}
+
+	/** Up to the faces of the volume the nearest voxels are used; past them nothing is sampled. */
+	@Test
+	public void testEdges() {
+		byte[] values = new byte[4*4*3];
+		new Random(11).nextBytes(values);
+		GrayVolume volume = makeVolume(values);
+		assertEquals(values[0] & 0xff, volume.trilinear(-0.5f, -0.5f, -0.5f));
+		assertEquals(values[4*4*3 - 1] & 0xff, volume.trilinear(3.5f, 3.5f, 2.5f));
+		assertEquals(values[3 + 4*2] & 0xff, volume.trilinear(3.25f, 2, 0));
+		assertEquals(-1, volume.trilinear(-0.51f, 1, 1));
+		assertEquals(-1, volume.trilinear(1, 3.51f, 1));
+		assertEquals(-1, volume.trilinear(1, 1, 2.51f));
+
+		int[] pixels = new int[64];
+		volume.sampleRows(new float[] {2, 2, 1.5f, 1, 0, 0, 0, 1, 0}, 4, 8, 0, 8, pixels);	//Twice the volume's width
+		for (int row = 0; row < 8; ++row)
+			for (int col = 0; col < 8; ++col) {
+				boolean inside = col >= 2 && col < 6 && row >= 2 && row < 6;
+				if (inside) assertEquals(0xff, pixels[col + 8*row] >>> 24);
+				else assertEquals(0, pixels[col + 8*row]);
+			}
+
+		volume.sampleRows(new float[] {2, 2, 3.5f, 1, 0, 0, 0, 1, 0}, 2, 4, 0, 4, pixels);		//Above the top slice
+		for (int i = 0; i < 16; ++i) assertEquals(0, pixels[i]);
+	}
+}
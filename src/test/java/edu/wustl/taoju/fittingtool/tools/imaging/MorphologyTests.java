@@ -0,0 +1,119 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import app.tools.imaging.BitMask;
+import app.tools.imaging.Morphology;
+import app.tools.imaging.Morphology.StructuringElement;
+
+public class MorphologyTests {
+
+	/** Widths straddling word boundaries */
+	private static final int[] WIDTHS = {1, 5, 63, 64, 65, 130};
+
+	private static int[] randomMask(Random r, int n0, int n1) {
+		int[] m = new int[n0*n1];
+		for (int i = 0; i < m.length; ++i) m[i] = r.nextFloat() < 0.6f ? 1 : 0;
+		return m;
+	}
+
+	/** Per-pixel reference dilation; pixels outside the image are background. */
+	private static int[] naiveDilate(int[] m, int n0, int n1, boolean[][] se) {
+		int c1 = se.length/2, c0 = se[0].length/2;
+		int[] out = new int[m.length];
+		for (int i1 = 0; i1 < n1; ++i1)
+			for (int i0 = 0; i0 < n0; ++i0)
+				for (int j = 0; j < se.length; ++j)
+					for (int i = 0; i < se[j].length; ++i) {
+						int s0 = i0 - (i - c0), s1 = i1 - (j - c1);
+						if (se[j][i] && s0 >= 0 && s0 < n0 && s1 >= 0 && s1 < n1 && m[s0 + n0*s1] == 1) out[i0 + n0*i1] = 1;
+					}
+		return out;
+	}
+
+	/** Per-pixel reference erosion; pixels outside the image are foreground. */
+	private static int[] naiveErode(int[] m, int n0, int n1, boolean[][] se) {
+		int c1 = se.length/2, c0 = se[0].length/2;
+		int[] out = new int[m.length];
+		for (int i1 = 0; i1 < n1; ++i1)
+			for (int i0 = 0; i0 < n0; ++i0) {
+				int v = 1;
+				for (int j = 0; j < se.length; ++j)
+					for (int i = 0; i < se[j].length; ++i) {
+						int s0 = i0 + (i - c0), s1 = i1 + (j - c1);
+						if (se[j][i] && s0 >= 0 && s0 < n0 && s1 >= 0 && s1 < n1 && m[s0 + n0*s1] == 0) v = 0;
+					}
+				out[i0 + n0*i1] = v;
+			}
+		return out;
+	}
+
+	private static int[] unpack(BitMask b) {
+		int[] m = new int[b.getWidth()*b.getHeight()];
+		b.unpack(m);
+		return m;
+	}
+
+	private void check(boolean[][] pattern, StructuringElement se) {
+		Random r = new Random(7);
+		for (int n0 : WIDTHS) {
+			int n1 = 9;
+			int[] m = randomMask(r, n0, n1);
+			BitMask packed = BitMask.pack(m, n0, n1);
+			assertArrayEquals(m, unpack(packed));
+			assertArrayEquals(naiveDilate(m, n0, n1, pattern), unpack(Morphology.dilate(packed, se, 1)));
+			assertArrayEquals(naiveErode(m, n0, n1, pattern), unpack(Morphology.erode(packed, se, 1)));
+			assertArrayEquals(naiveDilate(naiveErode(m, n0, n1, pattern), n0, n1, pattern), unpack(Morphology.open(packed, se, 1)));
+			assertArrayEquals(naiveDilate(naiveDilate(m, n0, n1, pattern), n0, n1, pattern), unpack(Morphology.dilate(packed, se, 2)));
+		}
+	}
+
+	@Test
+	public void testSquare() {
+		check(new boolean[][] {{true,true,true},{true,true,true},{true,true,true}}, StructuringElement.SQUARE);
+	}
+
+	@Test
+	public void testCross() {
+		check(new boolean[][] {{false,true,false},{true,true,true},{false,true,false}}, StructuringElement.CROSS);
+	}
+
+	@Test
+	public void testAsymmetricElement() {
+		boolean[][] pattern = {{false,false,false,false,false},{false,false,true,true,true},{true,false,true,false,false}};
+		check(pattern, new StructuringElement(pattern));
+	}
+
+	@Test
+	public void testBorderDoesNotErode() {
+		int[] full = new int[70*3];
+		java.util.Arrays.fill(full, 1);
+		BitMask eroded = Morphology.erode(BitMask.pack(full, 70, 3), StructuringElement.SQUARE, 3);
+		assertEquals(full.length, eroded.count());
+	}
+
+	@Test
+	public void testStackMatchesCube() {
+		Random r = new Random(11);
+		int n0 = 70, n1 = 6, n2 = 5;
+		int[] m = randomMask(r, n0, n1*n2);
+		int[] expected = new int[m.length];
+		for (int i2 = 0; i2 < n2; ++i2)
+			for (int i1 = 0; i1 < n1; ++i1)
+				for (int i0 = 0; i0 < n0; ++i0)
+					for (int d2 = -1; d2 <= 1; ++d2)
+						for (int d1 = -1; d1 <= 1; ++d1)
+							for (int d0 = -1; d0 <= 1; ++d0) {
+								int s0 = i0 + d0, s1 = i1 + d1, s2 = i2 + d2;
+								if (s0 >= 0 && s0 < n0 && s1 >= 0 && s1 < n1 && s2 >= 0 && s2 < n2 && m[s0 + n0*(s1 + n1*s2)] == 1)
+									expected[i0 + n0*(i1 + n1*i2)] = 1;
+							}
+		int[] dilated = new int[m.length];
+		BitMask.unpackStack(Morphology.dilate(BitMask.packStack(m, n0, n1, n2), StructuringElement.SQUARE, 1, 1), dilated);
+		assertArrayEquals(expected, dilated);
+	}
+}
@@ -0,0 +1,57 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import app.tools.imaging.OverlapEvaluator;
+import app.tools.imaging.OverlapEvaluator.LabelSlices;
+import app.tools.imaging.OverlapEvaluator.Overlap;
+
+public class OverlapEvaluatorTests {
+
+	private static final short BACKGROUND = -1;
+
+	/** An n x n x n volume holding a ball of one label, centred at (cx, n/2, n/2). */
+	private static LabelSlices ball(final int n, final float cx, final float r, final short label) {
+		return new LabelSlices() {
+			public int getWidth() { return n; }
+			public int getHeight() { return n; }
+			public int getSliceCount() { return n; }
+			public short[] getSlice(int k) {
+				short[] labels = new short[n*n];
+				for (int y = 0; y < n; ++y)
+					for (int x = 0; x < n; ++x) {
+						float dx = x - cx, dy = y - n/2f, dz = k - n/2f;
+						labels[x + n*y] = (dx*dx + dy*dy + dz*dz <= r*r) ? label : BACKGROUND;
+					}
+				return labels;
+			}
+		};
+	}
+
+	@Test
+	public void testIdenticalVolumes() throws Exception {
+		List<Overlap> overlaps = new OverlapEvaluator(ball(40, 20, 12, (short) 1), ball(40, 20, 12, (short) 1), BACKGROUND, 1, 1, 1).evaluate();
+		assertEquals(1, overlaps.size());
+		assertEquals(1.0, overlaps.get(0).getDice(), 1e-9);
+		assertEquals(0.0, overlaps.get(0).hausdorff, 1e-9);
+		assertEquals(0.0, overlaps.get(0).meanDistance, 1e-9);
+	}
+
+	@Test
+	public void testShiftedBall() throws Exception {
+		float r = 12, d = 3;
+		List<Overlap> overlaps = new OverlapEvaluator(ball(40, 20, r, (short) 1), ball(40, 20 + d, r, (short) 1), BACKGROUND, 0.5f, 0.5f, 0.5f).evaluate();
+		double lens = Math.PI*(4*r + d)*(2*r - d)*(2*r - d)/12, sphere = 4*Math.PI*r*r*r/3;
+		assertEquals(lens/sphere, overlaps.get(0).getDice(), 0.02);
+		assertEquals(0.5*d, overlaps.get(0).hausdorff, 1e-6);
+
+		overlaps = new OverlapEvaluator(ball(40, 20, r, (short) 1), OverlapEvaluator.merge(ball(40, 20 + d, r, (short) 7), BACKGROUND, (short) 1),
+				BACKGROUND, 0.5f, 0.5f, 0.5f).evaluate();
+		assertEquals(1, overlaps.size());
+		assertEquals(0.5*d, overlaps.get(0).hausdorff, 1e-6);
+	}
+}
@@ -0,0 +1,89 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import app.tools.imaging.BitMask;
+import app.tools.imaging.SurfaceExtractor;
+import app.tools.imaging.SurfaceSamples;
+
+public class SurfaceExtractorTests {
+
+	private static final int N0 = 40, N1 = 40, N2 = 24;
+	/** Voxel size; slices are further apart than pixels, as in most stacks */	private static final float S0 = 1, S1 = 1, S2 = 1.5f;
+	private static final float AREA_PER_SAMPLE = 0.5f;
+	/** Slices per slab, so slab boundaries are crossed */							private static final int SLAB = 5;
+
+	/** Voxelizes a ball, in scaled units. */
+	private static BitMask[] ball(float cx, float cy, float cz, float r) {
+		BitMask[] stack = new BitMask[N2];
+		for (int i2 = 0; i2 < N2; ++i2) {
+			stack[i2] = new BitMask(N0, N1);
+			for (int i1 = 0; i1 < N1; ++i1)
+				for (int i0 = 0; i0 < N0; ++i0) {
+					float dx = i0*S0 - cx, dy = i1*S1 - cy, dz = i2*S2 - cz;
+					stack[i2].set(i0, i1, dx*dx + dy*dy + dz*dz <= r*r);
+				}
+		}
+		return stack;
+	}
+
+	/** Samples the whole stack, slab by slab, into one array of x, y, z, nx, ny, nz per sample. */
+	private static float[] sampleAll(BitMask[] stack) {
+		int total = 0;
+		SurfaceSamples[] slabs = new SurfaceSamples[(N2 - 1 + SLAB - 1)/SLAB];
+		for (int s = 0; s < slabs.length; ++s) {
+			slabs[s] = SurfaceExtractor.sample(stack, s*SLAB, (s + 1)*SLAB, S0, S1, S2, AREA_PER_SAMPLE);
+			total += slabs[s].size();
+		}
+		float[] out = new float[6*total];
+		int k = 0;
+		for (SurfaceSamples samples : slabs)
+			for (int i = 0; i < samples.size(); ++i, k += 6) {
+				out[k] = samples.getX(i);			out[k+1] = samples.getY(i);			out[k+2] = samples.getZ(i);
+				out[k+3] = samples.getNormalX(i);	out[k+4] = samples.getNormalY(i);	out[k+5] = samples.getNormalZ(i);
+			}
+		return out;
+	}
+
+	/** The faces of a box lie half a voxel outside its voxel centres; only the bevelled edges and corners are lost. */
+	@Test
+	public void testBoxArea() {
+		BitMask[] stack = new BitMask[N2];
+		for (int i2 = 0; i2 < N2; ++i2) {
+			stack[i2] = new BitMask(N0, N1);
+			for (int i1 = 8; i1 <= 27; ++i1)
+				for (int i0 = 5; i0 <= 30; ++i0) stack[i2].set(i0, i1, i2 >= 3 && i2 <= 18);
+		}
+		float a = 26*S0, b = 20*S1, c = 16*S2;
+		float area = sampleAll(stack).length/6*AREA_PER_SAMPLE;
+		assertEquals(2*(a*b + b*c + c*a), area, 0.03f*2*(a*b + b*c + c*a));
+	}
+
+	/** Samples of a voxelized ball lie near its sphere, with normals pointing away from its centre. Midpoint crossings
+	 * on binary voxels give a faceted surface, so the area comes out somewhat above the sphere's. */
+	@Test
+	public void testBall() {
+		float cx = 19.5f*S0, cy = 20.2f*S1, cz = 11.3f*S2, r = 14;
+		float[] samples = sampleAll(ball(cx, cy, cz, r));
+		int n = samples.length/6;
+		double sphere = 4*Math.PI*r*r, area = n*AREA_PER_SAMPLE;
+		assertTrue("area " + area, area > sphere && area < 1.35*sphere);
+
+		double sumRadius = 0, sumCos = 0;
+		for (int k = 0; k < samples.length; k += 6) {
+			float dx = samples[k] - cx, dy = samples[k+1] - cy, dz = samples[k+2] - cz;
+			double d = Math.sqrt(dx*dx + dy*dy + dz*dz);
+			assertEquals(r, d, 1.5*S2);
+			double length = Math.sqrt(samples[k+3]*samples[k+3] + samples[k+4]*samples[k+4] + samples[k+5]*samples[k+5]);
+			assertEquals(1, length, 1e-4);
+			double cos = (dx*samples[k+3] + dy*samples[k+4] + dz*samples[k+5])/d;
+			assertTrue("normal points inward", cos > 0.5);
+			sumRadius += d;
+			sumCos += cos;
+		}
+		assertEquals(r, sumRadius/n, 0.25);
+		assertTrue(sumCos/n > 0.95);
+	}
+}
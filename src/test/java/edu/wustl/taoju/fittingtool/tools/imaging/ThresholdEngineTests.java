@@ -0,0 +1,46 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import app.tools.imaging.Slice;
+import app.tools.imaging.ThresholdEngine;
+
+public class ThresholdEngineTests {
+
+	@Test
+	public void testOtsuSplitsTwoPeaks() {
+		short[] values = new short[100];
+		for (int i = 0; i < values.length; ++i) values[i] = (short) (i < 40 ? 60 + i % 5 : 200 + i % 7);
+		Slice slice = new Slice(10, 10, values, 255);
+		double t = ThresholdEngine.otsu(slice.getHistogram(), 255);
+		assertTrue(t > 64 && t < 200);
+		int dark = 0;
+		for (int m : slice.threshold(t, true)) dark += m;
+		assertEquals(40, dark);
+	}
+
+	@Test
+	public void testOtsuOn16BitBins() {
+		short[] values = new short[64];
+		for (int i = 0; i < values.length; ++i) values[i] = (short) (i % 2 == 0 ? 1000 : 50000);
+		double t = ThresholdEngine.otsu(new Slice(8, 8, values, 65535).getHistogram(), 65535);
+		assertTrue(t > 1000 && t < 50000);
+		assertEquals(0.5, t - Math.floor(t), 0);
+	}
+
+	@Test
+	public void testBlankSliceHasNoThreshold() {
+		assertTrue(Double.isNaN(ThresholdEngine.otsu(new Slice(4, 4, new short[16], 255).getHistogram(), 255)));
+	}
+
+	@Test
+	public void testSmoothingIgnoresOutliersAndFillsGaps() {
+		double[] t = ThresholdEngine.smooth(new double[] {100.5, 102.5, 30.5, Double.NaN, 101.5, 99.5}, 1);
+		assertEquals(100.5, t[1], 0);
+		assertEquals(66.5, t[3], 0);
+		assertEquals(100.5, t[5], 0);
+		assertFalse(Double.isNaN(t[2]));
+	}
+}
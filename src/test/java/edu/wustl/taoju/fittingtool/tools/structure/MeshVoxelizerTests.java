@@ -0,0 +1,91 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import app.tools.imaging.RunLengthVolume;
+import app.tools.math.Vertex;
+import app.tools.structure.Geometry;
+import app.tools.structure.Mesh;
+import app.tools.structure.MeshVoxelizer;
+import app.tools.topology.Edge;
+import app.tools.topology.Face;
+import app.tools.topology.Octahedron;
+import app.tools.topology.Polyhedron;
+import app.tools.topology.Tetrahedron;
+import app.tools.topology.Topology;
+
+public class MeshVoxelizerTests {
+
+	/** A unit cube of six tetrahedra of material 1 at the origin, and an octahedron of material 2 beside it. */
+	private static Mesh makeMesh() {
+		ArrayList<Vertex> vertices = new ArrayList<Vertex>();
+		ArrayList<Polyhedron> polys = new ArrayList<Polyhedron>();
+		for (int k = 0; k < 8; ++k) vertices.add(new Vertex(k & 1, (k >> 1) & 1, k >> 2));
+		int[][] cube = {{0,1,3,7}, {0,3,2,7}, {0,2,6,7}, {0,6,4,7}, {0,4,5,7}, {0,5,1,7}};
+		for (int[] tet : cube) polys.add(new Tetrahedron(tet, 1));
+
+		float[][] octahedron = {{1,0,0}, {0,1,0}, {0,0,1}, {0,0,-1}, {0,-1,0}, {-1,0,0}};
+		for (float[] v : octahedron) vertices.add(new Vertex(2.5f + 0.5f*v[0], 0.5f + 0.5f*v[1], 0.5f + 0.5f*v[2]));
+		polys.add(new Octahedron(new int[] {8, 9, 10, 11, 12, 13}, 2));
+		return new Mesh(new Topology(new ArrayList<Integer>(), new ArrayList<Edge>(), new ArrayList<Face>(), polys), new Geometry(vertices));
+	}
+
+	@Test
+	public void testVolumes() throws Exception {
+		int n0 = 120, n1 = 40, n2 = 41;
+		MeshVoxelizer voxelizer = new MeshVoxelizer(makeMesh(), n0, n1, n2, 0, 3, 0, 1, -0.0125f, 1.0125f);
+		short[] dense = voxelizer.toDense();
+		int[] counts = new int[3];
+		for (short label : dense) if (label != MeshVoxelizer.BACKGROUND) counts[label]++;
+
+		float voxel = (3f/n0)*(1f/n1)*(1.025f/n2);
+		assertEquals(1f, counts[1]*voxel, 0.05f);
+		assertEquals(1/6f, counts[2]*voxel, 0.02f);
+		assertEquals(0, counts[0]);
+
+		RunLengthVolume runs = voxelizer.toRunLength();
+		short[] slice = new short[n0*n1];
+		for (int i2 = 0; i2 < n2; ++i2) {
+			runs.getSlice(i2, slice);
+			for (int i = 0; i < n0*n1; ++i) assertEquals(dense[i2*n0*n1 + i], slice[i]);
+		}
+		assertEquals(counts[2], runs.count((short) 2));
+		assertEquals(dense[100 + n0*(20 + n1*20)], runs.get(100, 20, 20));
+	}
+
+	/** Two unit cubes of six tetrahedra, of materials 1 and 2, sharing the face x = 1. */
+	private static Mesh makeTwoCubes() {
+		ArrayList<Vertex> vertices = new ArrayList<Vertex>();
+		ArrayList<Polyhedron> polys = new ArrayList<Polyhedron>();
+		for (int k = 0; k < 12; ++k) vertices.add(new Vertex(k % 3, (k / 3) & 1, k / 6));
+		int[][] cube = {{0,1,3,7}, {0,3,2,7}, {0,2,6,7}, {0,6,4,7}, {0,4,5,7}, {0,5,1,7}};
+		int[][] corners = {{0,1,3,4,6,7,9,10}, {1,2,4,5,7,8,10,11}};
+		for (int m = 0; m < 2; ++m)
+			for (int[] tet : cube) {
+				int[] verts = new int[4];
+				for (int i = 0; i < 4; ++i) verts[i] = corners[m][tet[i]];
+				polys.add(new Tetrahedron(verts, m + 1));
+			}
+		return new Mesh(new Topology(new ArrayList<Integer>(), new ArrayList<Edge>(), new ArrayList<Face>(), polys), new Geometry(vertices));
+	}
+
+	/** Voxel centres on faces follow LabelSlicer's half-open rule: those on the shared face x = 1 go to the cube on its
+	 * right, those on x = 0 and y = 1 are kept and those on x = 2 and y = 0 are not, and those on faces inside a cube
+	 * leave no holes. Faces parallel to the slices keep their centres. */
+	@Test
+	public void testCentresOnFaces() throws Exception {
+		int n0 = 9, n1 = 5, n2 = 5;
+		short[] labels = new MeshVoxelizer(makeTwoCubes(), n0, n1, n2, -0.125f, 2.125f, -0.125f, 1.125f, 0, 1.25f).toDense();
+		for (int i2 = 0; i2 < n2; ++i2)
+			for (int i1 = 0; i1 < n1; ++i1)
+				for (int i0 = 0; i0 < n0; ++i0) {
+					float x = 0.25f*i0, y = 1 - 0.25f*i1;
+					short expected = (y == 0 || x == 2) ? MeshVoxelizer.BACKGROUND : (short) ((x < 1) ? 1 : 2);
+					assertEquals("voxel " + i0 + ", " + i1 + ", " + i2, expected, labels[i0 + n0*(i1 + n1*i2)]);
+				}
+	}
+}
@@ -0,0 +1,111 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import app.tools.math.Vertex;
+import app.tools.structure.Geometry;
+import app.tools.structure.PolyhedronBVH;
+import app.tools.topology.Polyhedron;
+import app.tools.topology.Tetrahedron;
+
+public class PolyhedronBVHTests {
+
+	/** Scatters n small tetrahedra over a 10 x 10 x 10 cube. */
+	private static List<Polyhedron> scatter(int n, Geometry g, Random random) {
+		List<Polyhedron> polys = new ArrayList<Polyhedron>();
+		for (int j = 0; j < n; ++j) {
+			float x = 10*random.nextFloat(), y = 10*random.nextFloat(), z = 10*random.nextFloat();
+			int[] verts = new int[4];
+			for (int k = 0; k < 4; ++k) {
+				verts[k] = g.size();
+				g.add(new Vertex(x + random.nextFloat(), y + random.nextFloat(), z + random.nextFloat()));
+			}
+			polys.add(new Tetrahedron(verts, j % 3));
+		}
+		return polys;
+	}
+
+	/** Brute-force plane test, as CuttingTool did before the hierarchy. */
+	private static List<Integer> crossing(List<Polyhedron> polys, Geometry g, float[] p, float[] n) {
+		List<Integer> result = new ArrayList<Integer>();
+		for (int j = 0; j < polys.size(); ++j) {
+			boolean ahead = false, behind = false;
+			for (int index : polys.get(j).getVertices()) {
+				Vertex q = g.get(index);
+				float dot = (q.getX() - p[0])*n[0] + (q.getY() - p[1])*n[1] + (q.getZ() - p[2])*n[2];
+				if (dot > 0) ahead = true;
+				else if (dot < 0) behind = true;
+				else ahead = behind = true;
+			}
+			if (ahead && behind) result.add(j);
+		}
+		return result;
+	}
+
+	@Test
+	public void testPlaneQueryMatchesBruteForce() {
+		Random random = new Random(7);
+		Geometry g = new Geometry(new ArrayList<Vertex>());
+		List<Polyhedron> polys = scatter(2000, g, random);
+		PolyhedronBVH bvh = new PolyhedronBVH(polys, g);
+
+		for (int trial = 0; trial < 20; ++trial) {
+			float[] n = {random.nextFloat() - 0.5f, random.nextFloat() - 0.5f, random.nextFloat() - 0.5f};
+			float[] p = {10*random.nextFloat(), 10*random.nextFloat(), 10*random.nextFloat()};
+			List<Integer> found = new ArrayList<Integer>();
+			bvh.queryPlane(p[0], p[1], p[2], n[0], n[1], n[2], found);
+			Collections.sort(found);
+			assertEquals(crossing(polys, g, p, n), found);
+		}
+	}
+
+	@Test
+	public void testRefitFollowsDeformation() {
+		Random random = new Random(11);
+		Geometry g = new Geometry(new ArrayList<Vertex>());
+		List<Polyhedron> polys = scatter(500, g, random);
+		PolyhedronBVH bvh = new PolyhedronBVH(polys, g);
+
+		for (int i = 0; i < g.size(); ++i) {
+			Vertex v = g.get(i);
+			g.set(i, new Vertex(v.getX()*0.5f + 20, v.getY(), v.getZ()*2));
+		}
+		bvh.refit();
+
+		float[] p = {22.5f, 0, 0}, n = {1, 0, 0};
+		List<Integer> found = new ArrayList<Integer>();
+		bvh.queryPlane(p[0], p[1], p[2], n[0], n[1], n[2], found);
+		Collections.sort(found);
+		assertFalse(found.isEmpty());
+		assertEquals(crossing(polys, g, p, n), found);
+	}
+
+	@Test
+	public void testBoxAndRayQueriesFindEveryHit() {
+		Random random = new Random(3);
+		Geometry g = new Geometry(new ArrayList<Vertex>());
+		List<Polyhedron> polys = scatter(1000, g, random);
+		PolyhedronBVH bvh = new PolyhedronBVH(polys, g);
+
+		float[] min = {2, 3, 4}, max = {5, 5, 6};
+		List<Integer> inBox = new ArrayList<Integer>();
+		bvh.queryBox(min, max, inBox);
+		List<Integer> onRay = new ArrayList<Integer>();
+		bvh.queryRay(4.5f, 4.5f, -1, 0, 0, 1, onRay);
+
+		for (int j = 0; j < polys.size(); ++j) {
+			float[] b = bvh.getBounds(j);
+			boolean overlaps = b[0] <= max[0] && b[3] >= min[0] && b[1] <= max[1] && b[4] >= min[1] && b[2] <= max[2] && b[5] >= min[2];
+			assertEquals(overlaps, inBox.contains(j));
+			boolean pierced = b[0] <= 4.5f && b[3] >= 4.5f && b[1] <= 4.5f && b[4] >= 4.5f;
+			assertEquals(pierced, onRay.contains(j));
+		}
+	}
+}
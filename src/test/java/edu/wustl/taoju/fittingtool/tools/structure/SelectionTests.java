@@ -0,0 +1,70 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import app.tools.structure.Selection;
+import app.tools.topology.Polyhedron;
+import app.tools.topology.Tetrahedron;
+
+public class SelectionTests {
+
+	@Test
+	public void testNewSelectionIsAllChanged() {
+		Selection s = new Selection(10, 2);
+		assertTrue(s.hasChanges(0));
+		assertTrue(s.hasChanges(1));
+		assertNull(s.takeChanges(0));
+		assertFalse(s.hasChanges(0));
+		assertTrue(s.hasChanges(1));
+		assertEquals(0, s.cardinality());
+	}
+
+	@Test
+	public void testChangesPerView() {
+		Selection s = new Selection(10, 2);
+		s.clearChanges(0);
+		s.clearChanges(1);
+
+		assertTrue(s.set(3, true));
+		assertFalse(s.set(3, true));										//No change, nothing recorded
+		assertTrue(s.set(7, true));
+		assertTrue(s.get(3));
+		assertEquals(2, s.cardinality());
+
+		BitSet changes = s.takeChanges(0);
+		assertEquals(2, changes.cardinality());
+		assertTrue(changes.get(3) && changes.get(7));
+		assertFalse(s.hasChanges(0));
+		assertTrue(s.hasChanges(1));
+
+		s.set(3, false);
+		assertEquals(1, s.takeChanges(0).cardinality());
+		assertEquals(2, s.takeChanges(1).cardinality());				//3 changed twice, recorded once
+
+		s.markAllChanged(1);
+		assertNull(s.takeChanges(1));
+	}
+
+	@Test
+	public void testSync() {
+		List<Polyhedron> polys = new ArrayList<Polyhedron>();
+		for (int j = 0; j < 4; ++j) polys.add(new Tetrahedron(new int[] {0, 1, 2, 3}, 0));
+		Selection s = new Selection(4, 1);
+		s.set(0, true);
+		s.clearChanges(0);
+
+		polys.get(2).setSelected(true, (short) 0);
+		s.sync(polys);
+		assertFalse(s.get(0));
+		assertTrue(s.get(2));
+		BitSet changes = s.takeChanges(0);
+		assertEquals(2, changes.cardinality());
+		assertTrue(changes.get(0) && changes.get(2));
+	}
+}
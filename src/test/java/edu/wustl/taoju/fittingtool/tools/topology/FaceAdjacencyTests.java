@@ -0,0 +1,166 @@
+package app.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import app.tools.MeshLoader;
+import app.tools.math.Vertex;
+import app.tools.structure.Geometry;
+import app.tools.structure.Mesh;
+import app.tools.topology.Edge;
+import app.tools.topology.Face;
+import app.tools.topology.FaceAdjacency;
+import app.tools.topology.Polyhedron;
+import app.tools.topology.Tetrahedron;
+import app.tools.topology.Topology;
+
+public class FaceAdjacencyTests {
+
+	/** Two tetrahedra sharing the face {1,2,3}: face 3 of the first and face 0 of the second. */
+	private static List<Polyhedron> makePair(int material1, int material2) {
+		List<Polyhedron> polys = new ArrayList<Polyhedron>();
+		polys.add(new Tetrahedron(new int[] {0, 1, 2, 3}, material1));
+		polys.add(new Tetrahedron(new int[] {1, 2, 3, 4}, material2));
+		return polys;
+	}
+
+	@Test
+	public void testSharedFaceSameMaterial() {
+		FaceAdjacency adjacency = new FaceAdjacency(makePair(1, 1));
+		assertEquals(8, adjacency.getFaceCount());
+		assertEquals(4, adjacency.getFirstFace(1));
+		assertEquals(8, adjacency.getFirstFace(2));
+
+		assertEquals(4, adjacency.getPartner(3));
+		assertEquals(3, adjacency.getPartner(4));
+		assertEquals(0, adjacency.getOwner(3));
+		assertEquals(1, adjacency.getOwner(4));
+		assertFalse(adjacency.isSurface(3));
+		assertFalse(adjacency.isSurface(4));
+		int[] shared = adjacency.getVertices(4);
+		Arrays.sort(shared);
+		assertArrayEquals(new int[] {1, 2, 3}, shared);
+	}
+
+	@Test
+	public void testSharedFaceDifferentMaterials() {
+		FaceAdjacency adjacency = new FaceAdjacency(makePair(1, 2));
+		assertEquals(4, adjacency.getPartner(3));
+		assertEquals(3, adjacency.getPartner(4));
+		assertEquals(0, adjacency.getOwner(3));
+		assertEquals(1, adjacency.getOwner(4));
+		assertTrue(adjacency.isSurface(3));
+		assertTrue(adjacency.isSurface(4));
+	}
+
+	@Test
+	public void testBoundaryFaces() {
+		FaceAdjacency adjacency = new FaceAdjacency(makePair(1, 1));
+		for (int face = 0; face < adjacency.getFaceCount(); ++face) {
+			if (face == 3 || face == 4) continue;
+			assertEquals(-1, adjacency.getPartner(face));
+			assertTrue(adjacency.isSurface(face));
+			assertEquals(face < 4 ? 0 : 1, adjacency.getOwner(face));
+		}
+	}
+
+	@Test
+	public void testFaceSharedByThree() {
+		List<Polyhedron> polys = makePair(1, 1);
+		polys.add(new Tetrahedron(new int[] {3, 1, 2, 5}, 1));
+		try {
+			new FaceAdjacency(polys);
+			fail("Face shared by three polyhedra accepted");
+		} catch (IllegalArgumentException e) {}
+	}
+
+	/** Two cubes of six tetrahedra, of materials 1 and 2, sharing the face x = 1, with one tetrahedron of the first
+	 * cube changed to material 3. */
+	private static Mesh makeTwoCubes() {
+		ArrayList<Vertex> vertices = new ArrayList<Vertex>();
+		ArrayList<Polyhedron> polys = new ArrayList<Polyhedron>();
+		for (int k = 0; k < 12; ++k) vertices.add(new Vertex(k % 3, (k / 3) & 1, k / 6));
+		int[][] cube = {{0,1,3,7}, {0,3,2,7}, {0,2,6,7}, {0,6,4,7}, {0,4,5,7}, {0,5,1,7}};
+		int[][] corners = {{0,1,3,4,6,7,9,10}, {1,2,4,5,7,8,10,11}};
+		for (int m = 0; m < 2; ++m)
+			for (int[] tet : cube) {
+				int[] verts = new int[4];
+				for (int i = 0; i < 4; ++i) verts[i] = corners[m][tet[i]];
+				polys.add(new Tetrahedron(verts, m + 1));
+			}
+		polys.get(2).setMaterial(3);
+		return new Mesh(new Topology(new ArrayList<Integer>(), new ArrayList<Edge>(), new ArrayList<Face>(), polys), new Geometry(vertices));
+	}
+
+	/** The crease faces of a loaded mesh, and the crease faces recorded on each polyhedron, are those found by pairing
+	 * faces through a hash table, as the loader did before FaceAdjacency. */
+	@Test
+	public void testCreaseFacesMatchHashPairing() throws Exception {
+		File file = File.createTempFile("faces", ".poly");
+		file.deleteOnExit();
+		MeshLoader.writeMesh(makeTwoCubes(), file);
+		Mesh mesh = MeshLoader.loadMesh(file);
+		file.delete();
+		ArrayList<Polyhedron> polys = mesh.getTopology().getPolyhedra();
+		assertEquals(12, polys.size());
+
+		HashMap<Long, Face> faces = new HashMap<Long, Face>();
+		HashMap<Long, int[]> sides = new HashMap<Long, int[]>();
+		for (int j = 0; j < polys.size(); ++j) {
+			Polyhedron p = polys.get(j);
+			int[][] rawFaces = new int[p.getNumFaces()][3];
+			p.getFaceIndexes(rawFaces);
+			for (int i = 0; i < rawFaces.length; ++i) {
+				Face f = new Face(rawFaces[i], p.getMaterial());
+				if (faces.containsKey(f.longHashCode())) {
+					faces.get(f.longHashCode()).setMaterial(p.getMaterial(), false);
+					int[] s = sides.get(f.longHashCode());
+					s[2] = j;
+					s[3] = i;
+				} else {
+					faces.put(f.longHashCode(), f);
+					sides.put(f.longHashCode(), new int[] {j, i, -1, -1});
+				}
+			}
+		}
+
+		HashMap<Long, Face> expected = new HashMap<Long, Face>();
+		List<List<Integer>> expectedIndexes = new ArrayList<List<Integer>>();
+		for (int j = 0; j < polys.size(); ++j) expectedIndexes.add(new ArrayList<Integer>());
+		for (Long l : faces.keySet()) {
+			Face f = faces.get(l);
+			if (f.getMaterial(true) == f.getMaterial(false)) continue;
+			expected.put(l, f);
+			int[] s = sides.get(l);
+			expectedIndexes.get(s[0]).add(s[1]);
+			if (s[2] >= 0) expectedIndexes.get(s[2]).add(s[3]);
+		}
+
+		ArrayList<Face> creases = mesh.getTopology().getFaces();
+		assertEquals(expected.size(), creases.size());
+		assertEquals(2*5*2 + 2 + 2, creases.size());							//Outer faces, shared face x = 1, material 3
+		for (Face f : creases) {
+			Face e = expected.get(f.longHashCode());
+			assertNotNull(e);
+			assertEquals(e.getMaterial(true), f.getMaterial(true));
+			assertEquals(e.getMaterial(false), f.getMaterial(false));
+		}
+
+		for (int j = 0; j < polys.size(); ++j) {
+			short[] actual = polys.get(j).getCreaseFaces().clone();
+			Arrays.sort(actual);
+			List<Integer> indexes = expectedIndexes.get(j);
+			short[] wanted = new short[indexes.size()];
+			for (int i = 0; i < wanted.length; ++i) wanted[i] = (short) (int) indexes.get(i);
+			Arrays.sort(wanted);
+			assertArrayEquals(wanted, actual);
+		}
+	}
+}